@@ -1,6 +1,9 @@
 package com.mapzen.open;
 
 import com.mapzen.open.activity.BaseActivity;
+import com.mapzen.open.route.RouteLevelOfDetail;
+import com.mapzen.open.util.RouteLineLayer;
+import com.mapzen.open.util.RouteLocationIndicator;
 import com.mapzen.osrm.Instruction;
 
 import org.oscim.core.GeoPoint;
@@ -15,8 +18,6 @@ import android.preference.PreferenceManager;
 import android.widget.Toast;
 import org.oscim.map.ViewController;
 
-import java.util.ArrayList;
-
 import static android.content.Context.MODE_PRIVATE;
 
 public final class MapController {
@@ -32,6 +33,7 @@ public final class MapController {
 
     private static MapController mapController;
     private Map map;
+    private RouteLineLayer routeLine;
     private Location location;
     private MapPosition mapPosition = new MapPosition(1.0, 1.0, Math.pow(2, DEFAULT_ZOOM_LEVEL));
     private BaseActivity activity;
@@ -59,6 +61,7 @@ public final class MapController {
     public void setActivity(BaseActivity activity) {
         this.activity = activity;
         this.map = activity.getMap();
+        this.routeLine = null;
         this.preferences = activity.getSharedPreferences(KEY_STORED_MAPPOSITION, MODE_PRIVATE);
     }
 
@@ -76,16 +79,38 @@ public final class MapController {
                 map.layers().remove(layer);
             }
         }
+        if (routeLine != null) {
+            routeLine.clear();
+        }
     }
 
-    public void clearLinesExcept(ArrayList<PathLayer> layers) {
-        for (Layer layer: map.layers()) {
-            if (layer.getClass().equals(PathLayer.class)) {
-                if (!layers.contains(layer)) {
-                    map.layers().remove(layer);
-                }
-            }
+    /**
+     * Draws the route on the shared route line layer, adding the layer below the location
+     * indicator the first time. The layer stays on the map so it can free its buffers when
+     * the route is cleared.
+     */
+    public void showRoute(RouteLevelOfDetail route) {
+        if (routeLine == null) {
+            routeLine = new RouteLineLayer(map);
+        }
+        if (!map.layers().contains(routeLine)) {
+            map.layers().add(routeLine);
+            moveToTop(RouteLocationIndicator.class);
         }
+        routeLine.setRoute(route);
+    }
+
+    /**
+     * Trims the route line up to the given point of the route geometry.
+     */
+    public void showRouteProgress(int traveledIndex) {
+        if (routeLine != null) {
+            routeLine.setTraveledIndex(traveledIndex);
+        }
+    }
+
+    public RouteLineLayer getRouteLine() {
+        return routeLine;
     }
 
     public void moveToTop(Class<?> klass) {
@@ -3,9 +3,11 @@ package com.mapzen.open;
 import com.mapzen.open.core.AppModule;
 import com.mapzen.open.core.CommonModule;
 import com.mapzen.open.core.OSMApi;
+import com.mapzen.open.core.OsmPermissions;
 import com.mapzen.open.util.SimpleCrypt;
 
 import org.scribe.builder.ServiceBuilder;
+import org.scribe.model.OAuthRequest;
 import org.scribe.model.Token;
 import org.scribe.oauth.OAuthService;
 
@@ -46,6 +48,11 @@ public class MapzenApplication extends Application {
     private String currentSearchTerm = null;
     private OAuthService osmOauthService;
     @Inject SimpleCrypt simpleCrypt;
+    @Inject OsmPermissions osmPermissions;
+
+    // Decrypted once and kept until the user logs in or out.
+    private Token accessToken;
+    private boolean accessTokenLoaded = false;
 
     private int autoCompleteVisibility = View.GONE;
 
@@ -77,16 +84,25 @@ public class MapzenApplication extends Application {
         this.currentSearchTerm = currentSearchTerm;
     }
 
-    public Token getAccessToken() {
-        Token accessToken = null;
-        SharedPreferences prefs = getSharedPreferences("OAUTH", Context.MODE_PRIVATE);
-        if (!prefs.getString("token", "").isEmpty()) {
-            accessToken = new Token(simpleCrypt.decode(prefs.getString("token", "")),
-                    simpleCrypt.decode(prefs.getString("secret", "")));
+    public synchronized Token getAccessToken() {
+        if (!accessTokenLoaded) {
+            SharedPreferences prefs = getSharedPreferences("OAUTH", Context.MODE_PRIVATE);
+            if (!prefs.getString("token", "").isEmpty()) {
+                accessToken = new Token(simpleCrypt.decode(prefs.getString("token", "")),
+                        simpleCrypt.decode(prefs.getString("secret", "")));
+            }
+            accessTokenLoaded = true;
         }
         return accessToken;
     }
 
+    /**
+     * Signs the request for the OSM API as the logged in user.
+     */
+    public void signRequest(OAuthRequest request) {
+        osmOauthService.signRequest(getAccessToken(), request);
+    }
+
     public boolean isLoggedIn() {
         Token accessToken = getAccessToken();
         return accessToken != null;
@@ -117,12 +133,27 @@ public class MapzenApplication extends Application {
         moveMapLocation = true;
     }
 
-    public void setAccessToken(Token accessToken) {
+    public synchronized void setAccessToken(Token accessToken) {
         SharedPreferences prefs = getSharedPreferences("OAUTH", Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = prefs.edit();
         editor.putString("token", simpleCrypt.encode(accessToken.getToken()));
         editor.putString("secret", simpleCrypt.encode(accessToken.getSecret()));
         editor.commit();
+        this.accessToken = accessToken;
+        accessTokenLoaded = true;
+        osmPermissions.invalidate();
+    }
+
+    public synchronized void clearAccessToken() {
+        SharedPreferences prefs = getSharedPreferences("OAUTH", Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.remove("token");
+        editor.remove("secret");
+        editor.remove("forced_login");
+        editor.commit();
+        accessToken = null;
+        accessTokenLoaded = true;
+        osmPermissions.invalidate();
     }
 
     public int getAutoCompleteVisibility() {
@@ -201,11 +201,7 @@ public class BaseActivity extends ActionBarActivity {
                         .commit();
                 return true;
             case R.id.logout:
-                SharedPreferences prefs = getSharedPreferences("OAUTH", Context.MODE_PRIVATE);
-                SharedPreferences.Editor editor = prefs.edit();
-                editor.remove("token");
-                editor.remove("forced_login");
-                editor.commit();
+                app.clearAccessToken();
                 startActivity(new Intent(this, InitialActivity.class));
                 finish();
                 return true;
@@ -540,9 +536,9 @@ public class BaseActivity extends ActionBarActivity {
         Intent intent = new Intent(this, DataUploadService.class);
         PendingIntent pintent = PendingIntent.getService(this, 0, intent, 0);
 
-        int hourInMillis = 60 * 60 * 1000;
         AlarmManager alarm = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-        alarm.setRepeating(AlarmManager.RTC_WAKEUP, cal.getTimeInMillis(), hourInMillis, pintent);
+        alarm.setInexactRepeating(AlarmManager.RTC_WAKEUP, cal.getTimeInMillis(),
+                AlarmManager.INTERVAL_HOUR, pintent);
     }
 
     private void uploadTraces() {
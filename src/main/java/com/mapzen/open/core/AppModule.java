@@ -10,14 +10,17 @@ import com.mapzen.open.adapters.PlaceArrayAdapter;
 import com.mapzen.open.adapters.SearchViewAdapter;
 import com.mapzen.open.fragment.MapFragment;
 import com.mapzen.open.login.LoginActivity;
-import com.mapzen.open.route.DrawPathTask;
 import com.mapzen.open.route.RouteFragment;
+import com.mapzen.open.route.RouteCache;
 import com.mapzen.open.route.RouteLocationIndicatorFactory;
+import com.mapzen.open.route.RouteModePrefetcher;
 import com.mapzen.open.route.RoutePreviewFragment;
+import com.mapzen.open.route.RouteRequestCoordinator;
 import com.mapzen.open.search.AutoCompleteAdapter;
 import com.mapzen.open.search.PagerResultsFragment;
 import com.mapzen.open.util.DatabaseHelper;
 import com.mapzen.open.util.DebugDataSubmitter;
+import com.mapzen.open.util.LocationRecorder;
 import com.mapzen.open.util.Logger;
 import com.mapzen.open.util.SimpleCrypt;
 import com.mapzen.osrm.Router;
@@ -28,6 +31,8 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Typeface;
 
+import java.io.File;
+
 import javax.inject.Singleton;
 
 import dagger.Module;
@@ -46,7 +51,6 @@ import dagger.Provides;
                 MapzenLocation.class,
                 MapFragment.class,
                 MapController.class,
-                DrawPathTask.class,
                 MapzenLocation.Listener.class,
                 PagerResultsFragment.class,
                 MapzenApplication.class,
@@ -72,6 +76,29 @@ public class AppModule {
         return Router.getRouter().setEndpoint(context.getString(R.string.osrm_endpoint));
     }
 
+    @Provides @Singleton RouteCache provideRouteCache() {
+        return new RouteCache(new File(context.getCacheDir(), "routes"));
+    }
+
+    @Provides @Singleton RouteRequestCoordinator provideRouteRequestCoordinator(Router router,
+            RouteCache routeCache) {
+        return new RouteRequestCoordinator(router, routeCache);
+    }
+
+    @Provides @Singleton RouteModePrefetcher provideRouteModePrefetcher(
+            RouteRequestCoordinator routeRequestCoordinator) {
+        return new RouteModePrefetcher(new RouteModePrefetcher.RouterFactory() {
+            @Override
+            public Router newRouter() {
+                return Router.getRouter().setEndpoint(context.getString(R.string.osrm_endpoint));
+            }
+        }, routeRequestCoordinator);
+    }
+
+    @Provides @Singleton OsmPermissions provideOsmPermissions() {
+        return new OsmPermissions(context.getSharedPreferences("OAUTH", Context.MODE_PRIVATE));
+    }
+
     @Provides OAuthRequestFactory provideOAuthRequestFactory() {
         return new OAuthRequestFactory();
     }
@@ -113,6 +140,10 @@ public class AppModule {
         return db;
     }
 
+    @Provides @Singleton LocationRecorder provideLocationRecorder(SQLiteDatabase db) {
+        return new LocationRecorder(db);
+    }
+
     @Provides @Singleton RouteLocationIndicatorFactory provideRouteLocationIndicatorFactory() {
         return new RouteLocationIndicatorFactory();
     }
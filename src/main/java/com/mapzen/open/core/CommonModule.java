@@ -3,6 +3,7 @@ package com.mapzen.open.core;
 import com.mapzen.android.lost.api.LostApiClient;
 import com.mapzen.helpers.ZoomController;
 import com.mapzen.open.MapzenApplication;
+import com.mapzen.open.location.LocationFilterPipeline;
 import com.mapzen.open.route.RouteEngine;
 import com.mapzen.open.search.SavedSearch;
 
@@ -35,6 +36,10 @@ public class CommonModule {
         return new RouteEngine();
     }
 
+    @Provides LocationFilterPipeline provideLocationFilterPipeline() {
+        return LocationFilterPipeline.createDefault();
+    }
+
     /**
      * Allow the application context to be injected but require that it be annotated with
      * {@link ForApplication @Annotation} to explicitly differentiate it from an activity context.
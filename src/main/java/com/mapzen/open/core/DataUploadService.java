@@ -1,90 +1,103 @@
 package com.mapzen.open.core;
 
 import com.mapzen.open.MapzenApplication;
+import com.mapzen.open.R;
 import com.mapzen.open.util.DatabaseHelper;
+import com.mapzen.open.util.GpxWriter;
 import com.mapzen.open.util.Logger;
+import com.mapzen.open.util.TraceSimplifier;
 
 import org.apache.http.Header;
 import org.apache.http.entity.mime.MultipartEntity;
-import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
 import org.scribe.model.OAuthRequest;
 import org.scribe.model.Response;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
 import android.app.Service;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabaseLockedException;
 import android.location.Location;
 import android.os.AsyncTask;
 import android.os.IBinder;
+import android.preference.PreferenceManager;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
-import java.util.Locale;
-import java.util.Properties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.GZIPOutputStream;
 
 import javax.inject.Inject;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_ALT;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_GROUP_ID;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_LAT;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_LNG;
-import static com.mapzen.open.util.DatabaseHelper.COLUMN_MSG;
-import static com.mapzen.open.util.DatabaseHelper.COLUMN_READY_FOR_UPLOAD;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_ROUTE_ID;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_SPEED;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_TABLE_ID;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_TIME;
-import static com.mapzen.open.util.DatabaseHelper.COLUMN_UPLOADED;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_GROUPS;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_LOCATIONS;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_ROUTES;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_ROUTE_GROUP;
-import static javax.xml.transform.OutputKeys.ENCODING;
-import static javax.xml.transform.OutputKeys.INDENT;
-import static javax.xml.transform.OutputKeys.METHOD;
-import static javax.xml.transform.OutputKeys.OMIT_XML_DECLARATION;
-import static javax.xml.transform.OutputKeys.VERSION;
 import static org.apache.http.protocol.HTTP.UTF_8;
 
 public class DataUploadService extends Service {
     private static final int MIN_RANGE_IN_METERS = 50;
+    public static final int MAX_CONCURRENT_UPLOADS = 2;
+    public static final int MAX_UPLOADS_PER_RUN = 50;
 
     private static final String RANGE_QUERY_EXT = " from "
             + TABLE_ROUTE_GROUP + " inner join " + TABLE_LOCATIONS + " on "
             + TABLE_LOCATIONS + "." + COLUMN_ROUTE_ID + " = " + TABLE_ROUTE_GROUP + "."
             + COLUMN_ROUTE_ID + " where " + COLUMN_GROUP_ID + " = ?";
 
-    private static final String MIN_LAT_QUERY = "select min(" + COLUMN_LAT + ")" + RANGE_QUERY_EXT;
-    private static final String MAX_LAT_QUERY = "select max(" + COLUMN_LAT + ")" + RANGE_QUERY_EXT;
-    private static final String MIN_LNG_QUERY = "select min(" + COLUMN_LNG + ")" + RANGE_QUERY_EXT;
-    private static final String MAX_LNG_QUERY = "select max(" + COLUMN_LNG + ")" + RANGE_QUERY_EXT;
+    private static final String TRACK_QUERY_EXT = " from " + TABLE_ROUTE_GROUP
+            + " inner join " + TABLE_LOCATIONS + " on " + TABLE_ROUTE_GROUP + "."
+            + COLUMN_ROUTE_ID + " = " + TABLE_LOCATIONS + "." + COLUMN_ROUTE_ID + " where "
+            + COLUMN_GROUP_ID + " = ? order by " + TABLE_LOCATIONS + "." + COLUMN_TIME
+            + " asc, " + TABLE_LOCATIONS + "." + COLUMN_TABLE_ID + " asc";
+
+    private static final String TRACK_QUERY = "select " + COLUMN_LAT + ", " + COLUMN_LNG + ", "
+            + COLUMN_ALT + ", " + TABLE_LOCATIONS + "." + COLUMN_TIME + ", " + COLUMN_SPEED
+            + TRACK_QUERY_EXT;
+
+    private static final String TRACK_SHAPE_QUERY = "select " + COLUMN_LAT + ", " + COLUMN_LNG
+            + TRACK_QUERY_EXT;
+
+    private static final String BOUNDS_QUERY = "select min(" + COLUMN_LAT + "), max("
+            + COLUMN_LAT + "), min(" + COLUMN_LNG + "), max(" + COLUMN_LNG + ")"
+            + RANGE_QUERY_EXT;
 
     private MapzenApplication app;
 
     @Inject OAuthRequestFactory requestFactory;
     @Inject SQLiteDatabase db;
+    @Inject OsmPermissions osmPermissions;
+
+    private UploadQueue uploadQueue;
+    private ExecutorService uploadExecutor;
+    private final AtomicBoolean running = new AtomicBoolean(false);
 
     @Override
     public void onCreate() {
@@ -92,6 +105,14 @@ public class DataUploadService extends Service {
         app = (MapzenApplication) getApplication();
         Logger.d("DataUploadService: oncreate");
         app.inject(this);
+        uploadQueue = new UploadQueue(db);
+        uploadExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_UPLOADS);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        uploadExecutor.shutdown();
     }
 
     @Override
@@ -100,31 +121,23 @@ public class DataUploadService extends Service {
         (new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... params) {
-                String permissionResponse = getPermissionResponse();
-                if (!hasWritePermission(permissionResponse)) {
+                if (!canWriteGpx()) {
                     stopSelf();
                 }
-                Cursor cursor = null;
+                if (db == null) {
+                    return null;
+                }
+                if (!running.compareAndSet(false, true)) {
+                    Logger.d("DataUpload: already uploading");
+                    return null;
+                }
                 try {
-                    if (db == null) {
-                        return null;
-                    }
-                    cursor = db.query(TABLE_GROUPS,
-                            new String[] { COLUMN_TABLE_ID, COLUMN_MSG },
-                            COLUMN_UPLOADED + " is null AND " + COLUMN_READY_FOR_UPLOAD + " == ?",
-                            new String[] { "1" }, null, null, null);
-                    while (cursor.moveToNext()) {
-                        int groupIdIndex = cursor.getColumnIndex(COLUMN_TABLE_ID);
-                        int routeDescription = cursor.getColumnIndex(COLUMN_MSG);
-                        generateGpxXmlFor(cursor.getString(groupIdIndex),
-                                cursor.getString(routeDescription));
-                    }
+                    uploadQueue.sync();
+                    uploadDueGroups();
                 } catch (SQLiteDatabaseLockedException exception) {
                     Logger.d("DataUpload: database is locked lets try again later");
                 } finally {
-                    if (cursor != null) {
-                        cursor.close();
-                    }
+                    running.set(false);
                 }
                 return null;
             }
@@ -141,204 +154,237 @@ public class DataUploadService extends Service {
         Logger.d("DataUploadService: constructor");
     }
 
-    public void generateGpxXmlFor(String groupId, String description) {
+    /**
+     * Asks OSM whether traces may be uploaded, unless it answered recently.
+     */
+    private boolean canWriteGpx() {
+        final long now = System.currentTimeMillis();
+        final Boolean cached = osmPermissions.canWriteGpx(now);
+        if (cached != null) {
+            return cached;
+        }
+
+        final String permissionResponse = getPermissionResponse();
+        final boolean canWriteGpx = hasWritePermission(permissionResponse);
+        if (permissionResponse != null) {
+            osmPermissions.setCanWriteGpx(canWriteGpx, now);
+        }
+        return canWriteGpx;
+    }
+
+    public void setUploadExecutor(ExecutorService uploadExecutor) {
+        this.uploadExecutor = uploadExecutor;
+    }
+
+    /**
+     * Claims the groups that are due and uploads them, at most {@link #MAX_CONCURRENT_UPLOADS}
+     * at a time.
+     */
+    private void uploadDueGroups() {
+        final List<UploadQueue.Entry> due = uploadQueue.takeDue(System.currentTimeMillis(),
+                MAX_UPLOADS_PER_RUN);
+        if (due.isEmpty()) {
+            return;
+        }
+
+        Logger.d("DataUpload: " + due.size() + " of " + uploadQueue.size() + " groups due");
+        final ArrayList<Callable<Void>> uploads = new ArrayList<Callable<Void>>(due.size());
+        for (UploadQueue.Entry entry : due) {
+            uploads.add(new Upload(entry));
+        }
+        try {
+            uploadExecutor.invokeAll(uploads);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return false if the group was left for later because nobody is logged into OSM,
+     * true once it has been uploaded or discarded as too short.
+     */
+    public boolean generateGpxXmlFor(String groupId, String description) throws IOException {
         if (app.getAccessToken() == null) {
             Logger.d("DataUploadService: user not logged into OSM");
-            return;
+            return false;
         }
         Logger.d("DataUpload: generating for " + groupId);
-        ByteArrayOutputStream output = null;
-        try {
-            DOMSource domSource = getDocument(groupId);
-            if (domSource == null) {
-                Logger.d("There are not enough tracking points");
-                setGroupAsUploaded(groupId);
-                return;
-            }
-            TransformerFactory factory = TransformerFactory.newInstance();
-            Transformer transformer = factory.newTransformer();
-            setOutputFormat(transformer);
-            output = new ByteArrayOutputStream();
-            StreamResult result = new StreamResult(output);
-            transformer.transform(domSource, result);
-        } catch (TransformerException e) {
-            Logger.e("Transforming failed: " + e.getMessage());
+        final File gpxFile = writeGpxFile(groupId);
+        if (gpxFile == null) {
+            Logger.d("There are not enough tracking points");
+            setGroupAsUploaded(groupId);
+            return true;
         }
         Logger.d("DataUpload gonna write " + description);
-        submitCompressedFile(output, groupId, description);
+        submitCompressedFile(gpxFile, groupId, description);
+        return true;
     }
 
-    public void submitCompressedFile(ByteArrayOutputStream output,
-                                     String routeId, String description) {
+    public void submitCompressedFile(File gpxFile, String routeId, String description)
+            throws IOException {
         Logger.d("DataUpload gonna submit");
         try {
-            String gpxString = output.toString();
-            byte[] compressedGPX = compressGPX(gpxString);
-            submitTrace(description, routeId, compressedGPX);
-
-        } catch (IOException e) {
-            Logger.e("IOException occurred " + e.getMessage());
+            submitTrace(description, routeId, gpxFile);
+        } finally {
+            if (!gpxFile.delete()) {
+                Logger.e("unable to delete " + gpxFile.getName());
+            }
         }
     }
 
-    public DOMSource getDocument(String groupId) {
-        DOMSource domSource = null;
+    /**
+     * Streams the group's track points from the database into a gzipped GPX file in the cache
+     * directory, one row at a time. Only the points picked by {@link #markTrackPoints(String)}
+     * are written.
+     *
+     * @return the compressed file, or null if the trace is too short to upload.
+     */
+    public File writeGpxFile(String groupId) throws IOException {
+        if (calculateMaxRange(groupId) < MIN_RANGE_IN_METERS) {
+            return null;
+        }
+
+        final boolean[] keep = markTrackPoints(groupId);
+        final File file = File.createTempFile("trace", ".gpx.gz", app.getCacheDir());
+        boolean written = false;
+        GpxWriter writer = null;
+        Cursor cursor = null;
         try {
-            DateTimeFormatter isoDateParser = ISODateTimeFormat.dateTimeNoMillis();
-            String selectStatement = String.format(Locale.US,
-                    "SELECT %s, %s, %s, %s, %s ", COLUMN_LAT, COLUMN_LNG, COLUMN_ALT, COLUMN_TIME,
-                    COLUMN_SPEED);
-            String fullQuery = selectStatement
-                    + "from " + TABLE_ROUTE_GROUP
-                    + " inner join " + TABLE_LOCATIONS + " on "
-                    + TABLE_ROUTE_GROUP + "." + COLUMN_ROUTE_ID
-                    + " = "
-                    + TABLE_LOCATIONS + "." + COLUMN_ROUTE_ID
-                    + " WHERE " + COLUMN_GROUP_ID + " = ? "
-                    + "ORDER BY " + TABLE_LOCATIONS + "." + COLUMN_TIME
-                    + " ASC";
-            Logger.d("full query: " + fullQuery);
-            Cursor cursor = db.rawQuery(fullQuery, new String[] { groupId });
-            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory
-                    .newInstance();
-            DocumentBuilder documentBuilder = documentBuilderFactory
-                    .newDocumentBuilder();
-            Document document = documentBuilder.newDocument();
-            Element rootElement = getRootElement(document);
-            document.appendChild(rootElement);
-            Element trkElement = document.createElement("trk");
-            rootElement.appendChild(trkElement);
-            Element nameElement = document.createElement("name");
-            nameElement.setTextContent("Mapzen Route");
-            trkElement.appendChild(nameElement);
-            Element trksegElement = document.createElement("trkseg");
-            while (cursor.moveToNext()) {
-                addTrackPoint(isoDateParser, cursor, document, trksegElement);
+            writer = new GpxWriter(new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(file)), UTF_8)));
+            cursor = db.rawQuery(TRACK_QUERY, new String[] { groupId });
+            final int latIndex = cursor.getColumnIndex(COLUMN_LAT);
+            final int lonIndex = cursor.getColumnIndex(COLUMN_LNG);
+            final int altIndex = cursor.getColumnIndex(COLUMN_ALT);
+            final int timeIndex = cursor.getColumnIndex(COLUMN_TIME);
+            final int speedIndex = cursor.getColumnIndex(COLUMN_SPEED);
+            writer.begin();
+            for (int i = 0; cursor.moveToNext(); i++) {
+                if (i < keep.length && keep[i]) {
+                    writer.addTrackPoint(cursor.getDouble(latIndex), cursor.getDouble(lonIndex),
+                            cursor.getDouble(altIndex), cursor.getLong(timeIndex),
+                            cursor.getDouble(speedIndex));
+                }
             }
-            trkElement.appendChild(trksegElement);
-            Element documentElement =  document.getDocumentElement();
-            if (calculateMaxRange(groupId) < MIN_RANGE_IN_METERS) {
-                return null;
+            writer.end();
+            written = true;
+            logReduction(groupId, keep.length, writer.getPointCount(), file.length());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (writer != null) {
+                writer.close();
+            }
+            if (!written) {
+                file.delete();
             }
-            domSource = new DOMSource(documentElement);
-        } catch (ParserConfigurationException e) {
-            Logger.e("Building xml failed: " + e.getMessage());
         }
-        return domSource;
+        return file;
     }
 
     /**
-     * Calculates distance between the two theoretical farthest points in the route.
+     * Reads only the coordinates of the group's track, in the same order as
+     * {@link #TRACK_QUERY}, and runs them through the trace simplifier.
      *
-     * @return theoretical max range in meters.
+     * @return array with the indexes of the points to upload set to true.
      */
-    private float calculateMaxRange(String groupId) {
-        final Cursor minLatCursor = db.rawQuery(MIN_LAT_QUERY, new String[] { groupId });
-        final Cursor maxLatCursor = db.rawQuery(MAX_LAT_QUERY, new String[] { groupId });
-        final Cursor minLngCursor = db.rawQuery(MIN_LNG_QUERY, new String[] { groupId });
-        final Cursor maxLngCursor = db.rawQuery(MAX_LNG_QUERY, new String[] { groupId });
-
-        minLatCursor.moveToFirst();
-        minLngCursor.moveToFirst();
-        maxLatCursor.moveToFirst();
-        maxLngCursor.moveToFirst();
-
-        final double minLat = minLatCursor.getDouble(0);
-        final double maxLat = maxLatCursor.getDouble(0);
-        final double minLng = minLngCursor.getDouble(0);
-        final double maxLng = maxLngCursor.getDouble(0);
-
-        final Location min = new Location("temp");
-        min.setLatitude(minLat);
-        min.setLongitude(minLng);
-
-        final Location max = new Location("temp");
-        max.setLatitude(maxLat);
-        max.setLongitude(maxLng);
-
-        return min.distanceTo(max);
+    private boolean[] markTrackPoints(String groupId) {
+        final Cursor cursor = db.rawQuery(TRACK_SHAPE_QUERY, new String[] { groupId });
+        try {
+            final int n = cursor.getCount();
+            final int[] latitudesE6 = new int[n];
+            final int[] longitudesE6 = new int[n];
+            for (int i = 0; i < n && cursor.moveToNext(); i++) {
+                latitudesE6[i] = (int) Math.round(cursor.getDouble(0) * 1e6);
+                longitudesE6[i] = (int) Math.round(cursor.getDouble(1) * 1e6);
+            }
+            return getTraceSimplifier().mark(latitudesE6, longitudesE6);
+        } finally {
+            cursor.close();
+        }
     }
 
-    private void setOutputFormat(Transformer transformer) {
-        Properties outFormat = new Properties();
-        outFormat.setProperty(INDENT, "yes");
-        outFormat.setProperty(METHOD, "xml");
-        outFormat.setProperty(OMIT_XML_DECLARATION, "no");
-        outFormat.setProperty(VERSION, "1.0");
-        outFormat.setProperty(ENCODING, UTF_8);
-        transformer.setOutputProperties(outFormat);
+    private TraceSimplifier getTraceSimplifier() {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(app);
+        final int stationaryRadius = prefs.getInt(
+                app.getString(R.string.settings_trace_stationary_radius_key),
+                app.getResources().getInteger(R.integer.trace_stationary_radius));
+        final int tolerance = prefs.getInt(
+                app.getString(R.string.settings_trace_tolerance_key),
+                app.getResources().getInteger(R.integer.trace_tolerance));
+        return new TraceSimplifier(stationaryRadius, tolerance);
     }
 
-    private void addTrackPoint(DateTimeFormatter isoDateParser, Cursor cursor, Document document,
-                               Element trksegElement) {
-        int latIndex = cursor.getColumnIndex(COLUMN_LAT);
-        int lonIndex = cursor.getColumnIndex(COLUMN_LNG);
-        int altIndex = cursor.getColumnIndex(COLUMN_ALT);
-        int timeIndex = cursor.getColumnIndex(COLUMN_TIME);
-        int speedIndex = cursor.getColumnIndex(COLUMN_SPEED);
-        Element trkptElement = document.createElement("trkpt");
-        Element elevationElement = document.createElement("ele");
-        Element timeElement = document.createElement("time");
-        Element speedElement = document.createElement("speed");
-        trkptElement.setAttribute("lat", cursor.getString(latIndex));
-        trkptElement.setAttribute("lon", cursor.getString(lonIndex));
-        elevationElement.setTextContent(cursor.getString(altIndex));
-
-        DateTime date = new DateTime(cursor.getLong(timeIndex));
-        timeElement.setTextContent(date.toString(isoDateParser));
-
-        speedElement.setTextContent(String.valueOf(cursor.getDouble(speedIndex)));
-
-        trkptElement.appendChild(elevationElement);
-        trkptElement.appendChild(timeElement);
-        trkptElement.appendChild(speedElement);
-        trksegElement.appendChild(trkptElement);
+    private void logReduction(String groupId, int recorded, int written, long bytes) {
+        final String msg = "kept " + written + " of " + recorded + " points ("
+                + (recorded == 0 ? 0 : Math.round(100.0 * written / recorded)) + "%), "
+                + bytes + " bytes compressed for " + groupId;
+        Logger.d("DataUpload: " + msg);
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(app);
+        if (prefs.getBoolean(app.getString(R.string.settings_key_debug), false)) {
+            Logger.logToDatabase(db, DataUploadService.class.getSimpleName(), msg);
+        }
     }
 
-    private Element getRootElement(Document document) {
-        Element rootElement = document.createElement("gpx");
-        rootElement.setAttribute("version", "1.0");
-        rootElement.setAttribute("creator", "mapzen - start where you are http://mapzen.com");
-        rootElement.setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-        rootElement.setAttribute("xmlns:schemaLocation",
-                "http://www.topografix.com/GPX/1/0 http://www.topografix.com/GPX/1/0/gpx.xsd");
-        rootElement.setAttribute("xmlns", "http://www.topografix.com/GPX/1/0");
-        return rootElement;
+    /**
+     * Calculates distance between the two theoretical farthest points in the route. The bounds
+     * come from a single aggregate query, so a short trace is rejected without reading its points.
+     *
+     * @return theoretical max range in meters.
+     */
+    private float calculateMaxRange(String groupId) {
+        final Cursor cursor = db.rawQuery(BOUNDS_QUERY, new String[] { groupId });
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return 0;
+            }
+
+            final Location min = new Location("temp");
+            min.setLatitude(cursor.getDouble(0));
+            min.setLongitude(cursor.getDouble(2));
+
+            final Location max = new Location("temp");
+            max.setLatitude(cursor.getDouble(1));
+            max.setLongitude(cursor.getDouble(3));
+
+            return min.distanceTo(max);
+        } finally {
+            cursor.close();
+        }
     }
 
-    public void submitTrace(String description, String routeId, byte[] compressedGPX) {
+    public void submitTrace(String description, String routeId, File compressedGpx)
+            throws IOException {
         Logger.d("DataUpload submitting trace");
 
         MultipartEntity reqEntity = new MultipartEntity();
-        try {
-            reqEntity.addPart("description", new StringBody(description));
-            reqEntity.addPart("visibility", new StringBody("public"));
-            reqEntity.addPart("public", new StringBody("1"));
-            reqEntity.addPart("file", new ByteArrayBody(compressedGPX, routeId + ".gpx.gz"));
-        } catch (UnsupportedEncodingException e) {
-            Logger.e(e.getMessage());
-        }
+        reqEntity.addPart("description", new StringBody(description));
+        reqEntity.addPart("visibility", new StringBody("public"));
+        reqEntity.addPart("public", new StringBody("1"));
+        reqEntity.addPart("file", new FileBody(compressedGpx, routeId + ".gpx.gz",
+                "application/octet-stream", null));
+
+        // The OAuth request only takes the payload as bytes, so the body is buffered. If it can't
+        // be written completely nothing is sent, and the upload is retried later.
         ByteArrayOutputStream bos =
                 new ByteArrayOutputStream((int) reqEntity.getContentLength());
-        try {
-            reqEntity.writeTo(bos);
-        } catch (IOException e) {
-            Logger.e("IOException: " + e.getMessage());
-        }
+        reqEntity.writeTo(bos);
 
         OAuthRequest request = requestFactory.getOAuthRequest();
         request.addPayload(bos.toByteArray());
         Header contentType = reqEntity.getContentType();
         request.addHeader(contentType.getName(), contentType.getValue());
 
-        app.getOsmOauthService().signRequest(app.getAccessToken(), request);
+        app.signRequest(request);
         Response response = request.send();
 
         Logger.d("DataUpload Response:" + response.getBody());
-        if (response.isSuccessful()) {
-            setGroupAsUploaded(routeId);
-            Logger.d("DataUpload: done uploading: " + routeId);
+        if (!response.isSuccessful()) {
+            throw new IOException("upload failed with HTTP " + response.getCode());
         }
+        setGroupAsUploaded(routeId);
+        Logger.d("DataUpload: done uploading: " + routeId);
     }
 
     public boolean hasWritePermission(String response) {
@@ -366,7 +412,7 @@ public class DataUploadService extends Service {
     public String getPermissionResponse() {
         try {
             OAuthRequest request = requestFactory.getPermissionsRequest();
-            app.getOsmOauthService().signRequest(app.getAccessToken(), request);
+            app.signRequest(request);
             Response response = request.send();
             return response.getBody();
         } catch (Exception e) {
@@ -395,13 +441,34 @@ public class DataUploadService extends Service {
                 new String[] { groupId });
     }
 
-    private byte[] compressGPX(String gpxString) throws IOException {
-        ByteArrayOutputStream os = new ByteArrayOutputStream(gpxString.length());
-        GZIPOutputStream gos = new GZIPOutputStream(os);
-        gos.write(gpxString.getBytes());
-        gos.close();
-        byte[] compressedGPX = os.toByteArray();
-        os.close();
-        return compressedGPX;
+    private final class Upload implements Callable<Void> {
+        private final UploadQueue.Entry entry;
+
+        private Upload(UploadQueue.Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Void call() {
+            final String groupId = entry.getGroupId();
+            try {
+                if (generateGpxXmlFor(groupId, entry.getDescription())) {
+                    uploadQueue.remove(groupId);
+                } else {
+                    uploadQueue.release(groupId);
+                }
+            } catch (IOException e) {
+                retryLater(groupId, e);
+            } catch (RuntimeException e) {
+                retryLater(groupId, e);
+            }
+            return null;
+        }
+
+        private void retryLater(String groupId, Exception e) {
+            Logger.e("DataUpload: upload of " + groupId + " failed: " + e.getMessage());
+            uploadQueue.retryLater(groupId, String.valueOf(e.getMessage()),
+                    System.currentTimeMillis());
+        }
     }
 }
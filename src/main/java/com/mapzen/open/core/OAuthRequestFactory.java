@@ -6,11 +6,21 @@ import static org.scribe.model.Verb.GET;
 import static org.scribe.model.Verb.POST;
 
 public class OAuthRequestFactory {
+    private final String baseUrl;
+
+    public OAuthRequestFactory() {
+        this(OSMApi.BASE_URL);
+    }
+
+    public OAuthRequestFactory(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
     public OAuthRequest getOAuthRequest() {
-        return new OAuthRequest(POST, OSMApi.BASE_URL + OSMApi.CREATE_GPX);
+        return new OAuthRequest(POST, baseUrl + OSMApi.CREATE_GPX);
     }
 
     public OAuthRequest getPermissionsRequest() {
-        return new OAuthRequest(GET, OSMApi.BASE_URL + OSMApi.CHECK_PERMISSIONS);
+        return new OAuthRequest(GET, baseUrl + OSMApi.CHECK_PERMISSIONS);
     }
 }
@@ -0,0 +1,50 @@
+package com.mapzen.open.core;
+
+import android.content.SharedPreferences;
+
+/**
+ * Remembers whether the logged in OSM user may upload GPX traces, so the permissions request is
+ * made once per {@link #TTL} instead of on every upload run. The upload alarm fires hourly and
+ * the service's process rarely lives that long, so the answer is kept in shared preferences to
+ * outlive several runs. Forget it whenever the user logs in or out.
+ */
+public class OsmPermissions {
+    public static final long TTL = 24 * 60 * 60 * 1000;
+    public static final String KEY_CAN_WRITE_GPX = "can_write_gpx";
+    public static final String KEY_CHECKED_AT = "can_write_gpx_checked_at";
+
+    private final SharedPreferences prefs;
+
+    public OsmPermissions(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    /**
+     * @return the cached answer, or null if there is none or it is older than {@link #TTL}.
+     */
+    public synchronized Boolean canWriteGpx(long now) {
+        if (!prefs.contains(KEY_CAN_WRITE_GPX) || !prefs.contains(KEY_CHECKED_AT)) {
+            return null;
+        }
+
+        final long checkedAt = prefs.getLong(KEY_CHECKED_AT, 0);
+        if (now - checkedAt >= TTL || now < checkedAt) {
+            return null;
+        }
+        return prefs.getBoolean(KEY_CAN_WRITE_GPX, false);
+    }
+
+    public synchronized void setCanWriteGpx(boolean canWriteGpx, long now) {
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putBoolean(KEY_CAN_WRITE_GPX, canWriteGpx);
+        editor.putLong(KEY_CHECKED_AT, now);
+        editor.commit();
+    }
+
+    public synchronized void invalidate() {
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.remove(KEY_CAN_WRITE_GPX);
+        editor.remove(KEY_CHECKED_AT);
+        editor.commit();
+    }
+}
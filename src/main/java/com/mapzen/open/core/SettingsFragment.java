@@ -68,6 +68,9 @@ public class SettingsFragment extends PreferenceFragment {
         displayValue(R.string.settings_zoom_driving_over50_key, R.integer.zoom_driving_over50);
         displayValue(R.string.settings_number_of_locations_for_average_speed_key,
                 R.integer.number_of_locations_for_average_speed);
+        displayValue(R.string.settings_trace_stationary_radius_key,
+                R.integer.trace_stationary_radius);
+        displayValue(R.string.settings_trace_tolerance_key, R.integer.trace_tolerance);
     }
 
     private void initSharedPrefsListener() {
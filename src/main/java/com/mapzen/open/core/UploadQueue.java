@@ -0,0 +1,193 @@
+package com.mapzen.open.core;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_ATTEMPTS;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_GROUP_ID;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_LAST_ERROR;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_MSG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_NEXT_ATTEMPT;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_READY_FOR_UPLOAD;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_STATE;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_TABLE_ID;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_UPLOADED;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_GROUPS;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_UPLOAD_QUEUE;
+
+/**
+ * Upload state of each recorded group, kept in the database so an interrupted upload resumes
+ * where it left off. Failed uploads are retried after an exponential backoff with jitter, which
+ * spreads a backlog of retries over time instead of sending them all on the next alarm.
+ */
+public class UploadQueue {
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_UPLOADING = 1;
+    public static final long BASE_BACKOFF = 15 * 60 * 1000;
+    public static final long MAX_BACKOFF = 12 * 60 * 60 * 1000;
+
+    private static final String DUE_QUERY = "select " + TABLE_UPLOAD_QUEUE + "."
+            + COLUMN_GROUP_ID + ", " + TABLE_GROUPS + "." + COLUMN_MSG + " from "
+            + TABLE_UPLOAD_QUEUE + " inner join " + TABLE_GROUPS + " on "
+            + TABLE_GROUPS + "." + COLUMN_TABLE_ID + " = " + TABLE_UPLOAD_QUEUE + "."
+            + COLUMN_GROUP_ID + " where " + COLUMN_STATE + " = " + STATE_PENDING
+            + " and " + COLUMN_NEXT_ATTEMPT + " <= ? order by " + COLUMN_NEXT_ATTEMPT
+            + " limit ?";
+
+    private final SQLiteDatabase db;
+    private final Random random;
+
+    public UploadQueue(SQLiteDatabase db) {
+        this(db, new Random());
+    }
+
+    public UploadQueue(SQLiteDatabase db, Random random) {
+        this.db = db;
+        this.random = random;
+    }
+
+    /**
+     * Brings the queue in line with the groups table: adds groups that became ready, drops
+     * entries whose group is gone and puts back uploads a killed process left in flight.
+     * Safe to run any number of times.
+     */
+    public void sync() {
+        db.execSQL("insert or ignore into " + TABLE_UPLOAD_QUEUE + " (" + COLUMN_GROUP_ID + ", "
+                + COLUMN_STATE + ") select " + COLUMN_TABLE_ID + ", " + STATE_PENDING
+                + " from " + TABLE_GROUPS + " where " + COLUMN_READY_FOR_UPLOAD + " = 1 and "
+                + COLUMN_UPLOADED + " is null");
+        db.execSQL("delete from " + TABLE_UPLOAD_QUEUE + " where " + COLUMN_GROUP_ID
+                + " not in (select " + COLUMN_TABLE_ID + " from " + TABLE_GROUPS + ")");
+        final ContentValues values = new ContentValues();
+        values.put(COLUMN_STATE, STATE_PENDING);
+        db.update(TABLE_UPLOAD_QUEUE, values, COLUMN_STATE + " = ?",
+                new String[] { String.valueOf(STATE_UPLOADING) });
+    }
+
+    /**
+     * Claims up to {@code limit} entries that are due, oldest first, marking them as uploading.
+     */
+    public synchronized List<Entry> takeDue(long now, int limit) {
+        final ArrayList<Entry> entries = new ArrayList<Entry>();
+        final Cursor cursor = db.rawQuery(DUE_QUERY,
+                new String[] { String.valueOf(now), String.valueOf(limit) });
+        try {
+            while (cursor.moveToNext()) {
+                entries.add(new Entry(cursor.getString(0), cursor.getString(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        final ContentValues values = new ContentValues();
+        values.put(COLUMN_STATE, STATE_UPLOADING);
+        for (Entry entry : entries) {
+            db.update(TABLE_UPLOAD_QUEUE, values, COLUMN_GROUP_ID + " = ?",
+                    new String[] { entry.groupId });
+        }
+        return entries;
+    }
+
+    public void remove(String groupId) {
+        db.delete(TABLE_UPLOAD_QUEUE, COLUMN_GROUP_ID + " = ?", new String[] { groupId });
+    }
+
+    /**
+     * Puts a claimed entry back as it was, without counting an attempt.
+     */
+    public void release(String groupId) {
+        final ContentValues values = new ContentValues();
+        values.put(COLUMN_STATE, STATE_PENDING);
+        db.update(TABLE_UPLOAD_QUEUE, values, COLUMN_GROUP_ID + " = ?", new String[] { groupId });
+    }
+
+    /**
+     * Records a failed attempt and puts the entry back in the queue, due again after a backoff
+     * based on how many attempts have failed.
+     */
+    public synchronized void retryLater(String groupId, String error, long now) {
+        final int attempts = getAttempts(groupId) + 1;
+        final ContentValues values = new ContentValues();
+        values.put(COLUMN_STATE, STATE_PENDING);
+        values.put(COLUMN_ATTEMPTS, attempts);
+        values.put(COLUMN_NEXT_ATTEMPT, now + getBackoff(attempts));
+        values.put(COLUMN_LAST_ERROR, error);
+        db.update(TABLE_UPLOAD_QUEUE, values, COLUMN_GROUP_ID + " = ?", new String[] { groupId });
+    }
+
+    public String getLastError(String groupId) {
+        final Cursor cursor = db.query(TABLE_UPLOAD_QUEUE, new String[] { COLUMN_LAST_ERROR },
+                COLUMN_GROUP_ID + " = ?", new String[] { groupId }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public long getNextAttempt(String groupId) {
+        final Cursor cursor = db.query(TABLE_UPLOAD_QUEUE, new String[] { COLUMN_NEXT_ATTEMPT },
+                COLUMN_GROUP_ID + " = ?", new String[] { groupId }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public int getAttempts(String groupId) {
+        final Cursor cursor = db.query(TABLE_UPLOAD_QUEUE, new String[] { COLUMN_ATTEMPTS },
+                COLUMN_GROUP_ID + " = ?", new String[] { groupId }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public int size() {
+        final Cursor cursor = db.rawQuery("select count(*) from " + TABLE_UPLOAD_QUEUE, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return delay before the next attempt: half of the doubled delay is fixed and the other
+     * half random, so retries of groups that failed together drift apart.
+     */
+    public long getBackoff(int attempts) {
+        long delay = BASE_BACKOFF;
+        for (int i = 1; i < attempts && delay < MAX_BACKOFF; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, MAX_BACKOFF);
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    public static final class Entry {
+        private final String groupId;
+        private final String description;
+
+        private Entry(String groupId, String description) {
+            this.groupId = groupId;
+            this.description = description;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.mapzen.open.location;
+
+import android.location.Location;
+
+/**
+ * Drops fixes whose reported accuracy is worse than a limit. Fixes without an accuracy pass.
+ */
+public class AccuracyFilter implements LocationFilter {
+    private final float maxAccuracy;
+
+    /**
+     * @param maxAccuracy largest accepted accuracy radius in meters.
+     */
+    public AccuracyFilter(float maxAccuracy) {
+        this.maxAccuracy = maxAccuracy;
+    }
+
+    @Override
+    public Location filter(Location location) {
+        if (location.hasAccuracy() && location.getAccuracy() > maxAccuracy) {
+            return null;
+        }
+        return location;
+    }
+
+    @Override
+    public void reset() {
+    }
+}
@@ -0,0 +1,27 @@
+package com.mapzen.open.location;
+
+import android.location.Location;
+
+/**
+ * Drops fixes that repeat the timestamp of the previous fix. Providers redeliver the last fix
+ * when several clients are listening, and it carries no new information. Fixes without a
+ * timestamp always pass.
+ */
+public class DuplicateFilter implements LocationFilter {
+    private long lastTime = 0;
+
+    @Override
+    public Location filter(Location location) {
+        final long time = location.getTime();
+        if (time != 0 && time == lastTime) {
+            return null;
+        }
+        lastTime = time;
+        return location;
+    }
+
+    @Override
+    public void reset() {
+        lastTime = 0;
+    }
+}
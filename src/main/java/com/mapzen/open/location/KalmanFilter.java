@@ -0,0 +1,115 @@
+package com.mapzen.open.location;
+
+import android.location.Location;
+
+/**
+ * Smooths positions with a constant velocity Kalman filter, run separately on the east and
+ * north axes in meters around the first fix. The reported accuracy is used as the measurement
+ * noise. A fix without a timestamp, or not newer than the previous one, restarts the filter
+ * and passes unchanged.
+ */
+public class KalmanFilter implements LocationFilter {
+    public static final float DEFAULT_ACCURACY = 10;
+    public static final double INITIAL_VELOCITY_VARIANCE = 100;
+    public static final double METERS_PER_DEGREE = 111195;
+
+    private final double accelerationVariance;
+    private final Axis east = new Axis();
+    private final Axis north = new Axis();
+    private boolean initialized = false;
+    private long lastTime;
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerDegreeLongitude;
+
+    /**
+     * @param accelerationNoise expected change of speed in meters per second squared.
+     */
+    public KalmanFilter(float accelerationNoise) {
+        this.accelerationVariance = accelerationNoise * accelerationNoise;
+    }
+
+    @Override
+    public Location filter(Location location) {
+        final long time = location.getTime();
+        final double variance = getVariance(location);
+        if (!initialized || time == 0 || time <= lastTime) {
+            originLatitude = location.getLatitude();
+            originLongitude = location.getLongitude();
+            metersPerDegreeLongitude = METERS_PER_DEGREE
+                    * Math.cos(Math.toRadians(originLatitude));
+            east.init(0, variance);
+            north.init(0, variance);
+            lastTime = time;
+            initialized = true;
+            return location;
+        }
+
+        final double seconds = (time - lastTime) / 1000.0;
+        lastTime = time;
+        east.predict(seconds, accelerationVariance);
+        north.predict(seconds, accelerationVariance);
+        east.update((location.getLongitude() - originLongitude) * metersPerDegreeLongitude,
+                variance);
+        north.update((location.getLatitude() - originLatitude) * METERS_PER_DEGREE, variance);
+
+        final Location smoothed = new Location(location);
+        smoothed.setLatitude(originLatitude + north.position / METERS_PER_DEGREE);
+        if (metersPerDegreeLongitude > 0) {
+            smoothed.setLongitude(originLongitude + east.position / metersPerDegreeLongitude);
+        }
+        return smoothed;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+        lastTime = 0;
+    }
+
+    private static double getVariance(Location location) {
+        final float accuracy = location.hasAccuracy() && location.getAccuracy() > 0
+                ? location.getAccuracy() : DEFAULT_ACCURACY;
+        return accuracy * accuracy;
+    }
+
+    /**
+     * Position and velocity along one axis with their covariance.
+     */
+    private static final class Axis {
+        private double position;
+        private double velocity;
+        private double positionVariance;
+        private double covariance;
+        private double velocityVariance;
+
+        private void init(double position, double variance) {
+            this.position = position;
+            velocity = 0;
+            positionVariance = variance;
+            covariance = 0;
+            velocityVariance = INITIAL_VELOCITY_VARIANCE;
+        }
+
+        private void predict(double dt, double accelerationVariance) {
+            position += velocity * dt;
+            final double dt2 = dt * dt;
+            positionVariance += dt * (2 * covariance + dt * velocityVariance)
+                    + accelerationVariance * dt2 * dt2 / 4;
+            covariance += dt * velocityVariance + accelerationVariance * dt2 * dt / 2;
+            velocityVariance += accelerationVariance * dt2;
+        }
+
+        private void update(double measurement, double variance) {
+            final double innovation = measurement - position;
+            final double total = positionVariance + variance;
+            final double positionGain = positionVariance / total;
+            final double velocityGain = covariance / total;
+            position += positionGain * innovation;
+            velocity += velocityGain * innovation;
+            velocityVariance -= velocityGain * covariance;
+            positionVariance *= 1 - positionGain;
+            covariance *= 1 - positionGain;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.mapzen.open.location;
+
+import android.location.Location;
+
+/**
+ * One stage of location processing between the location provider and the route engine.
+ */
+public interface LocationFilter {
+    /**
+     * @return the fix to pass on, possibly adjusted, or null to drop it.
+     */
+    public Location filter(Location location);
+
+    /**
+     * Forgets any fixes seen so far.
+     */
+    public void reset();
+}
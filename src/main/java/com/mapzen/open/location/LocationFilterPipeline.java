@@ -0,0 +1,94 @@
+package com.mapzen.open.location;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+
+/**
+ * Runs each fix through a list of filters in order and counts how many fixes every stage
+ * received and dropped.
+ */
+public class LocationFilterPipeline implements LocationFilter {
+    public static final float MAX_ACCURACY = 50;
+    public static final float MAX_SPEED = 70;
+    public static final float ACCELERATION_NOISE = 3;
+
+    private final ArrayList<Stage> stages = new ArrayList<Stage>();
+
+    /**
+     * @return pipeline with the stages used while navigating.
+     */
+    public static LocationFilterPipeline createDefault() {
+        return new LocationFilterPipeline()
+                .addStage("accuracy", new AccuracyFilter(MAX_ACCURACY))
+                .addStage("duplicate", new DuplicateFilter())
+                .addStage("teleport", new TeleportFilter(MAX_SPEED))
+                .addStage("smoother", new KalmanFilter(ACCELERATION_NOISE));
+    }
+
+    public LocationFilterPipeline addStage(String name, LocationFilter filter) {
+        stages.add(new Stage(name, filter));
+        return this;
+    }
+
+    @Override
+    public Location filter(Location location) {
+        Location result = location;
+        for (Stage stage : stages) {
+            stage.received++;
+            result = stage.filter.filter(result);
+            if (result == null) {
+                stage.dropped++;
+                return null;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (Stage stage : stages) {
+            stage.filter.reset();
+            stage.received = 0;
+            stage.dropped = 0;
+        }
+    }
+
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    public String getStageName(int stage) {
+        return stages.get(stage).name;
+    }
+
+    public int getReceivedCount(int stage) {
+        return stages.get(stage).received;
+    }
+
+    public int getDroppedCount(int stage) {
+        return stages.get(stage).dropped;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("LocationFilterPipeline");
+        for (Stage stage : stages) {
+            builder.append(' ').append(stage.name).append('=').append(stage.dropped)
+                    .append('/').append(stage.received);
+        }
+        return builder.toString();
+    }
+
+    private static final class Stage {
+        private final String name;
+        private final LocationFilter filter;
+        private int received;
+        private int dropped;
+
+        private Stage(String name, LocationFilter filter) {
+            this.name = name;
+            this.filter = filter;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.mapzen.open.location;
+
+import android.location.Location;
+
+/**
+ * Drops fixes that would mean moving faster than a limit since the last accepted fix, or that
+ * are older than it. After a few rejections in a row the next fix is accepted anyway, so a
+ * real jump such as leaving a tunnel does not lock the filter out. Fixes without a timestamp
+ * always pass.
+ */
+public class TeleportFilter implements LocationFilter {
+    public static final int MAX_CONSECUTIVE_REJECTIONS = 3;
+
+    private final float maxSpeed;
+    private Location last;
+    private int rejections = 0;
+
+    /**
+     * @param maxSpeed fastest believable speed in meters per second.
+     */
+    public TeleportFilter(float maxSpeed) {
+        this.maxSpeed = maxSpeed;
+    }
+
+    @Override
+    public Location filter(Location location) {
+        if (last == null || location.getTime() == 0 || last.getTime() == 0
+                || rejections >= MAX_CONSECUTIVE_REJECTIONS) {
+            accept(location);
+            return location;
+        }
+
+        final float seconds = (location.getTime() - last.getTime()) / 1000f;
+        if (seconds <= 0) {
+            rejections++;
+            return null;
+        }
+
+        final float slack = getAccuracy(location) + getAccuracy(last);
+        final float distance = Math.max(0, last.distanceTo(location) - slack);
+        if (distance / seconds > maxSpeed) {
+            rejections++;
+            return null;
+        }
+
+        accept(location);
+        return location;
+    }
+
+    @Override
+    public void reset() {
+        last = null;
+        rejections = 0;
+    }
+
+    private void accept(Location location) {
+        last = location;
+        rejections = 0;
+    }
+
+    private static float getAccuracy(Location location) {
+        return location.hasAccuracy() ? location.getAccuracy() : 0;
+    }
+}
@@ -0,0 +1,64 @@
+package com.mapzen.open.route;
+
+/**
+ * Watches how far snapped fixes are from the route to spot the user drifting off it before
+ * the route engine declares them lost.
+ */
+public class DeviationTracker {
+    public static final double EARLY_THRESHOLD = 20;
+    public static final double RETURN_THRESHOLD = 10;
+    public static final int TREND_SAMPLES = 3;
+
+    private final double[] samples = new double[TREND_SAMPLES];
+    private int count = 0;
+    private int next = 0;
+
+    /**
+     * @param distanceFromRoute meters between the raw fix and its snapped position.
+     */
+    public void addSample(double distanceFromRoute) {
+        samples[next] = distanceFromRoute;
+        next = (next + 1) % TREND_SAMPLES;
+        count = Math.min(count + 1, TREND_SAMPLES);
+    }
+
+    /**
+     * @return true once the latest fix is past the early threshold and each of the last few
+     * fixes was further from the route than the one before.
+     */
+    public boolean isDeviating() {
+        if (count < TREND_SAMPLES || getLatest() < EARLY_THRESHOLD) {
+            return false;
+        }
+
+        for (int i = 1; i < TREND_SAMPLES; i++) {
+            if (getSample(i) <= getSample(i - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the latest fix is back close to the route.
+     */
+    public boolean isOnRoute() {
+        return count > 0 && getLatest() < RETURN_THRESHOLD;
+    }
+
+    public void reset() {
+        count = 0;
+        next = 0;
+    }
+
+    private double getLatest() {
+        return getSample(count - 1);
+    }
+
+    /**
+     * @param index 0 for the oldest sample still held.
+     */
+    private double getSample(int index) {
+        return samples[(next - count + index + TREND_SAMPLES) % TREND_SAMPLES];
+    }
+}
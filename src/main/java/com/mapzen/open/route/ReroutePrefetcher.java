@@ -0,0 +1,206 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.util.Logger;
+import com.mapzen.osrm.Route;
+import com.mapzen.osrm.Router;
+
+import org.oscim.core.GeoPoint;
+
+import android.location.Location;
+
+import static com.mapzen.open.MapController.geoPointToPair;
+import static com.mapzen.open.MapController.locationToPair;
+import static com.mapzen.open.core.MapzenLocation.Util.getDistancePointFromBearing;
+
+/**
+ * Fetches a new route in the background while the user is drifting off the current one, so it
+ * is ready if they do get lost. A pending request can be handed over to another callback once
+ * the reroute is confirmed instead of being fetched again. A route requested too long ago, or
+ * from too far away from where the user ends up getting lost, is not used.
+ */
+public class ReroutePrefetcher implements Router.Callback {
+    public static final int LOOKAHEAD_SECONDS = 3;
+    public static final int HEADING_DISTANCE = 15;
+    public static final long MAX_AGE = 30 * 1000;
+    public static final int MAX_ORIGIN_DISTANCE = 50;
+
+    private final RouteRequestCoordinator coordinator;
+    private RouteRequestCoordinator.Request request;
+    private boolean pending = false;
+    private boolean discarded = false;
+    private Route route;
+    private Location origin;
+    private long requestedAt;
+    private Router.Callback handover;
+    private int requestCount = 0;
+    private int usedCount = 0;
+
+    public ReroutePrefetcher(RouteRequestCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Starts fetching a route from where the user will be shortly, unless a request is
+     * already pending or a route is waiting to be used.
+     *
+     * @return true if a request was started.
+     */
+    public synchronized boolean prefetch(Location location, GeoPoint destination,
+            Router.Type type, long now) {
+        if (isPending() || route != null) {
+            return false;
+        }
+        pending = true;
+        discarded = false;
+        requestCount++;
+
+        final Location from = project(location);
+        origin = from;
+        requestedAt = now;
+        final int bearing = (int) Math.floor(location.getBearing());
+        request = coordinator.fetch(new RouteRequest(locationToPair(from),
+                geoPointToPair(destination), type)
+                .addVia(locationToPair(getDistancePointFromBearing(from, HEADING_DISTANCE,
+                        bearing)))
+                .setCacheable(false), this);
+        return true;
+    }
+
+    /**
+     * Fetches again from the given location once the route requested earlier, or still being
+     * requested, would no longer be used from there. Keeps a route ready while the user stays
+     * off the current route for longer than {@link #MAX_AGE} or further than
+     * {@link #MAX_ORIGIN_DISTANCE}, as they do while the route engine waits for them to rejoin.
+     *
+     * @return true if a request was started.
+     */
+    public synchronized boolean refresh(Location location, GeoPoint destination,
+            Router.Type type, long now) {
+        if ((isPending() || route != null) && isUsableFrom(location, now)) {
+            return false;
+        }
+        route = null;
+        pending = false;
+        return prefetch(location, destination, type, now);
+    }
+
+    /**
+     * @return where the user will be after {@link #LOOKAHEAD_SECONDS} at their current speed
+     * and bearing.
+     */
+    public static Location project(Location location) {
+        final int distance = Math.round(location.getSpeed() * LOOKAHEAD_SECONDS);
+        if (distance <= 0) {
+            return location;
+        }
+
+        final Location projected = getDistancePointFromBearing(location, distance,
+                (int) Math.floor(location.getBearing()));
+        projected.setBearing(location.getBearing());
+        projected.setSpeed(location.getSpeed());
+        return projected;
+    }
+
+    /**
+     * @return the prefetched route, or null if none is ready or it is no longer usable from the
+     * given location. The route is only returned once.
+     */
+    public synchronized Route takeRoute(Location location, long now) {
+        final Route ready = route;
+        route = null;
+        if (ready == null || !isUsableFrom(location, now)) {
+            return null;
+        }
+        usedCount++;
+        return ready;
+    }
+
+    /**
+     * @return true while a request is in flight and hasn't been superseded by another one.
+     */
+    public synchronized boolean isPending() {
+        return pending && !request.isCancelled();
+    }
+
+    /**
+     * Delivers the result of the pending request to the given callback instead of keeping it.
+     *
+     * @return false if no request is pending or it is no longer usable from the given location.
+     */
+    public synchronized boolean handOver(Router.Callback callback, Location location, long now) {
+        if (!isPending() || !isUsableFrom(location, now)) {
+            return false;
+        }
+        handover = callback;
+        discarded = false;
+        usedCount++;
+        return true;
+    }
+
+    /**
+     * Drops the prefetched route, and the result of any pending request, once the user is back
+     * on the current route.
+     */
+    public synchronized void discard() {
+        route = null;
+        handover = null;
+        discarded = pending;
+    }
+
+    /**
+     * @return true if the last request was made less than {@link #MAX_AGE} ago and started
+     * within {@link #MAX_ORIGIN_DISTANCE} of the location.
+     */
+    private boolean isUsableFrom(Location location, long now) {
+        final long age = now - requestedAt;
+        final float distance = location.distanceTo(origin);
+        if (age < 0 || age >= MAX_AGE || distance > MAX_ORIGIN_DISTANCE) {
+            Logger.d("ReroutePrefetcher: ignoring route requested " + age + " ms ago "
+                    + distance + " m away");
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return number of prefetched routes that were used for a reroute.
+     */
+    public synchronized int getUsedCount() {
+        return usedCount;
+    }
+
+    @Override
+    public void success(Route result) {
+        final Router.Callback callback;
+        synchronized (this) {
+            pending = false;
+            callback = handover;
+            handover = null;
+            if (callback == null && !discarded) {
+                route = result;
+            }
+        }
+
+        if (callback != null) {
+            callback.success(result);
+        }
+    }
+
+    @Override
+    public void failure(int statusCode) {
+        final Router.Callback callback;
+        synchronized (this) {
+            pending = false;
+            callback = handover;
+            handover = null;
+        }
+
+        if (callback != null) {
+            callback.failure(statusCode);
+        }
+    }
+}
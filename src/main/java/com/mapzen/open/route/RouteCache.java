@@ -0,0 +1,272 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.util.Logger;
+import com.mapzen.osrm.Route;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Recently fetched routes by {@link RouteRequest#getKey() request key}. Routes are kept in
+ * memory and written to disk as the raw router response, so they survive the app being
+ * killed. Entries older than the time to live are treated as missing. Only the memory is
+ * checked synchronously; files are read and written on a dedicated disk thread and loads are
+ * answered on the main thread.
+ */
+public class RouteCache {
+    public static final int MEMORY_ENTRIES = 16;
+    public static final int DISK_ENTRIES = 32;
+    public static final long DEFAULT_TIME_TO_LIVE = 30 * 60 * 1000;
+    public static final String FILE_SUFFIX = ".json";
+
+    private final LruCache<String, Entry> memory = new LruCache<String, Entry>(MEMORY_ENTRIES);
+    private final File directory;
+    private final long timeToLive;
+    private final Handler diskHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int memoryHitCount = 0;
+    private int diskHitCount = 0;
+    private int missCount = 0;
+
+    public RouteCache(File directory) {
+        this(directory, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param directory where routes are written, or null to only keep them in memory.
+     * @param timeToLive milliseconds a route stays valid after it was fetched.
+     */
+    public RouteCache(File directory, long timeToLive) {
+        this(directory, timeToLive, directory == null ? null : startDiskThread());
+    }
+
+    /**
+     * @param diskLooper looper of the thread files are read and written on.
+     */
+    public RouteCache(File directory, long timeToLive, Looper diskLooper) {
+        this.directory = directory;
+        this.timeToLive = timeToLive;
+        this.diskHandler = directory == null ? null : new Handler(diskLooper);
+    }
+
+    private static Looper startDiskThread() {
+        final HandlerThread thread = new HandlerThread(RouteCache.class.getSimpleName());
+        thread.start();
+        return thread.getLooper();
+    }
+
+    /**
+     * Checks the memory only, so it is safe to call on the main thread.
+     *
+     * @return cached route for the key, or null if there is none in memory or it expired.
+     */
+    public synchronized Route get(String key) {
+        final Entry entry = memory.get(key);
+        if (entry != null) {
+            if (System.currentTimeMillis() - entry.time <= timeToLive) {
+                memoryHitCount++;
+                return entry.route;
+            }
+            memory.remove(key);
+        }
+        return null;
+    }
+
+    /**
+     * Looks the key up in memory and then on disk, and hands the route, or null if there is
+     * none, to the listener on the main thread.
+     */
+    public void load(final String key, final LoadListener listener) {
+        final Route cached = get(key);
+        if (cached != null || diskHandler == null) {
+            if (cached == null) {
+                countMiss();
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onLoaded(cached);
+                }
+            });
+            return;
+        }
+
+        diskHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Route route = readFromDisk(key, System.currentTimeMillis());
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onLoaded(route);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Keeps the route in memory right away and writes it to disk in the background.
+     */
+    public void put(final String key, final Route route) {
+        synchronized (this) {
+            memory.put(key, new Entry(route, System.currentTimeMillis()));
+        }
+        if (diskHandler != null) {
+            diskHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    writeToDisk(key, route);
+                }
+            });
+        }
+    }
+
+    /**
+     * Empties the memory right away and deletes the files once pending writes are done.
+     */
+    public void clear() {
+        synchronized (this) {
+            memory.evictAll();
+        }
+        if (diskHandler != null) {
+            diskHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (directory.exists()) {
+                        for (File file : getFiles()) {
+                            file.delete();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    public synchronized int getMemoryHitCount() {
+        return memoryHitCount;
+    }
+
+    public synchronized int getDiskHitCount() {
+        return diskHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    private synchronized void countMiss() {
+        missCount++;
+    }
+
+    /**
+     * Runs on the disk thread.
+     */
+    private Route readFromDisk(String key, long now) {
+        final File file = getFile(key);
+        if (!file.exists()) {
+            countMiss();
+            return null;
+        }
+
+        final long time = file.lastModified();
+        if (now - time > timeToLive) {
+            file.delete();
+            countMiss();
+            return null;
+        }
+
+        try {
+            final Route route = new Route(Files.toString(file, Charsets.UTF_8));
+            synchronized (this) {
+                memory.put(key, new Entry(route, time));
+                diskHitCount++;
+            }
+            return route;
+        } catch (IOException e) {
+            Logger.e("reading cached route failed: " + e.toString());
+        } catch (RuntimeException e) {
+            Logger.e("cached route is corrupt: " + e.toString());
+        }
+        file.delete();
+        countMiss();
+        return null;
+    }
+
+    /**
+     * Runs on the disk thread.
+     */
+    private void writeToDisk(String key, Route route) {
+        if (route.getRawRoute() == null) {
+            return;
+        }
+
+        final File file = getFile(key);
+        try {
+            Files.createParentDirs(file);
+            Files.write(route.getRawRoute().toString(), file, Charsets.UTF_8);
+        } catch (IOException e) {
+            Logger.e("writing cached route failed: " + e.toString());
+            return;
+        }
+        trimDisk();
+    }
+
+    /**
+     * Deletes the least recently written routes beyond {@link #DISK_ENTRIES}.
+     */
+    private void trimDisk() {
+        final File[] files = getFiles();
+        if (files.length <= DISK_ENTRIES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long lhsTime = lhs.lastModified();
+                final long rhsTime = rhs.lastModified();
+                return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - DISK_ENTRIES; i++) {
+            files[i].delete();
+        }
+    }
+
+    private File[] getFiles() {
+        final File[] files = directory.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key.replaceAll("[^A-Za-z0-9-]", "_") + FILE_SUFFIX);
+    }
+
+    public interface LoadListener {
+        /**
+         * @param route the cached route, or null if there is none or it expired.
+         */
+        void onLoaded(Route route);
+    }
+
+    private static final class Entry {
+        private final Route route;
+        private final long time;
+
+        private Entry(Route route, long time) {
+            this.route = route;
+            this.time = time;
+        }
+    }
+}
@@ -7,21 +7,29 @@ import com.mapzen.osrm.Route;
 import android.location.Location;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 
 import static com.mapzen.open.route.RouteEngine.RouteState.COMPLETE;
 import static com.mapzen.open.route.RouteEngine.RouteState.INSTRUCTION;
 import static com.mapzen.open.route.RouteEngine.RouteState.LOST;
 import static com.mapzen.open.route.RouteEngine.RouteState.PRE_INSTRUCTION;
+import static com.mapzen.open.route.RouteEngine.RouteState.REJOIN;
 import static com.mapzen.open.route.RouteEngine.RouteState.START;
 
 public class RouteEngine {
     public static final int DESTINATION_RADIUS = 20;
+    public static final int LOST_THRESHOLD = 50;
+    public static final double ON_ROUTE_TOLERANCE = 1.0;
+    public static final String SNAP_PROVIDER = "snap";
+    public static final int REJOIN_GRACE_DISTANCE = 300;
+    public static final long REJOIN_GRACE_TIME = 30000;
 
     public enum RouteState {
         START,
         PRE_INSTRUCTION,
         INSTRUCTION,
         COMPLETE,
+        REJOIN,
         LOST
     }
 
@@ -32,6 +40,24 @@ public class RouteEngine {
     private Location snapLocation;
     private Instruction currentInstruction;
     private ArrayList<Instruction> instructions;
+    private RouteGeometry geometry;
+    private RouteSegmentIndex segmentIndex;
+    private RouteSnapper snapper;
+    private int[] instructionPoints;
+    private double[] instructionDistances;
+    private double[] legStartDistances;
+    private IdentityHashMap<Instruction, Integer> instructionIndexes;
+    private int snapIndex;
+    private double traveledDistance;
+    private double distanceFromRoute;
+    private int currentLeg;
+    private boolean lost;
+    private int distanceToNextInstruction;
+    private int distanceToDestination;
+    private Location lastOnRoute;
+    private Location rejoinOrigin;
+    private int rejoinGraceDistance = REJOIN_GRACE_DISTANCE;
+    private long rejoinGraceTime = REJOIN_GRACE_TIME;
 
     public void onLocationChanged(final Location location) {
         if (routeState == COMPLETE) {
@@ -49,36 +75,51 @@ public class RouteEngine {
         if (routeState == COMPLETE) {
             listener.onUpdateDistance(0, 0);
         } else {
-            listener.onUpdateDistance(route.getDistanceToNextInstruction(),
-                    route.getRemainingDistanceToDestination());
+            listener.onUpdateDistance(distanceToNextInstruction, distanceToDestination);
         }
 
-        if (routeState == LOST) {
+        if (routeState == LOST || routeState == REJOIN) {
             return;
         }
 
         if (routeState == PRE_INSTRUCTION
-                && route.getDistanceToNextInstruction() < ZoomController.DEFAULT_TURN_RADIUS) {
-            int nextIndex = instructions.indexOf(route.getNextInstruction());
-            listener.onApproachInstruction(nextIndex);
+                && distanceToNextInstruction < ZoomController.DEFAULT_TURN_RADIUS) {
+            listener.onApproachInstruction(getInstructionIndex(getNextInstruction()));
             routeState = INSTRUCTION;
         }
 
-        Instruction nextInstruction = route.getNextInstruction();
+        Instruction nextInstruction = getNextInstruction();
 
-        if (!currentInstruction.equals(nextInstruction)) {
+        if (currentInstruction != nextInstruction) {
             routeState = PRE_INSTRUCTION;
-            int nextIndex = instructions.indexOf(currentInstruction);
-            listener.onInstructionComplete(nextIndex);
+            listener.onInstructionComplete(getInstructionIndex(currentInstruction));
         }
 
-        currentInstruction = route.getNextInstruction();
+        currentInstruction = getNextInstruction();
     }
 
     private void snapLocation() {
-        snapLocation = route.snapToRoute(location);
+        final RouteSnapper.Snap snap = routeState == REJOIN
+                ? snapper.snap(location.getLatitude(), location.getLongitude(), LOST_THRESHOLD,
+                        snapIndex)
+                : snapper.snap(location.getLatitude(), location.getLongitude(), LOST_THRESHOLD);
+        lost = snap == null;
+        snapLocation = null;
 
-        if (snapLocation != null) {
+        if (snap != null) {
+            snapLocation = new Location(SNAP_PROVIDER);
+            snapLocation.setLatitude(snap.getLatitude());
+            snapLocation.setLongitude(snap.getLongitude());
+            snapLocation.setBearing(location.getBearing());
+            snapLocation.setSpeed(location.getSpeed());
+            snapLocation.setTime(location.getTime());
+            distanceFromRoute = snap.getDistanceFromRoute();
+            updateProgress(snap);
+            lastOnRoute = snapLocation;
+            rejoinOrigin = null;
+            if (routeState == REJOIN) {
+                routeState = PRE_INSTRUCTION;
+            }
             listener.onSnapLocation(location, snapLocation);
         }
 
@@ -87,12 +128,108 @@ public class RouteEngine {
             listener.onRouteComplete();
         }
 
-        if (routeState != START) {
-            if (route.isLost()) {
-                routeState = LOST;
-                listener.onRecalculate(location);
+        if (routeState != START && routeState != COMPLETE) {
+            if (lost) {
+                if (canRejoin()) {
+                    routeState = REJOIN;
+                } else {
+                    routeState = LOST;
+                    listener.onRecalculate(location);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drivers often leave the route briefly and come back to it further on, so snapping keeps
+     * trying against the rest of the route until the user is too far from where they left it
+     * or has been off it for too long.
+     */
+    private boolean canRejoin() {
+        if (routeState == LOST || lastOnRoute == null) {
+            return false;
+        }
+
+        if (rejoinOrigin == null) {
+            rejoinOrigin = lastOnRoute;
+        }
+
+        if (location.distanceTo(rejoinOrigin) > rejoinGraceDistance) {
+            return false;
+        }
+
+        return location.getTime() == 0 || rejoinOrigin.getTime() == 0
+                || location.getTime() - rejoinOrigin.getTime() <= rejoinGraceTime;
+    }
+
+    /**
+     * @param distance meters the user may get from the point they left the route at.
+     * @param time milliseconds the user may stay off the route.
+     */
+    public void setRejoinGrace(int distance, long time) {
+        rejoinGraceDistance = distance;
+        rejoinGraceTime = time;
+    }
+
+    public boolean isRejoining() {
+        return routeState == REJOIN;
+    }
+
+    /**
+     * Moves the traveled mark and the current leg forward to the snapped position. Neither
+     * moves backwards, so the traveled part of the route only ever grows.
+     */
+    private void updateProgress(RouteSnapper.Snap snap) {
+        if (snap.getDistanceAlongRoute() >= traveledDistance) {
+            snapIndex = snap.getSegment();
+            traveledDistance = snap.getDistanceAlongRoute();
+        }
+
+        currentLeg = Math.max(currentLeg, findLeg(traveledDistance + ON_ROUTE_TOLERANCE));
+        updateDistances();
+    }
+
+    /**
+     * @return last instruction reached at the given distance along the route geometry.
+     */
+    private int findLeg(double distance) {
+        int low = 0;
+        int high = instructionDistances.length - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (instructionDistances[mid] <= distance) {
+                low = mid;
+            } else {
+                high = mid - 1;
             }
         }
+        return low;
+    }
+
+    /**
+     * Distances use the leg lengths reported by the router, with the part of the current leg
+     * still ahead measured along the route geometry.
+     */
+    private void updateDistances() {
+        if (currentLeg >= instructions.size() - 1) {
+            distanceToNextInstruction = 0;
+            distanceToDestination = 0;
+            return;
+        }
+
+        final double legStart = instructionDistances[currentLeg];
+        final double legEnd = instructionDistances[currentLeg + 1];
+        final double legDistance = instructions.get(currentLeg).getDistance();
+        double remainingInLeg = legDistance;
+        if (legEnd > legStart) {
+            final double traveledInLeg = Math.max(0, traveledDistance - legStart);
+            remainingInLeg = legDistance * Math.max(0, legEnd - legStart - traveledInLeg)
+                    / (legEnd - legStart);
+        }
+
+        final double traveled = legStartDistances[currentLeg] + legDistance - remainingInLeg;
+        distanceToNextInstruction = (int) Math.round(remainingInLeg);
+        distanceToDestination = (int) Math.round(Math.max(0, route.getTotalDistance() - traveled));
     }
 
     private boolean youHaveArrived() {
@@ -112,7 +249,131 @@ public class RouteEngine {
         routeState = START;
         instructions = route.getRouteInstructions();
         currentInstruction = instructions.get(0);
+        geometry = RouteGeometry.fromLocations(route.getGeometry());
+        segmentIndex = new RouteSegmentIndex(geometry);
+        snapper = new RouteSnapper(geometry, segmentIndex);
+        instructionPoints = findInstructionPoints();
+        buildInstructionTables();
+        snapIndex = 0;
+        traveledDistance = 0;
+        distanceFromRoute = 0;
+        currentLeg = 0;
+        lost = false;
+        lastOnRoute = null;
+        rejoinOrigin = null;
+        updateDistances();
+    }
+
+    /**
+     * Matches each instruction to the closest point of the route geometry, searching forward
+     * from the previous instruction.
+     */
+    private int[] findInstructionPoints() {
+        final int[] points = new int[instructions.size()];
+        int start = 0;
+        for (int i = 0; i < points.length; i++) {
+            final Location location = instructions.get(i).getLocation();
+            int closest = start;
+            double closestDistance = Double.MAX_VALUE;
+            for (int point = start; point < geometry.size(); point++) {
+                final double distance = RouteGeometry.distanceBetween(location.getLatitude(),
+                        location.getLongitude(), geometry.getLatitude(point),
+                        geometry.getLongitude(point));
+                if (distance < closestDistance) {
+                    closest = point;
+                    closestDistance = distance;
+                }
+                if (distance < ON_ROUTE_TOLERANCE) {
+                    break;
+                }
+            }
+            points[i] = closest;
+            start = closest;
+        }
+        return points;
+    }
+
+    /**
+     * Precomputes where each instruction sits along the geometry, the router distance to the
+     * start of each leg and each instruction's position in the list, so that updates on a fix
+     * don't depend on the number of instructions.
+     */
+    private void buildInstructionTables() {
+        final int count = instructions.size();
+        instructionDistances = new double[count];
+        legStartDistances = new double[count];
+        instructionIndexes = new IdentityHashMap<Instruction, Integer>(count);
+        double legStart = 0;
+        for (int i = 0; i < count; i++) {
+            final Instruction instruction = instructions.get(i);
+            instructionDistances[i] = geometry.getDistance(instructionPoints[i]);
+            legStartDistances[i] = legStart;
+            legStart += instruction.getDistance();
+            instructionIndexes.put(instruction, i);
+        }
+    }
+
+    /**
+     * @return position of the instruction in the route, or -1 if it is not part of it.
+     */
+    public int getInstructionIndex(Instruction instruction) {
+        final Integer index = instructionIndexes.get(instruction);
+        return index == null ? -1 : index;
+    }
+
+    public RouteGeometry getGeometry() {
+        return geometry;
+    }
+
+    public RouteSegmentIndex getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * @return index of the route segment the last snapped location fell on. Everything
+     * before it has been traveled.
+     */
+    public int getSnapIndex() {
+        return snapIndex;
+    }
+
+    public double getTraveledDistance() {
+        return traveledDistance;
+    }
+
+    /**
+     * @return distance in meters between the last fix and the point it snapped to.
+     */
+    public double getDistanceFromRoute() {
+        return distanceFromRoute;
+    }
+
+    public double getRemainingDistance() {
+        return geometry.getTotalDistance() - traveledDistance;
+    }
+
+    public Instruction getNextInstruction() {
+        return instructions.get(Math.min(currentLeg + 1, instructions.size() - 1));
+    }
+
+    public Instruction getCurrentInstruction() {
+        return instructions.get(currentLeg);
+    }
+
+    public double getCurrentRotationBearing() {
+        return getCurrentInstruction().getRotationBearing();
+    }
+
+    public int getDistanceToNextInstruction() {
+        return distanceToNextInstruction;
+    }
+
+    public int getDistanceToDestination() {
+        return distanceToDestination;
+    }
 
+    public boolean isLost() {
+        return lost;
     }
 
     public void setListener(RouteListener listener) {
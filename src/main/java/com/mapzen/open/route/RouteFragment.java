@@ -9,8 +9,12 @@ import com.mapzen.open.activity.BaseActivity;
 import com.mapzen.open.entity.SimpleFeature;
 import com.mapzen.open.event.LocationUpdateEvent;
 import com.mapzen.open.fragment.BaseFragment;
+import com.mapzen.open.location.LocationFilterPipeline;
 import com.mapzen.open.util.DatabaseHelper;
+import com.mapzen.open.util.LocationRecorder;
+import com.mapzen.open.util.RollingAverage;
 import com.mapzen.open.util.DisplayHelper;
+import com.mapzen.open.util.FrameAllocationCounter;
 import com.mapzen.open.util.Logger;
 import com.mapzen.open.util.MapzenNotificationCreator;
 import com.mapzen.open.util.RouteLocationIndicator;
@@ -29,15 +33,11 @@ import com.squareup.otto.Subscribe;
 
 import org.json.JSONObject;
 import org.oscim.core.GeoPoint;
-import org.oscim.core.MapPosition;
-import org.oscim.event.Event;
-import org.oscim.map.Map;
 
 import android.app.Activity;
 import android.content.ContentValues;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.location.Location;
 import android.os.Bundle;
@@ -79,14 +79,11 @@ import static com.mapzen.open.util.DatabaseHelper.COLUMN_MSG;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_POSITION;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_RAW;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_ROUTE_ID;
-import static com.mapzen.open.util.DatabaseHelper.COLUMN_SPEED;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_TABLE_ID;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_GROUPS;
-import static com.mapzen.open.util.DatabaseHelper.TABLE_LOCATIONS;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_ROUTES;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_ROUTE_GEOMETRY;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_ROUTE_GROUP;
-import static com.mapzen.open.util.DatabaseHelper.valuesForLocationCorrection;
 import static com.mapzen.open.util.MixpanelHelper.Event.ROUTING_START;
 
 public class RouteFragment extends BaseFragment implements DirectionListFragment.DirectionListener,
@@ -101,13 +98,15 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
     public static final float SLIDING_PANEL_OFFSET_MARGIN = 0.1f;
 
     @Inject ZoomController zoomController;
-    @Inject Router router;
+    @Inject RouteRequestCoordinator routeRequestCoordinator;
     @Inject RouteEngine routeEngine;
     @Inject MapController mapController;
     @Inject MixpanelAPI mixpanelAPI;
     @Inject SQLiteDatabase db;
+    @Inject LocationRecorder locationRecorder;
     @Inject Bus bus;
     @Inject RouteLocationIndicatorFactory routeLocationIndicatorFactory;
+    @Inject LocationFilterPipeline locationFilter;
 
     @InjectView(R.id.routes) ViewPager pager;
     @InjectView(R.id.resume_button) ImageButton resume;
@@ -121,14 +120,21 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
     private RouteLocationIndicator routeLocationIndicator;
     private SimpleFeature simpleFeature;
     private String routeId;
+    private final RollingAverage averageSpeed = new RollingAverage(1); // Sized in onResume()
     private int pagerPositionWhenPaused = 0;
     private double currentXCor;
-    private DrawPathTask activeTask = null;
+    private RouteGeometry geometry;
+    private RouteLevelOfDetail levelOfDetail;
+    private final DeviationTracker deviationTracker = new DeviationTracker();
+    private ReroutePrefetcher reroutePrefetcher;
+    // fix as reported by the provider while the filtered one goes through the route engine
+    private Location rawLocation;
 
     VoiceNavigationController voiceNavigationController;
     private MapzenNotificationCreator notificationCreator;
 
     private boolean isRouting = false;
+    private Router.Type transportationMode = RouteRequest.DEFAULT_TYPE;
     private boolean isPaging = true;
 
     private SharedPreferences prefs;
@@ -147,6 +153,8 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
         fragment.setSimpleFeature(simpleFeature);
         fragment.groupId = UUID.randomUUID().toString();
         fragment.inject();
+        fragment.locationFilter.reset();
+        fragment.reroutePrefetcher = new ReroutePrefetcher(fragment.routeRequestCoordinator);
         fragment.setRetainInstance(true);
         return fragment;
     }
@@ -264,22 +272,23 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
         if (route != null) {
             Location startPoint = route.getStartCoordinates();
             routeLocationIndicator.setPosition(startPoint.getLatitude(), startPoint.getLongitude());
-            routeLocationIndicator.setRotation((float) route.getCurrentRotationBearing());
+            routeLocationIndicator.setRotation((float) routeEngine.getCurrentRotationBearing());
             mapFragment.getMap().layers().add(routeLocationIndicator);
             mapFragment.hideLocationMarker();
         }
 
         setupZoomController();
+        averageSpeed.setCapacity(getNumberOfLocationsForAverageSpeed());
         act.disableActionbar();
         act.hideActionBar();
         app.deactivateMoveMapToLocation();
-        setupLinedrawing();
         initMapPosition();
     }
 
     @Override
     public void onPause() {
         super.onPause();
+        locationRecorder.flush();
         if (mapFragment != null) {
             mapFragment.showLocationMarker();
             if (mapFragment.getMap() != null && mapFragment.getMap().layers() != null) {
@@ -297,7 +306,17 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
     public void onDestroy() {
         app.activateMoveMapToLocation();
         teardownLinedrawing();
-        markReadyForUpload();
+        FrameAllocationCounter.setEnabled(false);
+        Logger.d(locationFilter.toString());
+        Logger.d(routeRequestCoordinator.toString());
+        routeRequestCoordinator.cancel(this);
+        routeRequestCoordinator.cancel(reroutePrefetcher);
+        locationRecorder.runAfterWrites(new Runnable() {
+            @Override
+            public void run() {
+                markReadyForUpload();
+            }
+        });
         mapController.clearLines();
         act.updateView();
 
@@ -323,14 +342,12 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
         mapFragment.updateMap();
         isRouting = true;
         act.showLoadingIndicator();
-        router.clearLocations()
-                .setLocation(locationToPair(location))
+        routeRequestCoordinator.fetch(new RouteRequest(locationToPair(location),
+                geoPointToPair(simpleFeature.getGeoPoint()), transportationMode)
                 // To allow routing to see which direction you are travelling
-                .setLocation(locationToPair(getDistancePointFromBearing(location, 15,
+                .addVia(locationToPair(getDistancePointFromBearing(location, 15,
                         (int) Math.floor(location.getBearing()))))
-                .setLocation(geoPointToPair(simpleFeature.getGeoPoint()))
-                .setCallback(this)
-                .fetch();
+                .setCacheable(false), this);
     }
 
     public String getRouteId() {
@@ -354,19 +371,30 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
         this.simpleFeature = simpleFeature;
     }
 
+    public Router.Type getTransportationMode() {
+        return transportationMode;
+    }
+
+    /**
+     * Sets the mode of transport used when the route has to be fetched again.
+     */
+    public void setTransportationMode(Router.Type transportationMode) {
+        this.transportationMode = transportationMode;
+    }
+
     public GeoPoint getDestinationPoint() {
         return simpleFeature.getGeoPoint();
     }
 
     private void manageMap(Location originalLocation, Location location) {
         if (location != null) {
-            zoomController.setAverageSpeed(getAverageSpeed());
+            zoomController.setAverageSpeed(averageSpeed.getAverage());
             zoomController.setCurrentSpeed(originalLocation.getSpeed());
             if (isPaging) {
                 mapController.setZoomLevel(zoomController.getZoom());
-                mapController.quarterOn(location, route.getCurrentRotationBearing());
+                mapController.quarterOn(location, routeEngine.getCurrentRotationBearing());
             }
-            routeLocationIndicator.setRotation((float) route.getCurrentRotationBearing());
+            routeLocationIndicator.setRotation((float) routeEngine.getCurrentRotationBearing());
             routeLocationIndicator.setPosition(location.getLatitude(), location.getLongitude());
             mapFragment.updateMap();
         }
@@ -396,16 +424,69 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
             return;
         }
 
-        routeEngine.onLocationChanged(location);
+        final Location filtered = locationFilter.filter(location);
+        if (filtered != null) {
+            rawLocation = location;
+            routeEngine.onLocationChanged(filtered);
+            rawLocation = null;
+            if (routeEngine.isRejoining()) {
+                refreshPrefetch(filtered);
+            }
+        }
     }
 
     @Override
     public void onRecalculate(Location location) {
-        createRouteTo(location);
+        deviationTracker.reset();
+        final long now = System.currentTimeMillis();
+        final Route prefetched = reroutePrefetcher.takeRoute(location, now);
+        if (prefetched != null) {
+            Logger.d("using prefetched route");
+            success(prefetched);
+            return;
+        }
+
+        if (reroutePrefetcher.handOver(this, location, now)) {
+            isRouting = true;
+            act.showLoadingIndicator();
+        } else {
+            createRouteTo(location);
+        }
         voiceNavigationController.recalculating();
         displayRecalculatePagerView();
     }
 
+    /**
+     * Starts fetching a new route while the user drifts away from the current one and drops it
+     * once they are back on it.
+     */
+    private void checkDeviation(Location location) {
+        deviationTracker.addSample(routeEngine.getDistanceFromRoute());
+        if (deviationTracker.isOnRoute()) {
+            reroutePrefetcher.discard();
+        } else if (deviationTracker.isDeviating()
+                && reroutePrefetcher.prefetch(location, simpleFeature.getGeoPoint(),
+                transportationMode, System.currentTimeMillis())) {
+            Logger.d("prefetching route from: " + location);
+        }
+    }
+
+    /**
+     * Snapped fixes stop while the route engine waits for the user to rejoin, so the route
+     * prefetched when they started drifting off would be too old or too far behind by the time
+     * they are lost.
+     */
+    private void refreshPrefetch(Location location) {
+        if (reroutePrefetcher.refresh(location, simpleFeature.getGeoPoint(), transportationMode,
+                System.currentTimeMillis())) {
+            Logger.d("prefetching route again from: " + location);
+        }
+    }
+
+    public ReroutePrefetcher getReroutePrefetcher() {
+        return reroutePrefetcher;
+    }
+
     private void displayRecalculatePagerView() {
         final View view = getPagerViewForIndex(pager.getCurrentItem());
         if (view != null) {
@@ -423,11 +504,15 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
 
     @Override
     public void onSnapLocation(Location originalLocation, Location snapLocation) {
-        storeLocationInfo(originalLocation, snapLocation);
+        storeLocationInfo(rawLocation != null ? rawLocation : originalLocation, snapLocation);
+        averageSpeed.add(originalLocation.getSpeed());
         manageMap(originalLocation, snapLocation);
+        mapController.showRouteProgress(routeEngine.getSnapIndex());
+        checkDeviation(originalLocation);
         debugView.setCurrentLocation(originalLocation);
         debugView.setSnapLocation(snapLocation);
-        debugView.setAverageSpeed(getAverageSpeed());
+        debugView.setAverageSpeed(averageSpeed.getAverage());
+        debugView.setFrameAllocations(FrameAllocationCounter.getLastFrameAllocations());
         logForDebugging(originalLocation, snapLocation);
     }
 
@@ -492,7 +577,7 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
 
     @Override
     public void onUpdateDistance(int distanceToNextInstruction, int distanceToDestination) {
-        debugView.setClosestDistance(route.getCurrentInstruction().getLiveDistanceToNext());
+        debugView.setClosestDistance(distanceToNextInstruction);
         this.distanceToDestination.setDistance(distanceToDestination);
         this.distanceToDestination.setVisibility(View.VISIBLE);
 
@@ -501,8 +586,7 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
             final TextView currentInstructionDistance =
                     (TextView) view.findViewById(R.id.distance_instruction);
             currentInstructionDistance.setText(
-                    DistanceFormatter.format(
-                            route.getCurrentInstruction().getLiveDistanceToNext(), true));
+                    DistanceFormatter.format(distanceToNextInstruction, true));
         }
     }
 
@@ -534,10 +618,17 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
         if (route != null && route.foundRoute()) {
             this.route = route;
             this.instructions = route.getRouteInstructions();
-            storeRouteInDatabase(route.getRawRoute());
-            mapController.setMapPerspectiveForInstruction(instructions.get(0));
             routeEngine.setRoute(route);
             routeEngine.setListener(this);
+            deviationTracker.reset();
+            // smoothing and jump detection shouldn't carry fixes over from the previous route
+            locationFilter.reset();
+            this.geometry = routeEngine.getGeometry();
+            this.levelOfDetail = new RouteLevelOfDetail(routeEngine.getSegmentIndex());
+            levelOfDetail.buildInBackground();
+            mapController.showRoute(levelOfDetail);
+            storeRouteInDatabase(route.getRawRoute());
+            mapController.setMapPerspectiveForInstruction(instructions.get(0));
         } else {
             return false;
         }
@@ -558,24 +649,21 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
     }
 
     private void storeRoute() {
-        if (route != null) {
-            ArrayList<Location> geometry = route.getGeometry();
+        if (geometry != null) {
             ArrayList<ContentValues> databaseValues = new ArrayList<ContentValues>();
             for (int index = 0; index < geometry.size(); index++) {
-                Location location = geometry.get(index);
-                databaseValues.add(buildContentValues(location, index));
+                databaseValues.add(buildContentValues(index));
             }
             insertIntoDb(TABLE_ROUTE_GEOMETRY, null, databaseValues);
         }
     }
 
-    private ContentValues buildContentValues(Location location, int pos) {
+    private ContentValues buildContentValues(int pos) {
         ContentValues values = new ContentValues();
-        values.put(COLUMN_TABLE_ID, UUID.randomUUID().toString());
         values.put(COLUMN_ROUTE_ID, routeId);
         values.put(COLUMN_POSITION, pos);
-        values.put(COLUMN_LAT, location.getLatitude());
-        values.put(COLUMN_LNG, location.getLongitude());
+        values.put(COLUMN_LAT, geometry.getLatitude(pos));
+        values.put(COLUMN_LNG, geometry.getLongitude(pos));
         return values;
     }
 
@@ -614,35 +702,23 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
     }
 
     public int getNumberOfLocationsForAverageSpeed() {
+        final int defaultValue =
+                getResources().getInteger(R.integer.number_of_locations_for_average_speed);
         return getDefaultSharedPreferences(act).
                 getInt(getString(R.string.settings_number_of_locations_for_average_speed_key),
-                        R.integer.number_of_locations_for_average_speed);
+                        defaultValue);
     }
 
+    /**
+     * @return average speed over the last {@link #getNumberOfLocationsForAverageSpeed()} fixes.
+     */
     public float getAverageSpeed() {
-        if (db == null) {
-            return 0;
-        }
-
-        Cursor cursor = db.
-                rawQuery("SELECT AVG(" + COLUMN_SPEED + ") as avg_speed "
-                        + "from (select " + COLUMN_SPEED + " from "
-                        + TABLE_LOCATIONS
-                        + " where "
-                        + COLUMN_ROUTE_ID
-                        + " = '"
-                        + routeId
-                        + "' ORDER BY time DESC LIMIT "
-                        + getNumberOfLocationsForAverageSpeed()
-                        + ")", null);
-        cursor.moveToFirst();
-        return cursor.getFloat(0);
+        return averageSpeed.getAverage();
     }
 
     private void storeLocationInfo(Location location, Location correctedLocation) {
-        insertIntoDb(TABLE_LOCATIONS, null,
-                valuesForLocationCorrection(location,
-                        correctedLocation, instructions.get(pager.getCurrentItem()), routeId));
+        locationRecorder.record(location, correctedLocation,
+                instructions.get(pager.getCurrentItem()), routeId);
     }
 
     private void insertIntoDb(String table, String nullHack,
@@ -781,6 +857,11 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
     @Override
     public void failure(int statusCode) {
         isRouting = false;
+        if (statusCode == RouteRequestCoordinator.SUPERSEDED) {
+            // Not an error, the next deviation starts another reroute.
+            act.hideLoadingIndicator();
+            return;
+        }
         onServerError(statusCode);
     }
 
@@ -810,6 +891,7 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
         debugView = (DebugView) view.findViewById(R.id.debugging);
         if (act.isInDebugMode()) {
             debugView.setVisibility(View.VISIBLE);
+            FrameAllocationCounter.setEnabled(true);
         }
     }
 
@@ -978,26 +1060,7 @@ public class RouteFragment extends BaseFragment implements DirectionListFragment
         }
     }
 
-    private Map.UpdateListener mapListener = new Map.UpdateListener() {
-        @Override
-        public void onMapEvent(final Event e, MapPosition mapPosition) {
-            if (activeTask != null) {
-                activeTask.cancel(true);
-            }
-            activeTask = new DrawPathTask(app);
-            activeTask.execute(route.getGeometry());
-        }
-    };
-
-    private void setupLinedrawing() {
-        mapController.getMap().events.bind(mapListener);
-    }
-
     private void teardownLinedrawing() {
-        mapController.getMap().events.unbind(mapListener);
-        if (activeTask != null) {
-            activeTask.cancel(true);
-        }
         mapController.clearLines();
         mapFragment.updateMap();
     }
@@ -0,0 +1,218 @@
+package com.mapzen.open.route;
+
+import org.oscim.core.BoundingBox;
+import org.oscim.core.GeoPoint;
+
+import android.location.Location;
+
+import java.util.List;
+
+/**
+ * Route polyline packed into E6 coordinate arrays, with cumulative distance along the route
+ * and the bounding box computed once when the geometry is built.
+ */
+public class RouteGeometry {
+    public static final double EARTH_RADIUS_IN_METERS = 6371008.8;
+
+    private final int[] latitudesE6;
+    private final int[] longitudesE6;
+    private final int[] sourceIndexes;
+    private final double[] distances;
+    private final BoundingBox boundingBox;
+
+    public RouteGeometry(int[] latitudesE6, int[] longitudesE6) {
+        this(latitudesE6, longitudesE6, null);
+    }
+
+    private RouteGeometry(int[] latitudesE6, int[] longitudesE6, int[] sourceIndexes) {
+        if (latitudesE6.length != longitudesE6.length) {
+            throw new IllegalArgumentException("Coordinate arrays differ in length");
+        }
+
+        this.latitudesE6 = latitudesE6;
+        this.longitudesE6 = longitudesE6;
+        this.sourceIndexes = sourceIndexes;
+        this.distances = new double[latitudesE6.length];
+
+        int minLat = Integer.MAX_VALUE;
+        int minLng = Integer.MAX_VALUE;
+        int maxLat = Integer.MIN_VALUE;
+        int maxLng = Integer.MIN_VALUE;
+        for (int i = 0; i < latitudesE6.length; i++) {
+            minLat = Math.min(minLat, latitudesE6[i]);
+            maxLat = Math.max(maxLat, latitudesE6[i]);
+            minLng = Math.min(minLng, longitudesE6[i]);
+            maxLng = Math.max(maxLng, longitudesE6[i]);
+            if (i > 0) {
+                distances[i] = distances[i - 1] + distanceBetween(i - 1, i);
+            }
+        }
+
+        if (latitudesE6.length == 0) {
+            boundingBox = new BoundingBox(0, 0, 0, 0);
+        } else {
+            boundingBox = new BoundingBox(minLat, minLng, maxLat, maxLng);
+        }
+    }
+
+    public static RouteGeometry fromLocations(List<Location> locations) {
+        final int size = locations.size();
+        final int[] latitudesE6 = new int[size];
+        final int[] longitudesE6 = new int[size];
+        for (int i = 0; i < size; i++) {
+            final Location location = locations.get(i);
+            latitudesE6[i] = (int) Math.round(location.getLatitude() * 1e6);
+            longitudesE6[i] = (int) Math.round(location.getLongitude() * 1e6);
+        }
+        return new RouteGeometry(latitudesE6, longitudesE6);
+    }
+
+    /**
+     * Copies the points flagged in {@code keep} into a new geometry, preserving order. The
+     * copy remembers where each point came from, see {@link #getSourceIndex(int)}.
+     */
+    public RouteGeometry subset(boolean[] keep) {
+        int count = 0;
+        for (boolean k : keep) {
+            if (k) {
+                count++;
+            }
+        }
+
+        final int[] lats = new int[count];
+        final int[] lngs = new int[count];
+        final int[] sources = new int[count];
+        int j = 0;
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                lats[j] = latitudesE6[i];
+                lngs[j] = longitudesE6[i];
+                sources[j] = getSourceIndex(i);
+                j++;
+            }
+        }
+        return new RouteGeometry(lats, lngs, sources);
+    }
+
+    /**
+     * @return index of the point in the original, unsimplified geometry.
+     */
+    public int getSourceIndex(int index) {
+        return sourceIndexes == null ? index : sourceIndexes[index];
+    }
+
+    /**
+     * @return index of the last point at or before the given point of the original geometry.
+     */
+    public int indexOfSource(int sourceIndex) {
+        if (sourceIndexes == null) {
+            return Math.max(0, Math.min(sourceIndex, size() - 1));
+        }
+
+        int low = 0;
+        int high = sourceIndexes.length - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (sourceIndexes[mid] <= sourceIndex) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public int size() {
+        return latitudesE6.length;
+    }
+
+    public int getLatitudeE6(int index) {
+        return latitudesE6[index];
+    }
+
+    public int getLongitudeE6(int index) {
+        return longitudesE6[index];
+    }
+
+    public double getLatitude(int index) {
+        return latitudesE6[index] / 1e6;
+    }
+
+    public double getLongitude(int index) {
+        return longitudesE6[index] / 1e6;
+    }
+
+    public GeoPoint getGeoPoint(int index) {
+        return new GeoPoint(latitudesE6[index], longitudesE6[index]);
+    }
+
+    /**
+     * @return distance in meters along the route from the first point to the given point.
+     */
+    public double getDistance(int index) {
+        return distances[index];
+    }
+
+    public double getTotalDistance() {
+        return distances.length == 0 ? 0 : distances[distances.length - 1];
+    }
+
+    public BoundingBox getBoundingBox() {
+        return boundingBox;
+    }
+
+    /**
+     * Position of the point closest to the given coordinates on a segment, as a fraction of
+     * the segment from its first point. Uses an equirectangular projection around the
+     * segment, which is accurate at the scale of a single segment.
+     */
+    public double getFractionAlongSegment(int segment, double lat, double lng) {
+        final double cos = Math.cos(Math.toRadians(getLatitude(segment)));
+        final double dx = (getLongitude(segment + 1) - getLongitude(segment)) * cos;
+        final double dy = getLatitude(segment + 1) - getLatitude(segment);
+        final double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return 0;
+        }
+
+        final double px = (lng - getLongitude(segment)) * cos;
+        final double py = lat - getLatitude(segment);
+        return Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+    }
+
+    /**
+     * @return distance in meters from the given coordinates to the closest point on a segment.
+     */
+    public double getDistanceToSegment(int segment, double lat, double lng) {
+        final double fraction = getFractionAlongSegment(segment, lat, lng);
+        return distanceBetween(lat, lng, interpolateLatitude(segment, fraction),
+                interpolateLongitude(segment, fraction));
+    }
+
+    public double interpolateLatitude(int segment, double fraction) {
+        return getLatitude(segment) + (getLatitude(segment + 1) - getLatitude(segment)) * fraction;
+    }
+
+    public double interpolateLongitude(int segment, double fraction) {
+        return getLongitude(segment)
+                + (getLongitude(segment + 1) - getLongitude(segment)) * fraction;
+    }
+
+    private double distanceBetween(int from, int to) {
+        return distanceBetween(getLatitude(from), getLongitude(from),
+                getLatitude(to), getLongitude(to));
+    }
+
+    /**
+     * Great circle distance in meters using the haversine formula.
+     */
+    public static double distanceBetween(double lat1, double lng1, double lat2, double lng2) {
+        final double dLat = Math.toRadians(lat2 - lat1);
+        final double dLng = Math.toRadians(lng2 - lng1);
+        final double sinLat = Math.sin(dLat / 2);
+        final double sinLng = Math.sin(dLng / 2);
+        final double a = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLng * sinLng;
+        return 2 * EARTH_RADIUS_IN_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
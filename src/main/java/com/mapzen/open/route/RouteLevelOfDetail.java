@@ -0,0 +1,109 @@
+package com.mapzen.open.route;
+
+import org.oscim.core.Tile;
+
+import android.os.AsyncTask;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.mapzen.open.util.DouglasPeuckerReducer.reduceWithTolerance;
+
+/**
+ * Pyramid of simplified route polylines, one per zoom band. Each level is reduced to about
+ * one pixel of error at the most detailed zoom of its band so zoomed out views draw far fewer
+ * vertices while zoomed in views keep the full geometry. Long routes are simplified in
+ * parallel on the shared AsyncTask pool, and the pyramid is built there too rather than on the
+ * serial executor, where it would queue behind uploads.
+ */
+public class RouteLevelOfDetail {
+    public static final int MIN_POINTS_TO_SIMPLIFY = 100;
+    private static final int[] BAND_MAX_ZOOM = { 7, 10, 13, 16 };
+
+    private final RouteGeometry geometry;
+    private final RouteSegmentIndex fullResolution;
+    private final AtomicReferenceArray<RouteSegmentIndex> levels =
+            new AtomicReferenceArray<RouteSegmentIndex>(BAND_MAX_ZOOM.length);
+    private final double latitude;
+
+    public RouteLevelOfDetail(RouteGeometry geometry) {
+        this(new RouteSegmentIndex(geometry));
+    }
+
+    /**
+     * Reuses an existing index of the full resolution geometry.
+     */
+    public RouteLevelOfDetail(RouteSegmentIndex fullResolution) {
+        this.geometry = fullResolution.getGeometry();
+        this.fullResolution = fullResolution;
+        this.latitude = geometry.getBoundingBox().getCenterPoint().getLatitude();
+    }
+
+    public RouteSegmentIndex getFullResolution() {
+        return fullResolution;
+    }
+
+    public synchronized RouteSegmentIndex getLevelForZoom(int zoom) {
+        if (geometry.size() <= MIN_POINTS_TO_SIMPLIFY) {
+            return fullResolution;
+        }
+
+        for (int band = 0; band < BAND_MAX_ZOOM.length; band++) {
+            if (zoom <= BAND_MAX_ZOOM[band]) {
+                if (levels.get(band) == null) {
+                    final double tolerance = getTolerance(BAND_MAX_ZOOM[band], latitude);
+                    try {
+                        levels.set(band, new RouteSegmentIndex(reduceWithTolerance(geometry,
+                                tolerance, AsyncTask.THREAD_POOL_EXECUTOR)));
+                    } catch (CancellationException e) {
+                        // interrupted, leave the level to be built next time
+                        return fullResolution;
+                    }
+                }
+                return levels.get(band);
+            }
+        }
+        return fullResolution;
+    }
+
+    /**
+     * Never blocks, so it is safe to call from the render thread. Falls back to the full
+     * resolution geometry while the level for this zoom has not been built yet.
+     */
+    public RouteSegmentIndex peekLevelForZoom(int zoom) {
+        for (int band = 0; band < BAND_MAX_ZOOM.length; band++) {
+            if (zoom <= BAND_MAX_ZOOM[band]) {
+                final RouteSegmentIndex level = levels.get(band);
+                return level != null ? level : fullResolution;
+            }
+        }
+        return fullResolution;
+    }
+
+    /**
+     * Builds every level up front. Runs on the calling thread.
+     */
+    public void buildAll() {
+        for (int zoom : BAND_MAX_ZOOM) {
+            getLevelForZoom(zoom);
+        }
+    }
+
+    public void buildInBackground() {
+        (new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                buildAll();
+                return null;
+            }
+        }).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Ground width of one screen pixel at the given zoom level and latitude, in meters.
+     */
+    public static double getTolerance(int zoom, double latitude) {
+        return 2 * Math.PI * RouteGeometry.EARTH_RADIUS_IN_METERS
+                * Math.cos(Math.toRadians(latitude)) / ((double) Tile.SIZE * (1 << zoom));
+    }
+}
@@ -0,0 +1,112 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.util.Logger;
+import com.mapzen.osrm.Route;
+import com.mapzen.osrm.Router;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * Fetches routes for the modes of transport the user hasn't picked yet, so switching modes in
+ * the preview is answered from the {@link RouteCache}, or joins the prefetch if it is still in
+ * flight. Fetches go through the {@link RouteRequestCoordinator}, each on its own
+ * {@link Router} since a router only holds one request, and at most
+ * {@link #MAX_CONCURRENT_FETCHES} run at once.
+ */
+public class RouteModePrefetcher {
+    public static final int MAX_CONCURRENT_FETCHES = 2;
+
+    private final RouterFactory routerFactory;
+    private final RouteRequestCoordinator coordinator;
+    private final LinkedList<RouteRequest> queue = new LinkedList<RouteRequest>();
+    private final HashSet<String> pendingKeys = new HashSet<String>();
+    private int inFlightCount = 0;
+    private int requestCount = 0;
+
+    public RouteModePrefetcher(RouterFactory routerFactory,
+            RouteRequestCoordinator coordinator) {
+        this.routerFactory = routerFactory;
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Queues the requests that aren't already queued. Those that are cached or already being
+     * fetched once their turn comes are skipped.
+     */
+    public synchronized void prefetch(RouteRequest... requests) {
+        for (RouteRequest request : requests) {
+            final String key = request.getKey();
+            if (pendingKeys.contains(key)) {
+                continue;
+            }
+            pendingKeys.add(key);
+            queue.add(request);
+        }
+        startQueued();
+    }
+
+    /**
+     * Drops requests that haven't started. Fetches in flight still finish and are cached.
+     */
+    public synchronized void cancel() {
+        for (RouteRequest request : queue) {
+            pendingKeys.remove(request.getKey());
+        }
+        queue.clear();
+    }
+
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    private void startQueued() {
+        while (inFlightCount < MAX_CONCURRENT_FETCHES && !queue.isEmpty()) {
+            final RouteRequest request = queue.removeFirst();
+            inFlightCount++;
+            if (coordinator.prefetch(request, routerFactory.newRouter(), new Fetch(request))
+                    == null) {
+                inFlightCount--;
+                pendingKeys.remove(request.getKey());
+            } else {
+                requestCount++;
+            }
+        }
+    }
+
+    private synchronized void finish(RouteRequest request) {
+        inFlightCount--;
+        pendingKeys.remove(request.getKey());
+        startQueued();
+    }
+
+    /**
+     * Creates a router for each fetch, already pointed at the routing endpoint.
+     */
+    public interface RouterFactory {
+        Router newRouter();
+    }
+
+    private class Fetch implements Router.Callback {
+        private final RouteRequest request;
+        private final long startTime = System.currentTimeMillis();
+
+        private Fetch(RouteRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public void success(Route route) {
+            Logger.d("RouteModePrefetcher: " + request.getType() + " fetched in "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+            finish(request);
+        }
+
+        @Override
+        public void failure(int statusCode) {
+            Logger.d("RouteModePrefetcher: " + request.getType() + " failed with " + statusCode
+                    + " after " + (System.currentTimeMillis() - startTime) + "ms");
+            finish(request);
+        }
+    }
+}
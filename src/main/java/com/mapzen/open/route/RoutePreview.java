@@ -0,0 +1,105 @@
+package com.mapzen.open.route;
+
+import com.mapzen.osrm.Route;
+
+import org.oscim.core.BoundingBox;
+import org.oscim.core.GeoPoint;
+import org.oscim.core.MapPosition;
+import org.oscim.layers.marker.MarkerItem;
+import org.oscim.layers.marker.MarkerSymbol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A route worked out for display in the preview: the map position that fits it, the geometry
+ * simplified for that zoom and the markers at both ends. Preparing one doesn't touch the map,
+ * so it can run off the UI thread and leave only attaching layers to the callback.
+ */
+public class RoutePreview {
+    public static final double SCALE_PADDING = 0.85;
+
+    private final Route route;
+    private final BoundingBox boundingBox;
+    private final MapPosition position;
+    private final List<GeoPoint> points;
+    private final MarkerItem start;
+    private final MarkerItem end;
+    private final int geometrySize;
+
+    private RoutePreview(Route route, BoundingBox boundingBox, MapPosition position,
+            List<GeoPoint> points, MarkerItem start, MarkerItem end, int geometrySize) {
+        this.route = route;
+        this.boundingBox = boundingBox;
+        this.position = position;
+        this.points = points;
+        this.start = start;
+        this.end = end;
+        this.geometrySize = geometrySize;
+    }
+
+    /**
+     * @param width width of the map view in pixels.
+     * @param height height of the map view in pixels.
+     */
+    public static RoutePreview prepare(Route route, int width, int height,
+            MarkerSymbol startSymbol, MarkerSymbol endSymbol) {
+        final RouteGeometry geometry = RouteGeometry.fromLocations(route.getGeometry());
+        final BoundingBox boundingBox = geometry.getBoundingBox();
+        final MapPosition position = new MapPosition();
+        position.setByBoundingBox(boundingBox, width, height);
+        position.setScale(position.getZoomScale() * SCALE_PADDING);
+
+        final RouteSegmentIndex level = new RouteLevelOfDetail(geometry)
+                .getLevelForZoom(position.getZoomLevel());
+        final ArrayList<GeoPoint> points = new ArrayList<GeoPoint>(level.size());
+        for (int i = 0; i < level.size(); i++) {
+            points.add(level.getGeoPoint(i));
+        }
+
+        return new RoutePreview(route, boundingBox, position, points,
+                getMarkerItem(points.get(0), startSymbol),
+                getMarkerItem(points.get(points.size() - 1), endSymbol), geometry.size());
+    }
+
+    private static MarkerItem getMarkerItem(GeoPoint point, MarkerSymbol symbol) {
+        final MarkerItem markerItem = new MarkerItem("Generic Marker", "Generic Description",
+                point);
+        markerItem.setMarker(symbol);
+        return markerItem;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public BoundingBox getBoundingBox() {
+        return boundingBox;
+    }
+
+    public MapPosition getPosition() {
+        return position;
+    }
+
+    /**
+     * @return simplified geometry to draw at the zoom level of {@link #getPosition()}.
+     */
+    public List<GeoPoint> getPoints() {
+        return points;
+    }
+
+    public MarkerItem getStart() {
+        return start;
+    }
+
+    public MarkerItem getEnd() {
+        return end;
+    }
+
+    /**
+     * @return number of points in the route before it was simplified.
+     */
+    public int getGeometrySize() {
+        return geometrySize;
+    }
+}
@@ -17,15 +17,13 @@ import com.squareup.otto.Subscribe;
 
 import org.oscim.android.canvas.AndroidGraphics;
 import org.oscim.backend.canvas.Color;
-import org.oscim.core.BoundingBox;
-import org.oscim.core.MapPosition;
 import org.oscim.layers.PathLayer;
 import org.oscim.layers.marker.ItemizedLayer;
 import org.oscim.layers.marker.MarkerItem;
 import org.oscim.layers.marker.MarkerSymbol;
 
 import android.app.Activity;
-import android.location.Location;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
@@ -39,7 +37,6 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import java.util.ArrayList;
-import java.util.List;
 
 import javax.inject.Inject;
 
@@ -49,10 +46,8 @@ import butterknife.OnCheckedChanged;
 import butterknife.OnClick;
 
 import static com.mapzen.open.MapController.geoPointToPair;
-import static com.mapzen.open.MapController.locationToGeoPoint;
 import static com.mapzen.open.MapController.locationToPair;
 import static com.mapzen.open.entity.SimpleFeature.TEXT;
-import static com.mapzen.open.util.DouglasPeuckerReducer.reduceWithTolerance;
 import static com.mapzen.open.util.MixpanelHelper.Event.ROUTING_PREVIEW_BIKE;
 import static com.mapzen.open.util.MixpanelHelper.Event.ROUTING_PREVIEW_FOOT;
 import static com.mapzen.osrm.Router.Type;
@@ -63,11 +58,14 @@ import static com.mapzen.osrm.Router.Type.WALKING;
 public class RoutePreviewFragment extends BaseFragment implements Router.Callback {
     public static final String TAG = RoutePreviewFragment.class.getSimpleName();
     public static final int ROUTE_ZOOM_LEVEL = 19;
-    public static final int REDUCE_TOLERANCE = 100;
+    public static final Type[] TRANSPORTATION_MODES = { DRIVING, BIKING, WALKING };
     private SimpleFeature destination;
     private boolean reverse = false;
     private Type transportationMode = DRIVING;
     private Route route;
+    private long requestTime;
+    private MarkerSymbol startSymbol;
+    private MarkerSymbol endSymbol;
 
     PathLayer path;
     ItemizedLayer<MarkerItem> markers;
@@ -75,7 +73,8 @@ public class RoutePreviewFragment extends BaseFragment implements Router.Callbac
     @Inject MixpanelAPI mixpanelAPI;
     @Inject Bus bus;
 
-    @Inject Router router;
+    @Inject RouteRequestCoordinator routeRequestCoordinator;
+    @Inject RouteModePrefetcher routeModePrefetcher;
     @InjectView(R.id.starting_point) TextView startingPointTextView;
     @InjectView(R.id.destination) TextView destinationTextView;
     @InjectView(R.id.route_reverse) ImageButton routeReverse;
@@ -107,6 +106,9 @@ public class RoutePreviewFragment extends BaseFragment implements Router.Callbac
     public void onDestroy() {
         super.onDestroy();
         bus.unregister(this);
+        routeRequestCoordinator.cancel(this);
+        routeModePrefetcher.cancel();
+        Logger.d(routeRequestCoordinator.toString());
         mapFragment.showLocationMarker();
     }
 
@@ -180,6 +182,8 @@ public class RoutePreviewFragment extends BaseFragment implements Router.Callbac
         animateDestinationReverse();
         setOriginAndDestination();
         createRouteToDestination();
+        routeModePrefetcher.cancel();
+        prefetchOtherModes();
     }
 
     private void animateDestinationReverse() {
@@ -232,19 +236,31 @@ public class RoutePreviewFragment extends BaseFragment implements Router.Callbac
         mapFragment.clearMarkers();
         mapFragment.updateMap();
         act.showLoadingIndicator();
-        router.clearLocations()
-                .setLocation(getOriginPoint())
-                .setLocation(getDestinationPoint())
-                .setZoomLevel(ROUTE_ZOOM_LEVEL)
-                .setCallback(this);
-        if (transportationMode.equals(DRIVING)) {
-            router.setDriving();
-        } else if (transportationMode.equals(WALKING)) {
-            router.setWalking();
-        } else if (transportationMode.equals(BIKING)) {
-            router.setBiking();
+        requestTime = System.currentTimeMillis();
+        routeRequestCoordinator.fetch(getRouteRequest(transportationMode), this);
+    }
+
+    /**
+     * Starts fetching the modes of transport other than the selected one, so switching to
+     * them doesn't wait on the router.
+     */
+    public void prefetchOtherModes() {
+        if (mapController.getLocation() == null) {
+            return;
         }
-        router.fetch();
+
+        final ArrayList<RouteRequest> requests = new ArrayList<RouteRequest>();
+        for (Type type : TRANSPORTATION_MODES) {
+            if (type != transportationMode) {
+                requests.add(getRouteRequest(type));
+            }
+        }
+        routeModePrefetcher.prefetch(requests.toArray(new RouteRequest[requests.size()]));
+    }
+
+    private RouteRequest getRouteRequest(Type type) {
+        return new RouteRequest(getOriginPoint(), getDestinationPoint(), type)
+                .setZoomLevel(ROUTE_ZOOM_LEVEL);
     }
 
     private double[] getDestinationPoint() {
@@ -259,10 +275,13 @@ public class RoutePreviewFragment extends BaseFragment implements Router.Callbac
 
     public void setDestination(SimpleFeature destination) {
         this.destination = destination;
+        prefetchOtherModes();
     }
 
     @Override
     public void success(Route route) {
+        Logger.d("RoutePreviewFragment::success " + transportationMode + " route in "
+                + (System.currentTimeMillis() - requestTime) + "ms");
         this.route = route;
         act.hideLoadingIndicator();
         displayRoute();
@@ -277,6 +296,36 @@ public class RoutePreviewFragment extends BaseFragment implements Router.Callbac
             return;
         }
 
+        final Route preparing = route;
+        final int width = mapController.getMap().getWidth();
+        final int height = mapController.getMap().getHeight();
+        final MarkerSymbol startSymbol = getStartSymbol();
+        final MarkerSymbol endSymbol = getEndSymbol();
+        // Not on the serial executor, where it would wait behind trace uploads.
+        (new AsyncTask<Void, Void, RoutePreview>() {
+            @Override
+            protected RoutePreview doInBackground(Void... params) {
+                long time = System.currentTimeMillis();
+                RoutePreview preview = RoutePreview.prepare(preparing, width, height,
+                        startSymbol, endSymbol);
+                Logger.d("RoutePreviewFragment::displayRoute Geometry points before: "
+                        + preview.getGeometrySize());
+                Logger.d("Timing: " + String.valueOf(System.currentTimeMillis() - time));
+                Logger.d("RoutePreviewFragment::displayRoute Geometry points after: "
+                        + preview.getPoints().size());
+                return preview;
+            }
+
+            @Override
+            protected void onPostExecute(RoutePreview preview) {
+                if (preview.getRoute() == route && getActivity() != null) {
+                    showPreview(preview);
+                }
+            }
+        }).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void showPreview(RoutePreview preview) {
         mapController.getMap().layers().remove(path);
         mapController.getMap().layers().remove(markers);
         path = new PathLayer(MapController.getMapController().getMap(), Color.DKGRAY, 8);
@@ -286,53 +335,19 @@ public class RoutePreviewFragment extends BaseFragment implements Router.Callbac
                                 .getDrawable(R.drawable.ic_pin),
                         MarkerItem.HotspotPlace.BOTTOM_CENTER), null);
 
-        List<Location> points = route.getGeometry();
-        long time = System.currentTimeMillis();
-        Logger.d("RoutePreviewFragment::success Geometry points before: " + points.size());
-        if (points.size() > REDUCE_TOLERANCE) {
-            points = reduceWithTolerance(points, REDUCE_TOLERANCE);
-        }
-        Logger.d("Timing: " + String.valueOf(System.currentTimeMillis() - time));
-        Logger.d("RoutePreviewFragment::success Geometry points after: " + points.size());
-        path.clearPath();
-        double minlat = Integer.MAX_VALUE;
-        double minlon = Integer.MAX_VALUE;
-        double maxlat = Integer.MIN_VALUE;
-        double maxlon = Integer.MIN_VALUE;
-        for (Location loc : points) {
-            maxlat = Math.max(maxlat, loc.getLatitude());
-            maxlon = Math.max(maxlon, loc.getLongitude());
-            minlat = Math.min(minlat, loc.getLatitude());
-            minlon = Math.min(minlon, loc.getLongitude());
-            path.addPoint(locationToGeoPoint(loc));
-        }
-
-        BoundingBox bbox = new BoundingBox(minlat, minlon, maxlat, maxlon);
-        int w = mapController.getMap().getWidth();
-        int h = mapController.getMap().getHeight();
-        MapPosition position = new MapPosition();
-        position.setByBoundingBox(bbox, w, h);
-
-        position.setScale(position.getZoomScale() * 0.85);
-
-        mapController.getMap().setMapPosition(position);
-
-        if (!mapController.getMap().layers().contains(path)) {
-            mapController.getMap().layers().add(path);
-        }
-
-        if (!mapController.getMap().layers().contains(markers)) {
-            mapController.getMap().layers().add(markers);
-        }
-        markers.removeAllItems();
-        markers.addItem(getMarkerItem(R.drawable.ic_a, points.get(0),
-                MarkerItem.HotspotPlace.CENTER));
-        markers.addItem(getMarkerItem(R.drawable.ic_b, points.get(points.size() - 1),
-                MarkerItem.HotspotPlace.BOTTOM_CENTER));
+        mapController.getMap().setMapPosition(preview.getPosition());
+        path.setPoints(preview.getPoints());
+        mapController.getMap().layers().add(path);
+        mapController.getMap().layers().add(markers);
+        markers.addItem(preview.getStart());
+        markers.addItem(preview.getEnd());
     }
 
     @Override
     public void failure(int statusCode) {
+        if (statusCode == RouteRequestCoordinator.SUPERSEDED) {
+            return;
+        }
         act.getSupportFragmentManager().popBackStack(); // Pop RoutePreviewFragment
         if (path != null) {
             path.clearPath();
@@ -345,12 +360,23 @@ public class RoutePreviewFragment extends BaseFragment implements Router.Callbac
         createRouteToDestination();
     }
 
-    private MarkerItem getMarkerItem(int icon, Location loc, MarkerItem.HotspotPlace place) {
-        MarkerItem markerItem = new MarkerItem("Generic Marker",
-                "Generic Description", locationToGeoPoint(loc));
-        markerItem.setMarker(new MarkerSymbol(
-                AndroidGraphics.drawableToBitmap(app.getResources().getDrawable(icon)), place));
-        return markerItem;
+    private MarkerSymbol getStartSymbol() {
+        if (startSymbol == null) {
+            startSymbol = getMarkerSymbol(R.drawable.ic_a, MarkerItem.HotspotPlace.CENTER);
+        }
+        return startSymbol;
+    }
+
+    private MarkerSymbol getEndSymbol() {
+        if (endSymbol == null) {
+            endSymbol = getMarkerSymbol(R.drawable.ic_b, MarkerItem.HotspotPlace.BOTTOM_CENTER);
+        }
+        return endSymbol;
+    }
+
+    private MarkerSymbol getMarkerSymbol(int icon, MarkerItem.HotspotPlace place) {
+        return new MarkerSymbol(
+                AndroidGraphics.drawableToBitmap(app.getResources().getDrawable(icon)), place);
     }
 
     private void showDirectionListFragment() {
@@ -370,6 +396,7 @@ public class RoutePreviewFragment extends BaseFragment implements Router.Callbac
     private void startRouting() {
         hideFragmentContents();
         RouteFragment routeFragment = RouteFragment.newInstance(act, destination);
+        routeFragment.setTransportationMode(transportationMode);
         routeFragment.setRoute(route);
         act.getSupportFragmentManager().beginTransaction()
                 .addToBackStack(null)
@@ -0,0 +1,115 @@
+package com.mapzen.open.route;
+
+import com.mapzen.osrm.Router;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mapzen.osrm.Router.Type.BIKING;
+import static com.mapzen.osrm.Router.Type.DRIVING;
+import static com.mapzen.osrm.Router.Type.WALKING;
+
+/**
+ * Locations and options for one route fetch. Requests from the same small area, heading the
+ * same way to the same destination by the same mode share a key, since the router would return
+ * the same route. The mode is always set on the router, so a request never depends on the mode
+ * an earlier one left it in.
+ */
+public class RouteRequest {
+    public static final double ORIGIN_CELL_SIZE = 0.001;
+    public static final double VIA_CELL_SIZE = 0.0001;
+    public static final double DESTINATION_CELL_SIZE = 0.00001;
+    public static final Router.Type DEFAULT_TYPE = DRIVING;
+
+    private final double[] origin;
+    private final double[] destination;
+    private final Router.Type type;
+    private final ArrayList<double[]> via = new ArrayList<double[]>();
+    private int zoomLevel = 0;
+    private boolean cacheable = true;
+
+    /**
+     * @param type mode of transport, or null for {@link #DEFAULT_TYPE}.
+     */
+    public RouteRequest(double[] origin, double[] destination, Router.Type type) {
+        this.origin = origin;
+        this.destination = destination;
+        this.type = type == null ? DEFAULT_TYPE : type;
+    }
+
+    /**
+     * Adds a point the route must pass between the origin and the destination.
+     */
+    public RouteRequest addVia(double[] point) {
+        via.add(point);
+        return this;
+    }
+
+    public RouteRequest setZoomLevel(int zoomLevel) {
+        this.zoomLevel = zoomLevel;
+        return this;
+    }
+
+    /**
+     * Reroutes start wherever the user is, and a cached route for the same origin cell can start
+     * too far from there to be followed, so they are always fetched.
+     */
+    public RouteRequest setCacheable(boolean cacheable) {
+        this.cacheable = cacheable;
+        return this;
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public List<double[]> getLocations() {
+        final ArrayList<double[]> locations = new ArrayList<double[]>(via.size() + 2);
+        locations.add(origin);
+        locations.addAll(via);
+        locations.add(destination);
+        return locations;
+    }
+
+    public Router.Type getType() {
+        return type;
+    }
+
+    public int getZoomLevel() {
+        return zoomLevel;
+    }
+
+    /**
+     * Sets the router up for this request. The callback still has to be set before fetching.
+     */
+    public Router applyTo(Router router) {
+        router.clearLocations();
+        for (double[] location : getLocations()) {
+            router.setLocation(location);
+        }
+        if (zoomLevel > 0) {
+            router.setZoomLevel(zoomLevel);
+        }
+        if (WALKING.equals(type)) {
+            router.setWalking();
+        } else if (BIKING.equals(type)) {
+            router.setBiking();
+        } else {
+            router.setDriving();
+        }
+        return router;
+    }
+
+    public String getKey() {
+        final StringBuilder key = new StringBuilder(getCell(origin, ORIGIN_CELL_SIZE));
+        for (double[] point : via) {
+            key.append("~").append(getCell(point, VIA_CELL_SIZE));
+        }
+        return key.append("->").append(getCell(destination, DESTINATION_CELL_SIZE))
+                .append(":").append(type).toString();
+    }
+
+    private static String getCell(double[] point, double size) {
+        return (long) Math.floor(point[0] / size) + "," + (long) Math.floor(point[1] / size);
+    }
+}
@@ -0,0 +1,308 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.util.Logger;
+import com.mapzen.osrm.Route;
+import com.mapzen.osrm.Router;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Serializes fetches through the shared {@link Router}. A request with the same key as the
+ * one in flight, or as a prefetch in flight, joins it instead of fetching again. Any other
+ * request supersedes the one in flight, whose response is then dropped so it can't overwrite
+ * the newer route, and whose callbacks are told it failed with {@link #SUPERSEDED} unless they
+ * are waiting on the newer request too. Prefetches run on their own routers and always finish,
+ * so their routes end up in the {@link RouteCache}, which serves routes while they are valid.
+ * Requests that aren't {@link RouteRequest#isCacheable() cacheable} skip the cache entirely.
+ */
+public class RouteRequestCoordinator {
+    public static final int SUPERSEDED = -1;
+
+    private final Router router;
+    private final RouteCache cache;
+    private final HashMap<String, Request> prefetches = new HashMap<String, Request>();
+    private Request current;
+    private int requestCount = 0;
+    private int deduplicatedCount = 0;
+    private int cancelledCount = 0;
+    private int droppedCount = 0;
+    private int cachedCount = 0;
+
+    public RouteRequestCoordinator(Router router) {
+        this(router, null);
+    }
+
+    public RouteRequestCoordinator(Router router, RouteCache cache) {
+        this.router = router;
+        this.cache = cache;
+    }
+
+    /**
+     * @return handle for the request the callback was attached to.
+     */
+    public Request fetch(RouteRequest routeRequest, Router.Callback callback) {
+        final String key = routeRequest.getKey();
+        final Route cached = usesCache(routeRequest) ? cache.get(key) : null;
+        final ArrayList<Router.Callback> superseded = new ArrayList<Router.Callback>();
+        final Request request;
+        boolean started = false;
+        synchronized (this) {
+            if (cached != null) {
+                superseded.addAll(cancelCurrent());
+                cachedCount++;
+                request = new Request(routeRequest, router, null);
+                request.done = true;
+            } else if (current != null && current.key.equals(key)) {
+                if (!current.callbacks.contains(callback)) {
+                    current.callbacks.add(callback);
+                }
+                deduplicatedCount++;
+                request = current;
+            } else if (prefetches.containsKey(key)) {
+                superseded.addAll(cancelCurrent());
+                current = prefetches.get(key);
+                current.callbacks.add(callback);
+                deduplicatedCount++;
+                request = current;
+            } else {
+                superseded.addAll(cancelCurrent());
+                current = new Request(routeRequest, router, null);
+                current.callbacks.add(callback);
+                request = current;
+                started = true;
+            }
+        }
+
+        superseded.remove(callback);
+        for (Router.Callback waiting : superseded) {
+            waiting.failure(SUPERSEDED);
+        }
+        if (cached != null) {
+            callback.success(cached);
+        } else if (started) {
+            request.start();
+        }
+        return request;
+    }
+
+    /**
+     * Fetches a route on the given router so a later {@link #fetch} for it can join it or be
+     * answered from the cache. The listener is told when the prefetch finishes.
+     *
+     * @return handle for the prefetch, or null if the route is cached in memory or already
+     * being fetched.
+     */
+    public Request prefetch(RouteRequest routeRequest, Router prefetchRouter,
+            Router.Callback listener) {
+        final String key = routeRequest.getKey();
+        if (usesCache(routeRequest) && cache.get(key) != null) {
+            return null;
+        }
+
+        final Request request;
+        synchronized (this) {
+            if (prefetches.containsKey(key) || (current != null && current.key.equals(key))) {
+                return null;
+            }
+            request = new Request(routeRequest, prefetchRouter, listener);
+            prefetches.put(key, request);
+        }
+        request.start();
+        return request;
+    }
+
+    /**
+     * Stops delivering responses to the callback. The request in flight is cancelled once
+     * nobody is waiting for it.
+     */
+    public synchronized void cancel(Router.Callback callback) {
+        if (current == null) {
+            return;
+        }
+
+        current.callbacks.remove(callback);
+        if (current.callbacks.isEmpty()) {
+            cancelCurrent();
+        }
+    }
+
+    /**
+     * Detaches the callbacks from a prefetch in flight, which still finishes and is cached.
+     *
+     * @return the callbacks that were waiting on the cancelled request.
+     */
+    private ArrayList<Router.Callback> cancelCurrent() {
+        final ArrayList<Router.Callback> waiting = new ArrayList<Router.Callback>();
+        if (current != null) {
+            waiting.addAll(current.callbacks);
+            if (current.listener == null) {
+                current.cancelled = true;
+                cancelledCount++;
+            } else {
+                current.callbacks.clear();
+            }
+            current = null;
+        }
+        return waiting;
+    }
+
+    private boolean usesCache(RouteRequest routeRequest) {
+        return cache != null && routeRequest.isCacheable();
+    }
+
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return number of requests that joined a matching request or prefetch already in flight.
+     */
+    public synchronized int getDeduplicatedCount() {
+        return deduplicatedCount;
+    }
+
+    public synchronized int getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     * @return number of responses that arrived for cancelled requests.
+     */
+    public synchronized int getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return number of requests answered from the cache.
+     */
+    public synchronized int getCachedCount() {
+        return cachedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RouteRequestCoordinator requests=" + requestCount + " cached=" + cachedCount
+                + " joined=" + deduplicatedCount + " cancelled=" + cancelledCount
+                + " dropped=" + droppedCount;
+    }
+
+    private synchronized ArrayList<Router.Callback> complete(Request request) {
+        if (request.cancelled) {
+            droppedCount++;
+            Logger.d("RouteRequestCoordinator: dropped response for " + request.key);
+            return null;
+        }
+
+        request.done = true;
+        if (current == request) {
+            current = null;
+        }
+        if (prefetches.get(request.key) == request) {
+            prefetches.remove(request.key);
+        }
+        final ArrayList<Router.Callback> waiting =
+                new ArrayList<Router.Callback>(request.callbacks);
+        if (request.listener != null) {
+            waiting.add(request.listener);
+        }
+        return waiting;
+    }
+
+    /**
+     * A fetch in flight and the callbacks waiting for it. The cache on disk is checked first,
+     * and the router is only asked if the route isn't there.
+     */
+    public final class Request implements Router.Callback, RouteCache.LoadListener {
+        private final RouteRequest routeRequest;
+        private final String key;
+        private final Router requestRouter;
+        private final Router.Callback listener;
+        private final ArrayList<Router.Callback> callbacks = new ArrayList<Router.Callback>();
+        private boolean cancelled = false;
+        private boolean done = false;
+
+        private Request(RouteRequest routeRequest, Router requestRouter,
+                Router.Callback listener) {
+            this.routeRequest = routeRequest;
+            this.key = routeRequest.getKey();
+            this.requestRouter = requestRouter;
+            this.listener = listener;
+        }
+
+        public boolean isCancelled() {
+            synchronized (RouteRequestCoordinator.this) {
+                return cancelled;
+            }
+        }
+
+        public boolean isDone() {
+            synchronized (RouteRequestCoordinator.this) {
+                return done;
+            }
+        }
+
+        private void start() {
+            if (usesCache(routeRequest)) {
+                cache.load(key, this);
+            } else {
+                fetchFromRouter();
+            }
+        }
+
+        private void fetchFromRouter() {
+            synchronized (RouteRequestCoordinator.this) {
+                if (cancelled) {
+                    return;
+                }
+                requestCount++;
+                routeRequest.applyTo(requestRouter).setCallback(this).fetch();
+            }
+        }
+
+        @Override
+        public void onLoaded(Route route) {
+            if (route == null) {
+                fetchFromRouter();
+                return;
+            }
+
+            final ArrayList<Router.Callback> waiting = complete(this);
+            if (waiting == null) {
+                return;
+            }
+
+            synchronized (RouteRequestCoordinator.this) {
+                cachedCount++;
+            }
+            for (Router.Callback callback : waiting) {
+                callback.success(route);
+            }
+        }
+
+        @Override
+        public void success(Route route) {
+            final ArrayList<Router.Callback> waiting = complete(this);
+            if (waiting == null) {
+                return;
+            }
+
+            if (usesCache(routeRequest) && route != null && route.foundRoute()) {
+                cache.put(key, route);
+            }
+            for (Router.Callback callback : waiting) {
+                callback.success(route);
+            }
+        }
+
+        @Override
+        public void failure(int statusCode) {
+            final ArrayList<Router.Callback> waiting = complete(this);
+            if (waiting != null) {
+                for (Router.Callback callback : waiting) {
+                    callback.failure(statusCode);
+                }
+            }
+        }
+    }
+}
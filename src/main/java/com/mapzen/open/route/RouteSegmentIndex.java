@@ -0,0 +1,216 @@
+package com.mapzen.open.route;
+
+import org.oscim.core.BoundingBox;
+import org.oscim.core.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid over the segments of a route polyline. Built once per route so the segments
+ * inside a viewport can be found without walking the whole geometry on every map event.
+ */
+public class RouteSegmentIndex {
+    public static final int SEGMENTS_PER_CELL = 8;
+    public static final int MAX_CELLS_PER_AXIS = 256;
+
+    private final RouteGeometry geometry;
+    private final int segmentCount;
+
+    private int minLat;
+    private int minLng;
+    private int maxLat;
+    private int maxLng;
+    private int columns = 1;
+    private int rows = 1;
+    private double cellWidth;
+    private double cellHeight;
+
+    // Compressed cell lists: segments of cell c are cellSegments[cellStart[c]..cellStart[c+1]).
+    private int[] cellStart;
+    private int[] cellSegments;
+
+    // Per-query scratch space, reused to keep queries allocation free.
+    private final int[] seen;
+    private final int[] hits;
+    private int queryStamp = 0;
+
+    public RouteSegmentIndex(RouteGeometry geometry) {
+        this.geometry = geometry;
+        segmentCount = Math.max(0, geometry.size() - 1);
+        seen = new int[segmentCount];
+        hits = new int[segmentCount];
+        build();
+    }
+
+    private void build() {
+        final BoundingBox bounds = geometry.getBoundingBox();
+        minLat = bounds.minLatitudeE6;
+        minLng = bounds.minLongitudeE6;
+        maxLat = bounds.maxLatitudeE6;
+        maxLng = bounds.maxLongitudeE6;
+
+        final int cellsPerAxis = (int) Math.ceil(Math.sqrt(
+                segmentCount / (double) SEGMENTS_PER_CELL));
+        final int axis = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, cellsPerAxis));
+        columns = maxLng > minLng ? axis : 1;
+        rows = maxLat > minLat ? axis : 1;
+        cellWidth = (maxLng - minLng) / (double) columns;
+        cellHeight = (maxLat - minLat) / (double) rows;
+
+        final int cellCount = columns * rows;
+        cellStart = new int[cellCount + 1];
+        for (int segment = 0; segment < segmentCount; segment++) {
+            forEachCell(segment, cellStart, null);
+        }
+
+        int offset = 0;
+        for (int cell = 0; cell <= cellCount; cell++) {
+            final int count = cell < cellCount ? cellStart[cell] : 0;
+            cellStart[cell] = offset;
+            offset += count;
+        }
+
+        cellSegments = new int[offset];
+        final int[] cursor = Arrays.copyOf(cellStart, cellCount);
+        for (int segment = 0; segment < segmentCount; segment++) {
+            forEachCell(segment, cursor, cellSegments);
+        }
+    }
+
+    /**
+     * Visits every cell covered by the bounds of a segment. Without a target array the visit
+     * only counts; otherwise the segment is written at each cell's cursor.
+     */
+    private void forEachCell(int segment, int[] cursor, int[] target) {
+        final int lng1 = geometry.getLongitudeE6(segment);
+        final int lng2 = geometry.getLongitudeE6(segment + 1);
+        final int lat1 = geometry.getLatitudeE6(segment);
+        final int lat2 = geometry.getLatitudeE6(segment + 1);
+        final int firstColumn = column(Math.min(lng1, lng2));
+        final int lastColumn = column(Math.max(lng1, lng2));
+        final int firstRow = row(Math.min(lat1, lat2));
+        final int lastRow = row(Math.max(lat1, lat2));
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstColumn; c <= lastColumn; c++) {
+                final int cell = r * columns + c;
+                if (target != null) {
+                    target[cursor[cell]] = segment;
+                }
+                cursor[cell]++;
+            }
+        }
+    }
+
+    private int column(int lng) {
+        if (cellWidth == 0) {
+            return 0;
+        }
+        return clamp((int) ((lng - minLng) / cellWidth), columns - 1);
+    }
+
+    private int row(int lat) {
+        if (cellHeight == 0) {
+            return 0;
+        }
+        return clamp((int) ((lat - minLat) / cellHeight), rows - 1);
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+
+    /**
+     * Finds the parts of the route that cross the given bounds.
+     *
+     * @return runs of consecutive points, in route order, covering every segment whose bounds
+     * intersect the box.
+     */
+    public List<SegmentRun> query(BoundingBox box) {
+        return query(box.minLatitudeE6, box.minLongitudeE6,
+                box.maxLatitudeE6, box.maxLongitudeE6);
+    }
+
+    public synchronized List<SegmentRun> query(int south, int west, int north, int east) {
+        final ArrayList<SegmentRun> runs = new ArrayList<SegmentRun>();
+        if (segmentCount == 0 || south > maxLat || north < minLat
+                || west > maxLng || east < minLng) {
+            return runs;
+        }
+
+        queryStamp++;
+        int hitCount = 0;
+        final int lastColumn = column(east);
+        final int lastRow = row(north);
+        for (int r = row(south); r <= lastRow; r++) {
+            for (int c = column(west); c <= lastColumn; c++) {
+                final int cell = r * columns + c;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    final int segment = cellSegments[i];
+                    if (seen[segment] != queryStamp) {
+                        seen[segment] = queryStamp;
+                        if (intersects(segment, south, west, north, east)) {
+                            hits[hitCount++] = segment;
+                        }
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(hits, 0, hitCount);
+        SegmentRun run = null;
+        for (int i = 0; i < hitCount; i++) {
+            final int segment = hits[i];
+            if (run != null && run.end == segment) {
+                run.end = segment + 1;
+            } else {
+                run = new SegmentRun(segment, segment + 1);
+                runs.add(run);
+            }
+        }
+        return runs;
+    }
+
+    private boolean intersects(int segment, int south, int west, int north, int east) {
+        final int lat1 = geometry.getLatitudeE6(segment);
+        final int lat2 = geometry.getLatitudeE6(segment + 1);
+        final int lng1 = geometry.getLongitudeE6(segment);
+        final int lng2 = geometry.getLongitudeE6(segment + 1);
+        return Math.max(lat1, lat2) >= south && Math.min(lat1, lat2) <= north
+                && Math.max(lng1, lng2) >= west && Math.min(lng1, lng2) <= east;
+    }
+
+    public RouteGeometry getGeometry() {
+        return geometry;
+    }
+
+    public int size() {
+        return geometry.size();
+    }
+
+    public GeoPoint getGeoPoint(int index) {
+        return geometry.getGeoPoint(index);
+    }
+
+    /**
+     * Inclusive range of point indexes forming a connected piece of the route.
+     */
+    public static class SegmentRun {
+        private final int start;
+        private int end;
+
+        public SegmentRun(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.mapzen.open.route;
+
+import java.util.List;
+
+/**
+ * Snaps positions to a route polyline. Keeps a cursor on the last matched segment and only
+ * searches a few segments around it, falling back to the segment index when the position is
+ * not near any of them, so a fix costs the same on any length of route.
+ */
+public class RouteSnapper {
+    public static final int WINDOW_BEHIND = 2;
+    public static final int WINDOW_AHEAD = 8;
+    public static final double METERS_PER_DEGREE = 111195;
+
+    private final RouteGeometry geometry;
+    private final RouteSegmentIndex index;
+    private final int lastSegment;
+    private int cursor = 0;
+    private int fallbackCount = 0;
+
+    public RouteSnapper(RouteGeometry geometry) {
+        this(geometry, new RouteSegmentIndex(geometry));
+    }
+
+    public RouteSnapper(RouteGeometry geometry, RouteSegmentIndex index) {
+        this.geometry = geometry;
+        this.index = index;
+        this.lastSegment = geometry.size() - 2;
+    }
+
+    /**
+     * @param maxDistance how far in meters the position may be from the route.
+     * @return closest point on the route, or null if the route is further than maxDistance.
+     */
+    public Snap snap(double lat, double lng, double maxDistance) {
+        return snap(lat, lng, maxDistance, 0);
+    }
+
+    /**
+     * Like {@link #snap(double, double, double)} but ignores segments before firstSegment.
+     */
+    public Snap snap(double lat, double lng, double maxDistance, int firstSegment) {
+        if (lastSegment < 0 || firstSegment > lastSegment) {
+            return null;
+        }
+
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        final int windowStart = Math.max(firstSegment, cursor - WINDOW_BEHIND);
+        final int windowEnd = Math.min(lastSegment, Math.max(cursor, firstSegment) + WINDOW_AHEAD);
+        for (int segment = windowStart; segment <= windowEnd; segment++) {
+            final double distance = geometry.getDistanceToSegment(segment, lat, lng);
+            if (distance < bestDistance) {
+                best = segment;
+                bestDistance = distance;
+            }
+        }
+
+        if (bestDistance > maxDistance) {
+            fallbackCount++;
+            best = -1;
+            bestDistance = Double.MAX_VALUE;
+            final double latSpan = maxDistance / METERS_PER_DEGREE;
+            final double lngSpan = latSpan / Math.max(Math.cos(Math.toRadians(lat)), 0.01);
+            final List<RouteSegmentIndex.SegmentRun> runs = index.query(
+                    toE6(lat - latSpan), toE6(lng - lngSpan),
+                    toE6(lat + latSpan), toE6(lng + lngSpan));
+            for (RouteSegmentIndex.SegmentRun run : runs) {
+                for (int segment = Math.max(firstSegment, run.getStart()); segment < run.getEnd();
+                        segment++) {
+                    final double distance = geometry.getDistanceToSegment(segment, lat, lng);
+                    if (distance < bestDistance) {
+                        best = segment;
+                        bestDistance = distance;
+                    }
+                }
+            }
+        }
+
+        if (best < 0 || bestDistance > maxDistance) {
+            return null;
+        }
+
+        cursor = best;
+        final double fraction = geometry.getFractionAlongSegment(best, lat, lng);
+        final double along = geometry.getDistance(best)
+                + (geometry.getDistance(best + 1) - geometry.getDistance(best)) * fraction;
+        return new Snap(best, fraction, geometry.interpolateLatitude(best, fraction),
+                geometry.interpolateLongitude(best, fraction), along, bestDistance);
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(int cursor) {
+        this.cursor = Math.max(0, Math.min(cursor, Math.max(0, lastSegment)));
+    }
+
+    /**
+     * @return number of snaps that had to search the segment index.
+     */
+    public int getFallbackCount() {
+        return fallbackCount;
+    }
+
+    private static int toE6(double degrees) {
+        return (int) Math.round(degrees * 1e6);
+    }
+
+    /**
+     * Position on the route matched to a fix.
+     */
+    public static class Snap {
+        private final int segment;
+        private final double fraction;
+        private final double latitude;
+        private final double longitude;
+        private final double distanceAlongRoute;
+        private final double distanceFromRoute;
+
+        public Snap(int segment, double fraction, double latitude, double longitude,
+                double distanceAlongRoute, double distanceFromRoute) {
+            this.segment = segment;
+            this.fraction = fraction;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.distanceAlongRoute = distanceAlongRoute;
+            this.distanceFromRoute = distanceFromRoute;
+        }
+
+        public int getSegment() {
+            return segment;
+        }
+
+        public double getFraction() {
+            return fraction;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public double getDistanceAlongRoute() {
+            return distanceAlongRoute;
+        }
+
+        public double getDistanceFromRoute() {
+            return distanceFromRoute;
+        }
+    }
+}
@@ -8,8 +8,6 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.location.Location;
 
-import java.util.UUID;
-
 public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_PROVIDER = "provider";
     public static final String COLUMN_LAT = "lat";
@@ -41,24 +39,44 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_TABLE_ID = "_id";
     public static final String COLUMN_UPLOADED = "uploaded";
     public static final String COLUMN_READY_FOR_UPLOAD = "ready_for_upload";
-    public static final int VERSION = 9;
+    public static final String TABLE_UPLOAD_QUEUE = "upload_queue";
+    public static final String COLUMN_STATE = "state";
+    public static final String COLUMN_ATTEMPTS = "attempts";
+    public static final String COLUMN_NEXT_ATTEMPT = "next_attempt";
+    public static final String COLUMN_LAST_ERROR = "last_error";
+    public static final int VERSION = 11;
+
+    /**
+     * Oldest version {@link #onUpgrade} migrates in place. Older databases are recreated.
+     */
+    public static final int FIRST_MIGRATED_VERSION = 9;
+
+    private static final String LOCATION_COLUMNS = COLUMN_PROVIDER + ", "
+            + COLUMN_LAT + ", " + COLUMN_CORRECTED_LAT + ", " + COLUMN_INSTRUCTION_LAT + ", "
+            + COLUMN_LNG + ", " + COLUMN_CORRECTED_LNG + ", " + COLUMN_INSTRUCTION_LNG + ", "
+            + COLUMN_INSTRUCTION_BEARING + ", " + COLUMN_ALT + ", " + COLUMN_ACC + ", "
+            + COLUMN_TIME + ", " + COLUMN_ROUTE_ID + ", " + COLUMN_SPEED + ", "
+            + COLUMN_BEARING + ", " + COLUMN_DUMP;
+
+    private static final String ROUTE_GEOMETRY_COLUMNS = COLUMN_ROUTE_ID + ", "
+            + COLUMN_POSITION + ", " + COLUMN_LAT + ", " + COLUMN_LNG;
 
     private final String createLocationsSql = "create table " + TABLE_LOCATIONS + " ("
-            + COLUMN_TABLE_ID + " text primary key,"
+            + COLUMN_TABLE_ID + " integer primary key,"
             + COLUMN_PROVIDER + " text not null,"
-            + COLUMN_LAT + " text not null,"
-            + COLUMN_CORRECTED_LAT + " text,"
-            + COLUMN_INSTRUCTION_LAT + " text,"
-            + COLUMN_LNG + " text not null,"
-            + COLUMN_CORRECTED_LNG + " text,"
-            + COLUMN_INSTRUCTION_LNG + " text,"
-            + COLUMN_INSTRUCTION_BEARING + " numberic,"
-            + COLUMN_ALT + " text not null,"
-            + COLUMN_ACC + " integer not null,"
-            + COLUMN_TIME + " numeric not null,"
+            + COLUMN_LAT + " real not null,"
+            + COLUMN_CORRECTED_LAT + " real,"
+            + COLUMN_INSTRUCTION_LAT + " real,"
+            + COLUMN_LNG + " real not null,"
+            + COLUMN_CORRECTED_LNG + " real,"
+            + COLUMN_INSTRUCTION_LNG + " real,"
+            + COLUMN_INSTRUCTION_BEARING + " integer,"
+            + COLUMN_ALT + " real not null,"
+            + COLUMN_ACC + " real not null,"
+            + COLUMN_TIME + " integer not null,"
             + COLUMN_ROUTE_ID + " text not null,"
-            + COLUMN_SPEED + " numeric not null,"
-            + COLUMN_BEARING + " numeric not null,"
+            + COLUMN_SPEED + " real not null,"
+            + COLUMN_BEARING + " real not null,"
             + COLUMN_DUMP + " text not null)";
 
     private final String createRoutesSql = "create table " + TABLE_ROUTES + " ("
@@ -66,16 +84,16 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + COLUMN_RAW + " text not null)";
 
     private final String createLogEntriesSql = "create table " + TABLE_LOG_ENTRIES + " ("
-            + COLUMN_TABLE_ID + " text primary key,"
+            + COLUMN_TABLE_ID + " integer primary key,"
             + COLUMN_TAG + " text not null,"
             + COLUMN_MSG + " text not null)";
 
     private final String createRouteGeometrySql = "create table " + TABLE_ROUTE_GEOMETRY + " ("
-            + COLUMN_TABLE_ID + " text primary key,"
+            + COLUMN_TABLE_ID + " integer primary key,"
             + COLUMN_ROUTE_ID + " text not null,"
             + COLUMN_POSITION + " integer not null,"
-            + COLUMN_LAT + " text not null,"
-            + COLUMN_LNG + " text not null)";
+            + COLUMN_LAT + " real not null,"
+            + COLUMN_LNG + " real not null)";
 
     private final String createGroupsSql = "create table " + TABLE_GROUPS + " ("
             + COLUMN_TABLE_ID + " text not null, "
@@ -89,15 +107,38 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + COLUMN_GROUP_ID + " text not null,"
             + COLUMN_TIME + "datetime default current_timestamp)";
 
+    private final String createUploadQueueSql = "create table " + TABLE_UPLOAD_QUEUE + " ("
+            + COLUMN_GROUP_ID + " text primary key,"
+            + COLUMN_STATE + " integer not null,"
+            + COLUMN_ATTEMPTS + " integer not null default 0,"
+            + COLUMN_NEXT_ATTEMPT + " integer not null default 0,"
+            + COLUMN_LAST_ERROR + " text)";
+
+    private final String createUploadQueueIndexSql = "CREATE INDEX upload_queue_due "
+            + "on " + TABLE_UPLOAD_QUEUE + " (" + COLUMN_STATE + "," + COLUMN_NEXT_ATTEMPT + ");";
+
     private final String createRouteGroupIndexSql = "CREATE UNIQUE INDEX route_id_group_id "
             + "on " + TABLE_ROUTE_GROUP
             + " (" + COLUMN_ROUTE_ID + "," + COLUMN_GROUP_ID + ");";
 
+    private final String createGroupRouteIndexSql = "CREATE INDEX group_id_route_id "
+            + "on " + TABLE_ROUTE_GROUP
+            + " (" + COLUMN_GROUP_ID + "," + COLUMN_ROUTE_ID + ");";
+
     private final String createUniqueLocationIndexSql = "CREATE UNIQUE INDEX unique_location "
             + "on " + TABLE_LOCATIONS
             + " (" + COLUMN_SPEED + "," + COLUMN_LAT + "," + COLUMN_LNG
             + "," + COLUMN_ACC + "," + COLUMN_BEARING + "," + COLUMN_TIME + ");";
 
+    /**
+     * Covers the track and bounds queries of an upload, which select a route's fixes by time,
+     * so they never read the table itself.
+     */
+    private final String createLocationRouteTimeIndexSql = "CREATE INDEX location_route_time "
+            + "on " + TABLE_LOCATIONS
+            + " (" + COLUMN_ROUTE_ID + "," + COLUMN_TIME + "," + COLUMN_LAT + "," + COLUMN_LNG
+            + "," + COLUMN_ALT + "," + COLUMN_SPEED + ");";
+
     private final String createRouteGeometryIndexSql = "CREATE UNIQUE INDEX route_lat_lng "
                 + "on " + TABLE_ROUTE_GEOMETRY
                 + " (" + COLUMN_ROUTE_ID + "," + COLUMN_LAT + ", " + COLUMN_LNG + ");";
@@ -115,7 +156,11 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(createRouteGroupSql);
         db.execSQL(createGroupsSql);
         db.execSQL(createRouteGroupIndexSql);
+        db.execSQL(createGroupRouteIndexSql);
         db.execSQL(createUniqueLocationIndexSql);
+        db.execSQL(createLocationRouteTimeIndexSql);
+        db.execSQL(createUploadQueueSql);
+        db.execSQL(createUploadQueueIndexSql);
     }
 
     @Override
@@ -123,15 +168,91 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         createDatabases(db);
     }
 
+    /**
+     * Runs each migration from the old version up to the new one. Called inside a transaction,
+     * so a failed migration leaves the old schema and its data untouched.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("drop table " + TABLE_LOCATIONS);
-        db.execSQL("drop table " + TABLE_ROUTES);
-        db.execSQL("drop table " + TABLE_LOG_ENTRIES);
-        db.execSQL("drop table " + TABLE_ROUTE_GEOMETRY);
-        db.execSQL("drop table " + TABLE_ROUTE_GROUP);
-        db.execSQL("drop table " + TABLE_GROUPS);
-        createDatabases(db);
+        if (oldVersion < FIRST_MIGRATED_VERSION) {
+            db.execSQL("drop table if exists " + TABLE_LOCATIONS);
+            db.execSQL("drop table if exists " + TABLE_ROUTES);
+            db.execSQL("drop table if exists " + TABLE_LOG_ENTRIES);
+            db.execSQL("drop table if exists " + TABLE_ROUTE_GEOMETRY);
+            db.execSQL("drop table if exists " + TABLE_ROUTE_GROUP);
+            db.execSQL("drop table if exists " + TABLE_GROUPS);
+            db.execSQL("drop table if exists " + TABLE_UPLOAD_QUEUE);
+            createDatabases(db);
+            return;
+        }
+
+        for (int version = oldVersion; version < newVersion; version++) {
+            switch (version) {
+                case 9:
+                    migrateToTypedColumns(db);
+                    break;
+                case 10:
+                    db.execSQL(createUploadQueueSql);
+                    db.execSQL(createUploadQueueIndexSql);
+                    break;
+                default:
+                    throw new IllegalStateException("no migration from version " + version);
+            }
+        }
+    }
+
+    /**
+     * Version 10 stores coordinates and measurements as numbers, gives locations, geometry and
+     * log entries integer row ids and indexes the lookups by route and group. Renaming a table
+     * takes its indexes along under the same names, so those are dropped before the new table
+     * gets its own.
+     */
+    private void migrateToTypedColumns(SQLiteDatabase db) {
+        db.execSQL("alter table " + TABLE_LOCATIONS + " rename to old_" + TABLE_LOCATIONS);
+        db.execSQL("drop index if exists unique_location");
+        db.execSQL(createLocationsSql);
+        db.execSQL(createUniqueLocationIndexSql);
+        db.execSQL("insert or ignore into " + TABLE_LOCATIONS + " (" + LOCATION_COLUMNS + ") "
+                + "select " + COLUMN_PROVIDER + ", "
+                + "cast(" + COLUMN_LAT + " as real), "
+                + "cast(" + COLUMN_CORRECTED_LAT + " as real), "
+                + "cast(" + COLUMN_INSTRUCTION_LAT + " as real), "
+                + "cast(" + COLUMN_LNG + " as real), "
+                + "cast(" + COLUMN_CORRECTED_LNG + " as real), "
+                + "cast(" + COLUMN_INSTRUCTION_LNG + " as real), "
+                + "cast(" + COLUMN_INSTRUCTION_BEARING + " as integer), "
+                + "cast(" + COLUMN_ALT + " as real), "
+                + "cast(" + COLUMN_ACC + " as real), "
+                + "cast(" + COLUMN_TIME + " as integer), "
+                + COLUMN_ROUTE_ID + ", "
+                + "cast(" + COLUMN_SPEED + " as real), "
+                + "cast(" + COLUMN_BEARING + " as real), "
+                + COLUMN_DUMP + " from old_" + TABLE_LOCATIONS
+                + " order by " + COLUMN_TIME);
+        db.execSQL("drop table old_" + TABLE_LOCATIONS);
+        db.execSQL(createLocationRouteTimeIndexSql);
+
+        db.execSQL("alter table " + TABLE_ROUTE_GEOMETRY + " rename to old_"
+                + TABLE_ROUTE_GEOMETRY);
+        db.execSQL("drop index if exists route_lat_lng");
+        db.execSQL(createRouteGeometrySql);
+        db.execSQL(createRouteGeometryIndexSql);
+        db.execSQL("insert or ignore into " + TABLE_ROUTE_GEOMETRY
+                + " (" + ROUTE_GEOMETRY_COLUMNS + ") "
+                + "select " + COLUMN_ROUTE_ID + ", " + COLUMN_POSITION + ", "
+                + "cast(" + COLUMN_LAT + " as real), cast(" + COLUMN_LNG + " as real) "
+                + "from old_" + TABLE_ROUTE_GEOMETRY
+                + " order by " + COLUMN_ROUTE_ID + ", " + COLUMN_POSITION);
+        db.execSQL("drop table old_" + TABLE_ROUTE_GEOMETRY);
+
+        db.execSQL("alter table " + TABLE_LOG_ENTRIES + " rename to old_" + TABLE_LOG_ENTRIES);
+        db.execSQL(createLogEntriesSql);
+        db.execSQL("insert into " + TABLE_LOG_ENTRIES + " (" + COLUMN_TAG + ", " + COLUMN_MSG
+                + ") select " + COLUMN_TAG + ", " + COLUMN_MSG + " from old_"
+                + TABLE_LOG_ENTRIES);
+        db.execSQL("drop table old_" + TABLE_LOG_ENTRIES);
+
+        db.execSQL(createGroupRouteIndexSql);
     }
 
     public static ContentValues valuesForLocationCorrection(Location location,
@@ -153,7 +274,6 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         values.put(COLUMN_INSTRUCTION_LNG, instruction.getLocation().getLongitude());
         values.put(COLUMN_INSTRUCTION_BEARING, instruction.getBearing());
         values.put(COLUMN_ROUTE_ID, routeId);
-        values.put(COLUMN_TABLE_ID, UUID.randomUUID().toString());
         return values;
     }
 }
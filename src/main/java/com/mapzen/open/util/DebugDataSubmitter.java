@@ -8,32 +8,51 @@ import com.google.common.io.CharStreams;
 import com.google.common.io.Files;
 import com.squareup.okhttp.OkHttpClient;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.widget.Toast;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.zip.GZIPOutputStream;
 
 import javax.inject.Inject;
 
+/**
+ * Sends a gzipped copy of the debug database to the given endpoint and then deletes the rows
+ * it contained. The copy is taken after a checkpoint while writers are held off, so it is
+ * consistent, and it is streamed in chunks so the size of the database doesn't matter.
+ */
 public class DebugDataSubmitter implements Runnable {
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    static final String[] EXPORTED_TABLES = {
+            DatabaseHelper.TABLE_ROUTES,
+            DatabaseHelper.TABLE_LOCATIONS,
+            DatabaseHelper.TABLE_ROUTE_GEOMETRY,
+            DatabaseHelper.TABLE_LOG_ENTRIES
+    };
+
     OkHttpClient client = new OkHttpClient();
     BaseActivity activity;
     String endpoint;
     File file;
-    OutputStream out;
-    InputStream in;
+    ProgressListener progressListener;
 
     @Inject SQLiteDatabase db;
 
     public DebugDataSubmitter(BaseActivity activity) {
         this.activity = activity;
         ((MapzenApplication) activity.getApplication()).inject(this);
+        if (db != null) {
+            file = new File(db.getPath());
+        }
     }
 
     public void setEndpoint(String endpoint) {
@@ -48,6 +67,10 @@ public class DebugDataSubmitter implements Runnable {
         this.file = file;
     }
 
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
     public void run() {
         try {
             submit();
@@ -61,14 +84,12 @@ public class DebugDataSubmitter implements Runnable {
     }
 
     private void submit() throws IOException {
+        final long[] lastRowIds = readLastRowIds();
+        checkpoint();
+        final File snapshot = File.createTempFile("debug", ".db", activity.getCacheDir());
         try {
-            URL url = new URL(endpoint);
-            HttpURLConnection connection = client.open(url);
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/octet-stream");
-            out = connection.getOutputStream();
-            out.write(Files.toByteArray(file));
-            out.close();
+            copySnapshot(snapshot);
+            final HttpURLConnection connection = post(snapshot);
             if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
                 activity.runOnUiThread(new Runnable() {
                     @Override
@@ -80,8 +101,14 @@ public class DebugDataSubmitter implements Runnable {
                 throw new IOException("Unexpected HTTP response: "
                         + connection.getResponseCode() + " " + connection.getResponseMessage());
             }
-            final String responseText = readInputStream(connection.getInputStream());
-            truncateDatabase();
+            final InputStream in = connection.getInputStream();
+            final String responseText;
+            try {
+                responseText = readInputStream(in);
+            } finally {
+                in.close();
+            }
+            truncateDatabase(lastRowIds);
             activity.runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
@@ -89,22 +116,120 @@ public class DebugDataSubmitter implements Runnable {
                 }
             });
         } finally {
+            if (!snapshot.delete()) {
+                Logger.e("unable to delete " + snapshot.getName());
+            }
+        }
+    }
+
+    /**
+     * @return the highest row id of each of the {@link #EXPORTED_TABLES}, read before the
+     * checkpoint so every row up to it is in the snapshot.
+     */
+    long[] readLastRowIds() {
+        final long[] lastRowIds = new long[EXPORTED_TABLES.length];
+        for (int i = 0; i < EXPORTED_TABLES.length; i++) {
+            final Cursor cursor = db.rawQuery("select max(rowid) from " + EXPORTED_TABLES[i],
+                    null);
+            try {
+                lastRowIds[i] = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        }
+        return lastRowIds;
+    }
+
+    /**
+     * Moves everything in the write-ahead log into the database file.
+     */
+    private void checkpoint() throws IOException {
+        final Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+        try {
+            if (cursor.moveToFirst() && cursor.getInt(0) != 0) {
+                throw new IOException("Database busy, unable to checkpoint.");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Copies the database file while holding the write lock. Without writers nothing can
+     * checkpoint into the file, so the copy matches one committed state.
+     */
+    private void copySnapshot(File snapshot) throws IOException {
+        db.beginTransaction();
+        try {
+            Files.copy(file, snapshot);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private HttpURLConnection post(File snapshot) throws IOException {
+        final HttpURLConnection connection = client.open(new URL(endpoint));
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(CHUNK_SIZE);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+
+        final long total = snapshot.length();
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        final InputStream in = new FileInputStream(snapshot);
+        OutputStream out = null;
+        try {
+            out = new GZIPOutputStream(connection.getOutputStream(), CHUNK_SIZE);
+            long sent = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                sent += read;
+                if (progressListener != null) {
+                    progressListener.onProgress(sent, total);
+                }
+            }
+        } finally {
+            in.close();
             if (out != null) {
                 out.close();
             }
-            if (in != null) {
-                in.close();
-            }
         }
+        return connection;
     }
 
+    /**
+     * Deletes every row of the exported tables.
+     */
     public void truncateDatabase() {
+        final long[] lastRowIds = new long[EXPORTED_TABLES.length];
+        for (int i = 0; i < lastRowIds.length; i++) {
+            lastRowIds[i] = Long.MAX_VALUE;
+        }
+        truncateDatabase(lastRowIds);
+    }
+
+    /**
+     * Deletes the rows that went into the snapshot, leaving anything recorded since.
+     */
+    void truncateDatabase(long[] lastRowIds) {
         db.beginTransaction();
-        db.delete(DatabaseHelper.TABLE_ROUTES, null, null);
-        db.delete(DatabaseHelper.TABLE_LOCATIONS, null, null);
-        db.delete(DatabaseHelper.TABLE_ROUTE_GEOMETRY, null, null);
-        db.delete(DatabaseHelper.TABLE_LOG_ENTRIES, null, null);
-        db.setTransactionSuccessful();
-        db.endTransaction();
+        try {
+            for (int i = 0; i < EXPORTED_TABLES.length; i++) {
+                db.delete(EXPORTED_TABLES[i], "rowid <= ?",
+                        new String[] { String.valueOf(lastRowIds[i]) });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public interface ProgressListener {
+        /**
+         * Called on the submitting thread as the uncompressed database is sent.
+         */
+        void onProgress(long bytesSent, long totalBytes);
     }
 }
@@ -1,9 +1,11 @@
 package com.mapzen.open.util;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.mapzen.open.route.RouteGeometry;
 
-import android.location.Location;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Reduces the number of points in a shape using the Douglas-Peucker algorithm. <br>
@@ -14,8 +16,15 @@ import android.location.Location;
  * @author M.Kergall
  *
  * Modified by baldur@mapzen.com
+ *
+ * Works on packed E6 coordinates projected to spherical mercator, with an explicit work stack
+ * instead of recursion. Ranges longer than {@link #PARALLEL_THRESHOLD} points can be handed to
+ * an {@link Executor} since the two halves of a split never touch the same points. The caller
+ * works through those ranges too, so an executor whose threads are busy only costs
+ * parallelism.
  */
 public final class DouglasPeuckerReducer {
+    public static final int PARALLEL_THRESHOLD = 10000;
 
     private DouglasPeuckerReducer() {
 
@@ -27,134 +36,257 @@ public final class DouglasPeuckerReducer {
      *
      * @param shape
      *            The shape to reduce
-     * @param tolerance
-     *            The tolerance to decide whether or not to keep a point, in the
-     *            coordinate system of the points (micro-degrees here)
+     * @param toleranceInMeters
+     *            The maximum distance between the reduced and the original shape
      * @return the reduced shape
      */
-    public static List<Location> reduceWithTolerance(List<Location> shape,
-            double tolerance) {
-        int n = shape.size();
-        // if a shape has 2 or less points it cannot be reduced
-        if (tolerance <= 0 || n < 3) {
+    public static RouteGeometry reduceWithTolerance(RouteGeometry shape,
+            double toleranceInMeters) {
+        return reduceWithTolerance(shape, toleranceInMeters, null);
+    }
+
+    /**
+     * Same as {@link #reduceWithTolerance(RouteGeometry, double)} but splits large shapes
+     * across the given executor. Blocks until every range has been reduced.
+     *
+     * @throws java.util.concurrent.CancellationException if the calling thread is interrupted.
+     */
+    public static RouteGeometry reduceWithTolerance(RouteGeometry shape,
+            double toleranceInMeters, Executor executor) {
+        if (toleranceInMeters <= 0 || shape.size() < 3) {
             return shape;
         }
 
-        boolean[] marked = new boolean[n]; //vertex indexes to keep will be marked as "true"
-        for (int i = 1; i < n - 1; i++) {
-            marked[i] = false;
-        }
-        // automatically add the first and last point to the returned shape
-        marked[0] = true;
-        marked[n - 1] = true;
-
-        // the first and last points in the original shape are
-        // used as the entry point to the algorithm.
-        douglasPeuckerReduction(
-                shape, // original shape
-                marked, // reduced shape
-                tolerance, // tolerance
-                0, // index of first point
-                n - 1 // index of last point
-        );
-
-        // all done, return the reduced shape
-        ArrayList<Location> newShape = new ArrayList<Location>(n); // the new shape to return
+        final int n = shape.size();
+        final int[] latitudesE6 = new int[n];
+        final int[] longitudesE6 = new int[n];
         for (int i = 0; i < n; i++) {
-            if (marked[i]) {
-                newShape.add(shape.get(i));
-            }
+            latitudesE6[i] = shape.getLatitudeE6(i);
+            longitudesE6[i] = shape.getLongitudeE6(i);
         }
-        return newShape;
+        return shape.subset(mark(latitudesE6, longitudesE6, toleranceInMeters, executor));
     }
 
     /**
-     * Reduce the points in shape between the specified first and last index.
-     * Mark the points to keep in marked[]
+     * Marks the points to keep in a shape given as packed E6 coordinates.
      *
-     * @param shape
-     *            The original shape
-     * @param marked
-     *            The points to keep (marked as true)
-     * @param tolerance
-     *            The tolerance to determine if a point is kept
-     * @param firstIdx
-     *            The index in original shape's point of the starting point for
-     *            this line segment
-     * @param lastIdx
-     *            The index in original shape's point of the ending point for
-     *            this line segment
+     * @return array with the indexes to keep set to true.
+     * @throws CancellationException if the calling thread is interrupted while ranges are
+     * reduced in parallel. The interrupt status is kept.
      */
-    private static void douglasPeuckerReduction(List<Location> shape, boolean[] marked,
-            double tolerance, int firstIdx, int lastIdx) {
-        if (lastIdx <= firstIdx + 1) {
-            // overlapping indexes, just return
-            return;
+    public static boolean[] mark(int[] latitudesE6, int[] longitudesE6,
+            double toleranceInMeters, Executor executor) {
+        final Reduction reduction = new Reduction(latitudesE6, longitudesE6, toleranceInMeters);
+        if (executor == null || latitudesE6.length <= PARALLEL_THRESHOLD) {
+            reduction.reduce(0, latitudesE6.length - 1, null);
+        } else {
+            reduction.reduceInParallel(executor);
         }
+        return reduction.marked;
+    }
 
-        // loop over the points between the first and last points
-        // and find the point that is the farthest away
+    private static final class Reduction {
+        private final double[] x;
+        private final double[] y;
+        private final double[] cosLatitude;
+        private final double tolerance;
+        private final boolean[] marked;
 
-        double maxDistance = 0.0;
-        int indexFarthest = 0;
+        private final Object lock = new Object();
+        private final ArrayDeque<int[]> queue = new ArrayDeque<int[]>();
+        private int pending = 0;
+        private boolean cancelled = false;
+        private RuntimeException failure;
 
-        Location firstPoint = shape.get(firstIdx);
-        Location lastPoint = shape.get(lastIdx);
+        private Reduction(int[] latitudesE6, int[] longitudesE6, double toleranceInMeters) {
+            final int n = latitudesE6.length;
+            x = new double[n];
+            y = new double[n];
+            cosLatitude = new double[n];
+            marked = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                final double lat = Math.toRadians(latitudesE6[i] / 1e6);
+                x[i] = Math.toRadians(longitudesE6[i] / 1e6);
+                y[i] = Math.log(Math.tan(Math.PI / 4 + lat / 2));
+                cosLatitude[i] = Math.cos(lat);
+            }
+            if (n > 0) {
+                marked[0] = true;
+                marked[n - 1] = true;
+            }
+            tolerance = toleranceInMeters / RouteGeometry.EARTH_RADIUS_IN_METERS;
+        }
+
+        /**
+         * Reduces the points between first and last. When an executor is given, sub-ranges
+         * above the parallel threshold are submitted to it instead of being pushed on the
+         * local stack.
+         */
+        private void reduce(int first, int last, Executor executor) {
+            int[] stack = new int[64];
+            int top = 0;
+            stack[top++] = first;
+            stack[top++] = last;
+
+            while (top > 0) {
+                final int lastIdx = stack[--top];
+                final int firstIdx = stack[--top];
+                if (lastIdx <= firstIdx + 1) {
+                    continue;
+                }
 
-        for (int idx = firstIdx + 1; idx < lastIdx; idx++) {
-            Location point = shape.get(idx);
+                final int indexFarthest = farthest(firstIdx, lastIdx);
+                if (indexFarthest < 0) {
+                    continue;
+                }
+                marked[indexFarthest] = true;
 
-            double distance = orthogonalDistance(point, firstPoint, lastPoint);
+                if (stack.length < top + 4) {
+                    final int[] grown = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, grown, 0, top);
+                    stack = grown;
+                }
 
-            // keep the point with the greatest distance
-            if (distance > maxDistance) {
-                maxDistance = distance;
-                indexFarthest = idx;
+                if (executor != null && indexFarthest - firstIdx > PARALLEL_THRESHOLD) {
+                    submit(executor, firstIdx, indexFarthest);
+                } else {
+                    stack[top++] = firstIdx;
+                    stack[top++] = indexFarthest;
+                }
+
+                if (executor != null && lastIdx - indexFarthest > PARALLEL_THRESHOLD) {
+                    submit(executor, indexFarthest, lastIdx);
+                } else {
+                    stack[top++] = indexFarthest;
+                    stack[top++] = lastIdx;
+                }
             }
         }
 
-        if (maxDistance > tolerance) {
-            //The farthest point is outside the tolerance: it is marked and the algorithm continues.
-            marked[indexFarthest] = true;
+        /**
+         * @return index of the point farthest from the line between first and last, or -1 if
+         * every point is within tolerance.
+         */
+        private int farthest(int firstIdx, int lastIdx) {
+            final double startX = x[firstIdx];
+            final double startY = y[firstIdx];
+            final double dx = x[lastIdx] - startX;
+            final double dy = y[lastIdx] - startY;
+            final double lengthSquared = dx * dx + dy * dy;
+
+            // tolerance in mercator units at the latitude of this range
+            final double scale = tolerance / Math.max(cosLatitude[firstIdx], 1e-9);
+            double maxDistanceSquared = scale * scale;
+            int indexFarthest = -1;
 
-            // reduce the shape between the starting point to newly found point
-            douglasPeuckerReduction(shape, marked, tolerance, firstIdx, indexFarthest);
+            for (int idx = firstIdx + 1; idx < lastIdx; idx++) {
+                double px = x[idx] - startX;
+                double py = y[idx] - startY;
+                if (lengthSquared > 0) {
+                    final double t = Math.max(0, Math.min(1,
+                            (px * dx + py * dy) / lengthSquared));
+                    px -= t * dx;
+                    py -= t * dy;
+                }
 
-            // reduce the shape between the newly found point and the finishing point
-            douglasPeuckerReduction(shape, marked, tolerance, indexFarthest, lastIdx);
+                final double distanceSquared = px * px + py * py;
+                if (distanceSquared > maxDistanceSquared) {
+                    maxDistanceSquared = distanceSquared;
+                    indexFarthest = idx;
+                }
+            }
+            return indexFarthest;
         }
-        //else: the farthest point is within the tolerance, the whole segment is discarded.
-    }
 
-    /**
-     * Calculate the orthogonal distance from the line joining the lineStart and
-     * lineEnd points to point
-     *
-     * @param point
-     *            The point the distance is being calculated for
-     * @param lineStart
-     *            The point that starts the line
-     * @param lineEnd
-     *            The point that ends the line
-     * @return The distance in points coordinate system
-     */
-    public static double orthogonalDistance(Location point, Location lineStart, Location lineEnd) {
-        double area = Math.abs(
-                (
-                        1.0 * lineStart.getLatitude() * 1e6 * lineEnd.getLongitude() * 1e6
-                                + 1.0 * lineEnd.getLatitude() * 1e6 * point.getLongitude() * 1e6
-                                + 1.0 * point.getLatitude() * 1e6 * lineStart.getLongitude() * 1e6
-                                - 1.0 * lineEnd.getLatitude() * 1e6 * lineStart.getLongitude() * 1e6
-                                - 1.0 * point.getLatitude() * 1e6 * lineEnd.getLongitude() * 1e6
-                                - 1.0 * lineStart.getLatitude() * 1e6 * point.getLongitude() * 1e6
-                ) / 2.0
-        );
-
-        double bottom = Math.hypot(
-                lineStart.getLatitude() * 1e6 - lineEnd.getLatitude() * 1e6,
-                lineStart.getLongitude() * 1e6 - lineEnd.getLongitude() * 1e6
-        );
-
-        return (area / bottom * 2.0);
+        /**
+         * The calling thread takes queued ranges itself rather than only waiting for the
+         * executor, so it finishes even when the executor's threads are all busy, possibly with
+         * callers like this one. It only waits while other threads hold the last ranges.
+         */
+        private void reduceInParallel(Executor executor) {
+            submit(executor, 0, marked.length - 1);
+            while (true) {
+                if (Thread.interrupted()) {
+                    cancel();
+                }
+                if (runNext(executor)) {
+                    continue;
+                }
+                synchronized (lock) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    if (pending == 0) {
+                        return;
+                    }
+                    if (queue.isEmpty()) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            cancel();
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Stops the helpers from taking more ranges and gives up, since the marks are partial.
+         */
+        private void cancel() {
+            synchronized (lock) {
+                cancelled = true;
+            }
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while reducing");
+        }
+
+        /**
+         * Reduces one queued range, if there is one.
+         *
+         * @return false if the queue was empty.
+         */
+        private boolean runNext(Executor executor) {
+            final int[] range;
+            synchronized (lock) {
+                if (cancelled || queue.isEmpty()) {
+                    return false;
+                }
+                range = queue.pop();
+            }
+
+            try {
+                reduce(range[0], range[1], executor);
+            } catch (RuntimeException e) {
+                synchronized (lock) {
+                    failure = e;
+                }
+            } finally {
+                synchronized (lock) {
+                    pending--;
+                    lock.notifyAll();
+                }
+            }
+            return true;
+        }
+
+        private void submit(final Executor executor, int first, int last) {
+            synchronized (lock) {
+                queue.push(new int[] { first, last });
+                pending++;
+                lock.notifyAll();
+            }
+
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runNext(executor);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the calling thread picks the range up from the queue
+            }
+        }
     }
 }
@@ -0,0 +1,72 @@
+package com.mapzen.open.util;
+
+import android.os.Debug;
+
+/**
+ * Counts objects allocated by custom layer renderers during each frame. Renderers wrap their
+ * render call in {@link #begin(int)} and {@link #end()} with the id of their type; a frame is
+ * complete once any type begins a second time. Counting slows the VM down, so it is only
+ * enabled in debug mode.
+ */
+public final class FrameAllocationCounter {
+    public static final int ROUTE_LINE = 1;
+    public static final int ROUTE_LOCATION_INDICATOR = 1 << 1;
+
+    private static volatile boolean enabled = false;
+    private static volatile int lastFrameAllocations = 0;
+
+    // Render thread only.
+    private static int renderersInFrame = 0;
+    private static int frameAllocations = 0;
+    private static int startCount = 0;
+
+    private FrameAllocationCounter() {
+    }
+
+    public static synchronized void setEnabled(boolean enable) {
+        if (enable == enabled) {
+            return;
+        }
+
+        if (enable) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+        renderersInFrame = 0;
+        frameAllocations = 0;
+        lastFrameAllocations = 0;
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void begin(int rendererId) {
+        if (!enabled) {
+            return;
+        }
+
+        if ((renderersInFrame & rendererId) != 0) {
+            lastFrameAllocations = frameAllocations;
+            frameAllocations = 0;
+            renderersInFrame = 0;
+        }
+        renderersInFrame |= rendererId;
+        startCount = Debug.getThreadAllocCount();
+    }
+
+    public static void end() {
+        if (!enabled) {
+            return;
+        }
+
+        frameAllocations += Debug.getThreadAllocCount() - startCount;
+    }
+
+    public static int getLastFrameAllocations() {
+        return lastFrameAllocations;
+    }
+}
@@ -0,0 +1,79 @@
+package com.mapzen.open.util;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Writes a single track GPX document one point at a time, so encoding a trace never holds more
+ * than the current point in memory.
+ */
+public class GpxWriter implements Closeable {
+    public static final String TRACK_NAME = "Mapzen Route";
+    public static final String DECIMAL_PATTERN = "0.0#########";
+
+    private final Writer writer;
+    private final DateTimeFormatter isoDateParser = ISODateTimeFormat.dateTimeNoMillis();
+    // xsd:decimal has no exponent, which Double.toString uses below 0.001
+    private final DecimalFormat decimalFormat =
+            new DecimalFormat(DECIMAL_PATTERN, new DecimalFormatSymbols(Locale.US));
+    private int pointCount = 0;
+
+    public GpxWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Writes everything up to the opening of the track segment.
+     */
+    public void begin() throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<gpx version=\"1.0\""
+                + " creator=\"mapzen - start where you are http://mapzen.com\""
+                + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+                + " xmlns:schemaLocation=\"http://www.topografix.com/GPX/1/0"
+                + " http://www.topografix.com/GPX/1/0/gpx.xsd\""
+                + " xmlns=\"http://www.topografix.com/GPX/1/0\">\n");
+        writer.write("  <trk>\n");
+        writer.write("    <name>" + TRACK_NAME + "</name>\n");
+        writer.write("    <trkseg>\n");
+    }
+
+    public void addTrackPoint(double lat, double lon, double ele, long time, double speed)
+            throws IOException {
+        writer.write("      <trkpt lat=\"" + decimalFormat.format(lat) + "\" lon=\""
+                + decimalFormat.format(lon) + "\">\n");
+        writer.write("        <ele>" + decimalFormat.format(ele) + "</ele>\n");
+        writer.write("        <time>" + new DateTime(time).toString(isoDateParser)
+                + "</time>\n");
+        writer.write("        <speed>" + decimalFormat.format(speed) + "</speed>\n");
+        writer.write("      </trkpt>\n");
+        pointCount++;
+    }
+
+    /**
+     * Closes the track segment, track and document.
+     */
+    public void end() throws IOException {
+        writer.write("    </trkseg>\n");
+        writer.write("  </trk>\n");
+        writer.write("</gpx>\n");
+        writer.flush();
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
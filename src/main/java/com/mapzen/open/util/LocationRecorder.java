@@ -0,0 +1,189 @@
+package com.mapzen.open.util;
+
+import com.mapzen.osrm.Instruction;
+
+import com.splunk.mint.Mint;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import static com.mapzen.open.util.DatabaseHelper.TABLE_LOCATIONS;
+import static com.mapzen.open.util.DatabaseHelper.valuesForLocationCorrection;
+
+/**
+ * Write-behind store for location fixes recorded while navigating. Fixes are queued in a ring
+ * buffer and inserted on a dedicated writer thread, one transaction per batch, once
+ * {@link #BATCH_SIZE} have queued up or {@link #FLUSH_INTERVAL} has passed. If the writer falls
+ * a whole buffer behind, the oldest fixes are dropped rather than blocking the caller.
+ */
+public class LocationRecorder {
+    public static final int CAPACITY = 256;
+    public static final int BATCH_SIZE = 16;
+    public static final long FLUSH_INTERVAL = 5000;
+
+    private final SQLiteDatabase db;
+    private final Handler handler;
+    private final Fix[] buffer = new Fix[CAPACITY];
+    private int head = 0;
+    private int size = 0;
+    private boolean flushScheduled = false;
+    private int writtenCount = 0;
+    private int batchCount = 0;
+    private int droppedCount = 0;
+
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    public LocationRecorder(SQLiteDatabase db) {
+        this(db, startWriterThread());
+    }
+
+    public LocationRecorder(SQLiteDatabase db, Looper looper) {
+        this.db = db;
+        this.handler = new Handler(looper);
+    }
+
+    private static Looper startWriterThread() {
+        final HandlerThread thread = new HandlerThread(LocationRecorder.class.getSimpleName());
+        thread.start();
+        return thread.getLooper();
+    }
+
+    /**
+     * Queues a fix and returns without touching the database.
+     */
+    public void record(Location location, Location correctedLocation, Instruction instruction,
+            String routeId) {
+        final Fix fix = new Fix(new Location(location), new Location(correctedLocation),
+                instruction, routeId);
+        final boolean full;
+        final boolean schedule;
+        synchronized (this) {
+            if (size == CAPACITY) {
+                head = (head + 1) % CAPACITY;
+                size--;
+                droppedCount++;
+            }
+            buffer[(head + size) % CAPACITY] = fix;
+            size++;
+            full = size >= BATCH_SIZE;
+            schedule = !full && !flushScheduled;
+            flushScheduled = flushScheduled || schedule;
+        }
+
+        if (full) {
+            flush();
+        } else if (schedule) {
+            handler.postDelayed(writeTask, FLUSH_INTERVAL);
+        }
+    }
+
+    /**
+     * Writes everything queued so far on the writer thread.
+     */
+    public void flush() {
+        handler.removeCallbacks(writeTask);
+        handler.post(writeTask);
+    }
+
+    /**
+     * Runs the task on the writer thread once the fixes queued before it have been written.
+     */
+    public void runAfterWrites(Runnable task) {
+        flush();
+        handler.post(task);
+    }
+
+    public synchronized int getQueuedCount() {
+        return size;
+    }
+
+    public synchronized int getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * @return number of transactions committed.
+     */
+    public synchronized int getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return number of fixes dropped because the buffer was full.
+     */
+    public synchronized int getDroppedCount() {
+        return droppedCount;
+    }
+
+    private void write() {
+        final Fix[] batch;
+        synchronized (this) {
+            flushScheduled = false;
+            batch = new Fix[size];
+            for (int i = 0; i < size; i++) {
+                batch[i] = buffer[(head + i) % CAPACITY];
+                buffer[(head + i) % CAPACITY] = null;
+            }
+            head = 0;
+            size = 0;
+        }
+
+        if (batch.length == 0 || db == null) {
+            return;
+        }
+
+        int written = 0;
+        try {
+            db.beginTransaction();
+            try {
+                for (Fix fix : batch) {
+                    if (db.insert(TABLE_LOCATIONS, null, fix.toContentValues()) < 0) {
+                        Logger.e("error inserting into db");
+                    } else {
+                        written++;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (IllegalStateException e) {
+            Mint.logException(e);
+            return;
+        }
+
+        synchronized (this) {
+            writtenCount += written;
+            batchCount++;
+        }
+    }
+
+    private static final class Fix {
+        private final Location location;
+        private final Location correctedLocation;
+        private final Instruction instruction;
+        private final String routeId;
+
+        private Fix(Location location, Location correctedLocation, Instruction instruction,
+                String routeId) {
+            this.location = location;
+            this.correctedLocation = correctedLocation;
+            this.instruction = instruction;
+            this.routeId = routeId;
+        }
+
+        private ContentValues toContentValues() {
+            return valuesForLocationCorrection(location, correctedLocation, instruction,
+                    routeId);
+        }
+    }
+}
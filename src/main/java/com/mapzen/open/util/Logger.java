@@ -6,10 +6,7 @@ import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
-import java.util.UUID;
-
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_MSG;
-import static com.mapzen.open.util.DatabaseHelper.COLUMN_TABLE_ID;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_TAG;
 
 public final class Logger {
@@ -46,11 +43,18 @@ public final class Logger {
         }
 
         if (activity.isInDebugMode()) {
-            ContentValues values = new ContentValues();
-            values.put(COLUMN_TAG, tag);
-            values.put(COLUMN_MSG, msg);
-            values.put(COLUMN_TABLE_ID, UUID.randomUUID().toString());
-            db.insert(DatabaseHelper.TABLE_LOG_ENTRIES, null, values);
+            logToDatabase(db, tag, msg);
         }
     }
+
+    /**
+     * Writes the entry whether or not debug mode is on, for callers without an activity that
+     * have already checked.
+     */
+    public static void logToDatabase(SQLiteDatabase db, String tag, String msg) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TAG, tag);
+        values.put(COLUMN_MSG, msg);
+        db.insert(DatabaseHelper.TABLE_LOG_ENTRIES, null, values);
+    }
 }
@@ -0,0 +1,70 @@
+package com.mapzen.open.util;
+
+/**
+ * Average of the last few values added, kept in a ring buffer with a running sum so adding a
+ * value and reading the average are both constant time.
+ */
+public class RollingAverage {
+    private float[] values;
+    private int head = 0;
+    private int size = 0;
+    private double sum = 0;
+
+    public RollingAverage(int capacity) {
+        values = new float[Math.max(1, capacity)];
+    }
+
+    public void add(float value) {
+        if (size == values.length) {
+            sum -= values[head];
+            values[head] = value;
+            head = (head + 1) % values.length;
+        } else {
+            values[(head + size) % values.length] = value;
+            size++;
+        }
+        sum += value;
+    }
+
+    /**
+     * @return average of the values in the window, or 0 if none were added.
+     */
+    public float getAverage() {
+        return size == 0 ? 0 : (float) (sum / size);
+    }
+
+    public int getCapacity() {
+        return values.length;
+    }
+
+    /**
+     * Resizes the window, keeping the most recent values that still fit.
+     */
+    public void setCapacity(int capacity) {
+        final int length = Math.max(1, capacity);
+        if (length == values.length) {
+            return;
+        }
+
+        final float[] resized = new float[length];
+        final int kept = Math.min(size, length);
+        sum = 0;
+        for (int i = 0; i < kept; i++) {
+            resized[i] = values[(head + size - kept + i) % values.length];
+            sum += resized[i];
+        }
+        values = resized;
+        head = 0;
+        size = kept;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        sum = 0;
+    }
+}
@@ -0,0 +1,297 @@
+package com.mapzen.open.util;
+
+import com.mapzen.open.route.RouteGeometry;
+import com.mapzen.open.route.RouteLevelOfDetail;
+
+import org.oscim.backend.GL20;
+import org.oscim.core.Tile;
+import org.oscim.layers.Layer;
+import org.oscim.map.Map;
+import org.oscim.renderer.GLShader;
+import org.oscim.renderer.GLState;
+import org.oscim.renderer.GLViewport;
+import org.oscim.renderer.LayerRenderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+import static org.oscim.core.MercatorProjection.latitudeToY;
+import static org.oscim.core.MercatorProjection.longitudeToX;
+
+/**
+ * Draws the active route from vertex buffers that are uploaded once per route level. Vertices
+ * are stored in mercator coordinates relative to the start of the route and extruded to the
+ * line width in the vertex shader, so moving the map only changes uniforms. The traveled part
+ * of the route is trimmed by starting the draw further into the same buffer.
+ */
+public class RouteLineLayer extends Layer {
+    public static final float LINE_WIDTH = 8.0f;
+    public static final float MITER_LIMIT = 2.0f;
+    public static final int FLOATS_PER_VERTEX = 4;
+
+    public static final String VERTEX_SHADER = ""
+            + "precision highp float;"
+            + "uniform mat4 u_mvp;"
+            + "uniform float u_width;"
+            + "attribute vec4 a_pos;"
+            + "void main() {"
+            + "  gl_Position = u_mvp * vec4(a_pos.xy + a_pos.zw * u_width, 0.0, 1.0);"
+            + "}";
+
+    public static final String FRAGMENT_SHADER = ""
+            + "precision mediump float;"
+            + "void main() {"
+            + "  gl_FragColor = vec4(0.0, 0.0, 0.0, 1.0);"
+            + "}";
+
+    private volatile RouteLevelOfDetail route;
+    private volatile int traveledIndex = 0;
+    private LayerRenderer renderer;
+
+    public RouteLineLayer(Map map) {
+        super(map);
+    }
+
+    @Override
+    public LayerRenderer getRenderer() {
+        if (renderer == null) {
+            renderer = new RouteLine();
+        }
+        return renderer;
+    }
+
+    public RouteLevelOfDetail getRoute() {
+        return route;
+    }
+
+    public void setRoute(RouteLevelOfDetail route) {
+        this.route = route;
+        this.traveledIndex = 0;
+        mMap.render();
+    }
+
+    public int getTraveledIndex() {
+        return traveledIndex;
+    }
+
+    /**
+     * Hides the route up to the given point of the full resolution geometry.
+     */
+    public void setTraveledIndex(int traveledIndex) {
+        if (traveledIndex != this.traveledIndex) {
+            this.traveledIndex = traveledIndex;
+            mMap.render();
+        }
+    }
+
+    public void clear() {
+        setRoute(null);
+    }
+
+    /**
+     * Builds a triangle strip with two vertices per route point. Each vertex holds its
+     * position relative to the origin followed by the unit extrusion for one side of the
+     * line, lengthened at corners so both edges stay parallel to the segments.
+     */
+    public static float[] buildVertices(RouteGeometry geometry, double originX, double originY) {
+        final int n = geometry.size();
+        final double[] x = new double[n];
+        final double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = longitudeToX(geometry.getLongitude(i)) - originX;
+            y[i] = latitudeToY(geometry.getLatitude(i)) - originY;
+        }
+
+        // direction leaving each point; repeated points keep the previous direction
+        final double[] dirX = new double[n];
+        final double[] dirY = new double[n];
+        for (int i = 0; i < n - 1; i++) {
+            final double dx = x[i + 1] - x[i];
+            final double dy = y[i + 1] - y[i];
+            final double length = Math.sqrt(dx * dx + dy * dy);
+            if (length > 0) {
+                dirX[i] = dx / length;
+                dirY[i] = dy / length;
+            } else if (i > 0) {
+                dirX[i] = dirX[i - 1];
+                dirY[i] = dirY[i - 1];
+            }
+        }
+
+        final float[] vertices = new float[n * 2 * FLOATS_PER_VERTEX];
+        for (int i = 0; i < n; i++) {
+            final int in = i > 0 ? i - 1 : i;
+            final int out = i < n - 1 ? i : i - 1;
+            final double inNormalX = -dirY[in];
+            final double inNormalY = dirX[in];
+            double extrudeX = inNormalX - dirY[out];
+            double extrudeY = inNormalY + dirX[out];
+            final double length = Math.sqrt(extrudeX * extrudeX + extrudeY * extrudeY);
+            if (length < 1e-6) {
+                extrudeX = inNormalX;
+                extrudeY = inNormalY;
+            } else {
+                extrudeX /= length;
+                extrudeY /= length;
+                final double miter = Math.min(MITER_LIMIT,
+                        1 / (extrudeX * inNormalX + extrudeY * inNormalY));
+                extrudeX *= miter;
+                extrudeY *= miter;
+            }
+
+            final int offset = i * 2 * FLOATS_PER_VERTEX;
+            vertices[offset] = (float) x[i];
+            vertices[offset + 1] = (float) y[i];
+            vertices[offset + 2] = (float) extrudeX;
+            vertices[offset + 3] = (float) extrudeY;
+            vertices[offset + 4] = (float) x[i];
+            vertices[offset + 5] = (float) y[i];
+            vertices[offset + 6] = (float) -extrudeX;
+            vertices[offset + 7] = (float) -extrudeY;
+        }
+        return vertices;
+    }
+
+    public class RouteLine extends LayerRenderer {
+        private int shader;
+        private int vertexPosition;
+        private int matrixPosition;
+        private int widthPosition;
+        private boolean initialized;
+
+        private final IntBuffer bufferIds = ByteBuffer.allocateDirect(4)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        private final ArrayList<LineBuffer> buffers = new ArrayList<LineBuffer>();
+        private RouteLevelOfDetail current;
+        private LineBuffer active;
+        private int firstVertex;
+        private double originX;
+        private double originY;
+
+        public RouteLine() {
+            super();
+        }
+
+        @Override
+        public void update(GLViewport v) {
+            if (!initialized) {
+                shader = GLShader.createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+                vertexPosition = GL.glGetAttribLocation(shader, "a_pos");
+                matrixPosition = GL.glGetUniformLocation(shader, "u_mvp");
+                widthPosition = GL.glGetUniformLocation(shader, "u_width");
+                initialized = true;
+            }
+
+            final RouteLevelOfDetail next = route;
+            if (next != current) {
+                releaseBuffers();
+                current = next;
+                if (next != null && next.getFullResolution().size() > 0) {
+                    final RouteGeometry full = next.getFullResolution().getGeometry();
+                    originX = longitudeToX(full.getLongitude(0));
+                    originY = latitudeToY(full.getLatitude(0));
+                }
+            }
+
+            if (!isEnabled() || current == null) {
+                setReady(false);
+                return;
+            }
+
+            final RouteGeometry geometry =
+                    current.peekLevelForZoom(v.pos.getZoomLevel()).getGeometry();
+            if (geometry.size() < 2) {
+                setReady(false);
+                return;
+            }
+
+            final int first = geometry.indexOfSource(traveledIndex);
+            if (geometry.size() - first < 2) {
+                setReady(false);
+                return;
+            }
+
+            active = getBuffer(geometry);
+            firstVertex = first * 2;
+            setReady(true);
+        }
+
+        @Override
+        public void render(GLViewport v) {
+            FrameAllocationCounter.begin(FrameAllocationCounter.ROUTE_LINE);
+            GLState.useProgram(shader);
+            GLState.blend(true);
+            GLState.test(false, false);
+
+            GL.glBindBuffer(GL20.GL_ARRAY_BUFFER, active.id);
+            GLState.enableVertexArrays(vertexPosition, -1);
+            GL.glVertexAttribPointer(vertexPosition, FLOATS_PER_VERTEX, GL20.GL_FLOAT, false,
+                    0, 0);
+
+            double x = originX - v.pos.x;
+            double y = originY - v.pos.y;
+            double tileScale = Tile.SIZE * v.pos.scale;
+
+            v.mvp.setTransScale((float) (x * tileScale), (float) (y * tileScale),
+                    (float) tileScale);
+            v.mvp.multiplyMM(v.viewproj, v.mvp);
+            v.mvp.setAsUniform(matrixPosition);
+            GL.glUniform1f(widthPosition, (float) (LINE_WIDTH / 2 / tileScale));
+
+            GL.glDrawArrays(GL20.GL_TRIANGLE_STRIP, firstVertex, active.vertexCount - firstVertex);
+            GL.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+            FrameAllocationCounter.end();
+        }
+
+        private LineBuffer getBuffer(RouteGeometry geometry) {
+            for (LineBuffer buffer : buffers) {
+                if (buffer.geometry == geometry) {
+                    return buffer;
+                }
+            }
+
+            final float[] vertices = buildVertices(geometry, originX, originY);
+            final FloatBuffer data = ByteBuffer.allocateDirect(vertices.length * 4)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            data.put(vertices);
+            data.flip();
+
+            bufferIds.clear();
+            GL.glGenBuffers(1, bufferIds);
+            final LineBuffer buffer = new LineBuffer(geometry, bufferIds.get(0),
+                    vertices.length / FLOATS_PER_VERTEX);
+            GL.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffer.id);
+            GL.glBufferData(GL20.GL_ARRAY_BUFFER, vertices.length * 4, data,
+                    GL20.GL_STATIC_DRAW);
+            GL.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+            buffers.add(buffer);
+            return buffer;
+        }
+
+        private void releaseBuffers() {
+            for (LineBuffer buffer : buffers) {
+                bufferIds.clear();
+                bufferIds.put(buffer.id);
+                bufferIds.flip();
+                GL.glDeleteBuffers(1, bufferIds);
+            }
+            buffers.clear();
+            active = null;
+        }
+    }
+
+    private static final class LineBuffer {
+        private final RouteGeometry geometry;
+        private final int id;
+        private final int vertexCount;
+
+        private LineBuffer(RouteGeometry geometry, int id, int vertexCount) {
+            this.geometry = geometry;
+            this.id = id;
+            this.vertexCount = vertexCount;
+        }
+    }
+}
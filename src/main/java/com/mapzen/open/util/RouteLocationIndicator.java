@@ -51,6 +51,27 @@ public class RouteLocationIndicator extends Layer {
             + "  gl_FragColor = vec4(0.828125, 0.390625, 0.359375, 1.0);"
             + "}";
 
+    private static final float[] VERTICES_DATA = {
+            -0.4f, 0.0f, 0.0f,
+            -0.9f, 0.7f, 0.0f,
+            1.0f, 0.0f, 0.0f,
+            -0.9f, -0.7f, 0.0f,
+    };
+
+    /**
+     * Arrow outline shared by every indicator. Built once since the shape never changes and
+     * the scale and rotation are applied in the vertex shader.
+     */
+    private static final FloatBuffer VERTICES = ByteBuffer
+            .allocateDirect(VERTICES_DATA.length * 4)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+
+    static {
+        VERTICES.put(VERTICES_DATA);
+        VERTICES.flip();
+    }
+
     public RouteLocationIndicator(Map map) {
         super(map);
     }
@@ -150,28 +171,13 @@ public class RouteLocationIndicator extends Layer {
 
         @Override
         public void render(GLViewport v) {
+            FrameAllocationCounter.begin(FrameAllocationCounter.ROUTE_LOCATION_INDICATOR);
             GLState.useProgram(shader);
             GLState.blend(true);
             GLState.test(false, false);
 
             GL.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
-
-            FloatBuffer mVertices;
-            final float[] mVerticesData = {
-                    -0.4f, 0.0f, 0.0f,
-                    -0.9f, 0.7f, 0.0f,
-                    1.0f, 0.0f, 0.0f,
-                    -0.9f, -0.7f, 0.0f,
-            };
-
-            mVertices = ByteBuffer.allocateDirect(mVerticesData.length * 4)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
-
-            mVertices.clear();
-            mVertices.put(mVerticesData);
-            mVertices.flip();
-
-            GL.glVertexAttribPointer(vertexPosition, 3, GL20.GL_FLOAT, false, 0, mVertices);
+            GL.glVertexAttribPointer(vertexPosition, 3, GL20.GL_FLOAT, false, 0, VERTICES);
 
             GLState.enableVertexArrays(vertexPosition, -1);
             GL.glUniform1f(rotation, degrees);
@@ -196,6 +202,7 @@ public class RouteLocationIndicator extends Layer {
             if (visible > 1) {
                 GL.glDrawArrays(GL20.GL_TRIANGLE_FAN, 0, 4);
             }
+            FrameAllocationCounter.end();
         }
     }
 }
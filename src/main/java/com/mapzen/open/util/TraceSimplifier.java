@@ -0,0 +1,121 @@
+package com.mapzen.open.util;
+
+import com.mapzen.open.route.RouteGeometry;
+
+/**
+ * Picks the fixes of a recorded trace worth uploading. A run of repeated fixes, or of fixes that
+ * stay within the stationary radius of where it started (waiting at a light, standing still), is
+ * collapsed to its first and last fix so the dwell time survives. The moving parts in between
+ * are reduced with {@link DouglasPeuckerReducer} so the uploaded line stays within the tolerance
+ * of the recorded one. A radius or tolerance of zero turns that stage off.
+ */
+public final class TraceSimplifier {
+    private final double stationaryRadiusInMeters;
+    private final double toleranceInMeters;
+
+    public TraceSimplifier(double stationaryRadiusInMeters, double toleranceInMeters) {
+        this.stationaryRadiusInMeters = stationaryRadiusInMeters;
+        this.toleranceInMeters = toleranceInMeters;
+    }
+
+    /**
+     * Marks the fixes to keep in a trace given as packed E6 coordinates in time order.
+     *
+     * @return array with the indexes to keep set to true.
+     */
+    public boolean[] mark(int[] latitudesE6, int[] longitudesE6) {
+        final int n = latitudesE6.length;
+        final boolean[] marked = new boolean[n];
+        if (n == 0) {
+            return marked;
+        }
+
+        final int[] candidates = new int[n];
+        final boolean[] pinned = new boolean[n];
+        int count = 0;
+        int anchor = 0;
+        int clusterEnd = 0;
+        candidates[count++] = 0;
+        for (int i = 1; i < n; i++) {
+            final boolean duplicate = latitudesE6[i] == latitudesE6[i - 1]
+                    && longitudesE6[i] == longitudesE6[i - 1];
+            if (duplicate
+                    || distance(latitudesE6, longitudesE6, anchor, i) <= stationaryRadiusInMeters) {
+                clusterEnd = i;
+                continue;
+            }
+            count = closeCluster(candidates, pinned, count, anchor, clusterEnd);
+            candidates[count++] = i;
+            anchor = i;
+            clusterEnd = i;
+        }
+        count = closeCluster(candidates, pinned, count, anchor, clusterEnd);
+        pinned[0] = true;
+        pinned[count - 1] = true;
+
+        if (toleranceInMeters <= 0 || count < 3) {
+            for (int i = 0; i < count; i++) {
+                marked[candidates[i]] = true;
+            }
+            return marked;
+        }
+
+        int first = 0;
+        for (int last = 1; last < count; last++) {
+            if (pinned[last]) {
+                reduce(latitudesE6, longitudesE6, candidates, first, last, marked);
+                first = last;
+            }
+        }
+        return marked;
+    }
+
+    /**
+     * Adds the last fix of a stationary cluster and pins both of its ends, so the line
+     * reduction keeps when the stop began and ended.
+     */
+    private static int closeCluster(int[] candidates, boolean[] pinned, int count, int anchor,
+            int clusterEnd) {
+        if (clusterEnd == anchor) {
+            return count;
+        }
+        pinned[count - 1] = true;
+        pinned[count] = true;
+        candidates[count] = clusterEnd;
+        return count + 1;
+    }
+
+    /**
+     * Runs {@link DouglasPeuckerReducer} over the candidates between two pinned ones.
+     */
+    private void reduce(int[] latitudesE6, int[] longitudesE6, int[] candidates, int first,
+            int last, boolean[] marked) {
+        final int size = last - first + 1;
+        final int[] rangeLatitudesE6 = new int[size];
+        final int[] rangeLongitudesE6 = new int[size];
+        for (int i = 0; i < size; i++) {
+            rangeLatitudesE6[i] = latitudesE6[candidates[first + i]];
+            rangeLongitudesE6[i] = longitudesE6[candidates[first + i]];
+        }
+        final boolean[] kept = DouglasPeuckerReducer.mark(rangeLatitudesE6, rangeLongitudesE6,
+                toleranceInMeters, null);
+        for (int i = 0; i < size; i++) {
+            if (kept[i]) {
+                marked[candidates[first + i]] = true;
+            }
+        }
+    }
+
+    /**
+     * Equirectangular approximation, accurate to well under a meter over the few tens of meters
+     * a stationary radius spans.
+     */
+    private static double distance(int[] latitudesE6, int[] longitudesE6, int from, int to) {
+        final double lat1 = Math.toRadians(latitudesE6[from] / 1e6);
+        final double lat2 = Math.toRadians(latitudesE6[to] / 1e6);
+        final double x = Math.toRadians((longitudesE6[to] - longitudesE6[from]) / 1e6)
+                * Math.cos((lat1 + lat2) / 2);
+        final double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * RouteGeometry.EARTH_RADIUS_IN_METERS;
+    }
+}
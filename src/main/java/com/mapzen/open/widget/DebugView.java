@@ -22,6 +22,7 @@ public class DebugView extends RelativeLayout {
     @InjectView(R.id.current_speed) TextView currentSpeed;
     @InjectView(R.id.average_speed) TextView averageSpeed;
     @InjectView(R.id.snap_coordinates) TextView snapCoordinates;
+    @InjectView(R.id.frame_allocations) TextView frameAllocations;
     @InjectView(R.id.instruction_coordinates) TextView instructionCoordinates;
     @InjectView(R.id.instruction_bearing) TextView instructionBearing;
     @InjectView(R.id.instruction_turn) TextView instructionTurn;
@@ -66,6 +67,10 @@ public class DebugView extends RelativeLayout {
         snapCoordinates.setText(formatCoordinates(location));
     }
 
+    public void setFrameAllocations(int count) {
+        frameAllocations.setText(count + " allocations per frame");
+    }
+
     private String formatCoordinates(Location location) {
         final DecimalFormat df = new DecimalFormat("#.######");
         return df.format(location.getLatitude()) + ", " + df.format(location.getLongitude());
@@ -1,8 +1,11 @@
 package com.mapzen.open;
 
+import com.mapzen.open.route.RouteGeometry;
+import com.mapzen.open.route.RouteLevelOfDetail;
 import com.mapzen.open.support.MapzenTestRunner;
 import com.mapzen.open.support.TestBaseActivity;
 import com.mapzen.open.support.TestHelper;
+import com.mapzen.open.util.RouteLineLayer;
 import com.mapzen.osrm.Instruction;
 
 import org.fest.assertions.data.Offset;
@@ -12,6 +15,7 @@ import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.oscim.core.GeoPoint;
 import org.oscim.core.MapPosition;
+import org.oscim.layers.Layer;
 import org.oscim.map.Animator;
 import org.oscim.map.Map;
 import org.oscim.map.TestMap;
@@ -393,6 +397,33 @@ public class MapControllerTest {
         assertThat(controller.getMap().getMapPosition().getZoomLevel()).isEqualTo(10);
     }
 
+    @Test
+    public void showRoute_shouldAddRouteLineOnce() throws Exception {
+        RouteLevelOfDetail route = getTestRoute();
+        controller.showRoute(route);
+        controller.showRoute(route);
+        int count = 0;
+        for (Layer layer : controller.getMap().layers()) {
+            if (layer instanceof RouteLineLayer) {
+                count++;
+            }
+        }
+        assertThat(count).isEqualTo(1);
+        assertThat(controller.getRouteLine().getRoute()).isSameAs(route);
+    }
+
+    @Test
+    public void clearLines_shouldClearRouteLine() throws Exception {
+        controller.showRoute(getTestRoute());
+        controller.clearLines();
+        assertThat(controller.getRouteLine().getRoute()).isNull();
+    }
+
+    private RouteLevelOfDetail getTestRoute() {
+        return new RouteLevelOfDetail(new RouteGeometry(new int[] { 0, 1000000 },
+                new int[] { 0, 1000000 }));
+    }
+
     private SharedPreferences getSavedMapPrefs() {
         return activity.getSharedPreferences(KEY_STORED_MAPPOSITION, MODE_PRIVATE);
     }
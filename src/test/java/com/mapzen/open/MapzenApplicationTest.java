@@ -8,6 +8,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.Robolectric;
+import org.scribe.model.Token;
 
 import android.app.Activity;
 
@@ -50,4 +51,28 @@ public class MapzenApplicationTest {
         app.onCreate();
         assertThat(app.getOsmOauthService()).isNull();
     }
+
+    @Test
+    public void setAccessToken_shouldKeepTokenInMemory() throws Exception {
+        Token token = new Token("token", "secret");
+        app.setAccessToken(token);
+        assertThat(app.getAccessToken()).isSameAs(token);
+    }
+
+    @Test
+    public void setAccessToken_shouldInvalidatePermissions() throws Exception {
+        app.osmPermissions.setCanWriteGpx(true, 0);
+        app.setAccessToken(new Token("token", "secret"));
+        assertThat(app.osmPermissions.canWriteGpx(0)).isNull();
+    }
+
+    @Test
+    public void clearAccessToken_shouldForgetTokenAndPermissions() throws Exception {
+        app.setAccessToken(new Token("token", "secret"));
+        app.osmPermissions.setCanWriteGpx(true, 0);
+        app.clearAccessToken();
+        assertThat(app.getAccessToken()).isNull();
+        assertThat(app.isLoggedIn()).isFalse();
+        assertThat(app.osmPermissions.canWriteGpx(0)).isNull();
+    }
 }
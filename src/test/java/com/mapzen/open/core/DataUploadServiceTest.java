@@ -1,7 +1,13 @@
 package com.mapzen.open.core;
 
 import com.mapzen.open.MapzenApplication;
+import com.mapzen.open.R;
 import com.mapzen.open.support.MapzenTestRunner;
+import com.mapzen.open.support.TestHelper;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
 
 import org.junit.Before;
 import org.junit.Ignore;
@@ -23,10 +29,14 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.location.Location;
+import android.preference.PreferenceManager;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.zip.GZIPInputStream;
 
 import javax.inject.Inject;
 import javax.xml.parsers.DocumentBuilder;
@@ -40,7 +50,6 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
 import static com.mapzen.open.support.TestHelper.getTestInstruction;
@@ -54,11 +63,13 @@ import static com.mapzen.open.util.DatabaseHelper.COLUMN_TABLE_ID;
 import static com.mapzen.open.util.DatabaseHelper.COLUMN_UPLOADED;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_GROUPS;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_LOCATIONS;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_LOG_ENTRIES;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_ROUTES;
 import static com.mapzen.open.util.DatabaseHelper.TABLE_ROUTE_GROUP;
 import static com.mapzen.open.util.DatabaseHelper.valuesForLocationCorrection;
 import static org.fest.assertions.api.ANDROID.assertThat;
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
@@ -83,6 +94,7 @@ public class DataUploadServiceTest {
         MockitoAnnotations.initMocks(this);
         service = new DataUploadService();
         service.onCreate();
+        service.setUploadExecutor(MoreExecutors.sameThreadExecutor());
         app = (MapzenApplication) Robolectric.application;
         app.inject(this);
     }
@@ -207,8 +219,8 @@ public class DataUploadServiceTest {
         DataUploadService spy = spy(service);
         spy.onStartCommand(null, 0, 0);
         verify(spy).generateGpxXmlFor(expectedGroupId, expectedRouteDescription);
-        verify(spy).getDocument(expectedGroupId);
-        verify(spy).submitCompressedFile(any(ByteArrayOutputStream.class),
+        verify(spy).writeGpxFile(expectedGroupId);
+        verify(spy).submitCompressedFile(any(File.class),
                 eq(expectedGroupId),
                 eq(expectedRouteDescription));
     }
@@ -220,9 +232,9 @@ public class DataUploadServiceTest {
         fillLocationsTable(groupId, routeId, 10, true);
         String anotherRoute = "second-route-id";
         fillLocationsTable(groupId, anotherRoute, 10, true);
+        disableSimplification();
 
-        DOMSource domSource = service.getDocument(groupId);
-        Document document = domSource.getNode().getOwnerDocument();
+        Document document = getGpxDocument(groupId);
         XPathFactory xpf = XPathFactory.newInstance();
         XPath xp = xpf.newXPath();
 
@@ -256,7 +268,7 @@ public class DataUploadServiceTest {
     }
 
     @Test
-    public void shouldNotHaveOauthPermissions_shouldNotCreateXML() {
+    public void shouldNotHaveOauthPermissions_shouldNotCreateXML() throws Exception {
         DataUploadService spy = spy(service);
         spy.onStartCommand(null, 0, 0);
         verify(spy).hasWritePermission(service.getPermissionResponse());
@@ -286,7 +298,174 @@ public class DataUploadServiceTest {
         fillLocationsTableAllSamePoint(groupId, routeId, 10);
         DataUploadService spy = spy(service);
         spy.onStartCommand(null, 0, 0);
-        verify(spy, never()).submitTrace(anyString(), anyString(), any(byte[].class));
+        verify(spy, never()).submitTrace(anyString(), anyString(), any(File.class));
+    }
+
+    @Test
+    public void onStartCommand_shouldKeepGroupQueuedWhenNotLoggedIn() throws Exception {
+        makeGroup("route-1", 1);
+        service.onStartCommand(null, 0, 0);
+        UploadQueue queue = new UploadQueue(db);
+        assertThat(queue.size()).isEqualTo(1);
+        assertThat(queue.getAttempts("route-1")).isEqualTo(0);
+    }
+
+    @Test
+    public void onStartCommand_shouldScheduleRetryWhenUploadFails() throws Exception {
+        MockWebServer server = startOsmServer(new MockResponse().setResponseCode(500));
+        fillLocationsTable("test-group-id", "test-route-id", 10, true);
+        long start = System.currentTimeMillis();
+        service.onStartCommand(null, 0, 0);
+        server.takeRequest();
+        assertThat(server.takeRequest().getPath()).isEqualTo(OSMApi.CREATE_GPX);
+        server.shutdown();
+
+        UploadQueue queue = new UploadQueue(db);
+        assertThat(queue.getAttempts("test-group-id")).isEqualTo(1);
+        assertThat(queue.getLastError("test-group-id")).contains("500");
+        assertThat(queue.getNextAttempt("test-group-id"))
+                .isGreaterThanOrEqualTo(start + UploadQueue.BASE_BACKOFF / 2);
+        assertGroupCount("test-group-id", 1);
+    }
+
+    @Test
+    public void submitTrace_shouldNotSendIncompleteBody() throws Exception {
+        MockWebServer server = startOsmServer(new MockResponse());
+        File missing = new File(Robolectric.application.getCacheDir(), "missing.gpx.gz");
+        try {
+            service.submitTrace("description", "test-route-id", missing);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertThat(server.getRequestCount()).isEqualTo(0);
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void onStartCommand_shouldNotRetryBeforeBackoff() throws Exception {
+        MockWebServer server = startOsmServer(new MockResponse().setResponseCode(500));
+        fillLocationsTable("test-group-id", "test-route-id", 10, true);
+        service.onStartCommand(null, 0, 0);
+        service.onStartCommand(null, 0, 0);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        server.shutdown();
+    }
+
+    @Test
+    public void onStartCommand_shouldCheckPermissionsOncePerTtl() throws Exception {
+        MockWebServer server = startOsmServer(new MockResponse());
+        service.onStartCommand(null, 0, 0);
+        service.onStartCommand(null, 0, 0);
+        assertThat(server.getRequestCount()).isEqualTo(1);
+        server.shutdown();
+    }
+
+    @Test
+    public void onStartCommand_shouldCheckPermissionsAgainAfterLogin() throws Exception {
+        MockWebServer server = startOsmServer(new MockResponse());
+        service.onStartCommand(null, 0, 0);
+        app.setAccessToken(new Token("other", "user"));
+        service.onStartCommand(null, 0, 0);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        server.shutdown();
+    }
+
+    @Test
+    public void onStartCommand_shouldRemoveGroupAfterUpload() throws Exception {
+        MockWebServer server = startOsmServer(new MockResponse());
+        fillLocationsTable("test-group-id", "test-route-id", 10, true);
+        service.onStartCommand(null, 0, 0);
+        server.shutdown();
+        assertThat(new UploadQueue(db).size()).isEqualTo(0);
+        assertGroupCount("test-group-id", 0);
+    }
+
+    @Test
+    public void onStartCommand_shouldResumeInterruptedUpload() throws Exception {
+        MockWebServer server = startOsmServer(new MockResponse());
+        fillLocationsTable("test-group-id", "test-route-id", 10, true);
+        UploadQueue queue = new UploadQueue(db);
+        queue.sync();
+        queue.takeDue(System.currentTimeMillis(), 1);
+        service.onStartCommand(null, 0, 0);
+        server.shutdown();
+        assertGroupCount("test-group-id", 0);
+    }
+
+    @Test
+    public void writeGpxFile_shouldBeNullWhenLessThan50MetersTraveled() throws Exception {
+        fillLocationsTableAllSamePoint("test-group-id", "test-route-id", 10);
+        assertThat(service.writeGpxFile("test-group-id")).isNull();
+    }
+
+    @Test
+    public void writeGpxFile_shouldBeNullForGroupWithoutLocations() throws Exception {
+        makeGroup("test-group-id", 1);
+        assertThat(service.writeGpxFile("test-group-id")).isNull();
+    }
+
+    @Test
+    public void writeGpxFile_shouldWriteEveryTrackPoint() throws Exception {
+        fillLocationsTable("test-group-id", "test-route-id", 10, true);
+        disableSimplification();
+        Document document = getGpxDocument("test-group-id");
+        XPath xp = XPathFactory.newInstance().newXPath();
+        assertThat(xp.evaluate("//trk/name/text()", document.getDocumentElement()))
+                .isEqualTo("Mapzen Route");
+        assertThat(xp.evaluate("count(//trk/trkseg/trkpt)", document.getDocumentElement()))
+                .isEqualTo("10");
+    }
+
+    @Test
+    public void writeGpxFile_shouldCollapseStopAndStraightLine() throws Exception {
+        fillStopThenStraightLine("test-group-id", "test-route-id");
+        Document document = getGpxDocument("test-group-id");
+        XPath xp = XPathFactory.newInstance().newXPath();
+        assertThat(xp.evaluate("count(//trk/trkseg/trkpt)", document.getDocumentElement()))
+                .isEqualTo("3");
+    }
+
+    @Test
+    public void writeGpxFile_shouldOnlyCollapseDuplicatesWhenSimplificationDisabled()
+            throws Exception {
+        fillStopThenStraightLine("test-group-id", "test-route-id");
+        disableSimplification();
+        Document document = getGpxDocument("test-group-id");
+        XPath xp = XPathFactory.newInstance().newXPath();
+        assertThat(xp.evaluate("count(//trk/trkseg/trkpt)", document.getDocumentElement()))
+                .isEqualTo("12");
+    }
+
+    @Test
+    public void writeGpxFile_shouldLogReductionInDebugMode() throws Exception {
+        TestHelper.enableDebugMode(app);
+        fillStopThenStraightLine("test-group-id", "test-route-id");
+        service.writeGpxFile("test-group-id").delete();
+        Cursor cursor = db.query(TABLE_LOG_ENTRIES, new String[] { COLUMN_MSG },
+                null, null, null, null, null);
+        assertThat(cursor).hasCount(1);
+        cursor.moveToFirst();
+        assertThat(cursor.getString(0)).startsWith("kept 3 of 20 points (15%)");
+        cursor.close();
+    }
+
+    @Test
+    public void writeGpxFile_shouldNotLogReductionOutsideDebugMode() throws Exception {
+        fillStopThenStraightLine("test-group-id", "test-route-id");
+        service.writeGpxFile("test-group-id").delete();
+        Cursor cursor = db.query(TABLE_LOG_ENTRIES, null, null, null, null, null, null);
+        assertThat(cursor).hasCount(0);
+        cursor.close();
+    }
+
+    @Test
+    public void submitCompressedFile_shouldDeleteFile() throws Exception {
+        Token token = new Token("stuff", "fun");
+        app.setAccessToken(token);
+        fillLocationsTable("test-group-id", "test-route-id", 10, true);
+        File file = service.writeGpxFile("test-group-id");
+        service.submitCompressedFile(file, "test-group-id", "does not matter");
+        assertThat(file).doesNotExist();
     }
 
     private void makeGroup(String groupId, int ready) throws Exception {
@@ -335,6 +514,26 @@ public class DataUploadServiceTest {
         }
     }
 
+    /**
+     * Ten fixes on the same spot followed by ten fixes about 111 meters apart heading north.
+     */
+    private void fillStopThenStraightLine(String groupId, String routeId) throws Exception {
+        fillLocationsTable(groupId, routeId, 0, true);
+        for (int i = 0; i < 20; i++) {
+            double lat = 40.7484 + Math.max(0, i - 9) * 0.001;
+            db.insert(TABLE_LOCATIONS, null, valuesForLocationCorrection(
+                    getTestLocation(lat, -73.9857), getTestLocation(lat, -73.9857),
+                    getTestInstruction(lat, -73.9857), routeId));
+        }
+    }
+
+    private void disableSimplification() {
+        PreferenceManager.getDefaultSharedPreferences(app).edit()
+                .putInt(app.getString(R.string.settings_trace_stationary_radius_key), 0)
+                .putInt(app.getString(R.string.settings_trace_tolerance_key), 0)
+                .commit();
+    }
+
     private void fillLocationsTableAllSamePoint(String groupId, String routeId, double numPoints)
             throws Exception {
         makeGroup(groupId, 1);
@@ -392,10 +591,44 @@ public class DataUploadServiceTest {
         return result.getWriter().toString();
     }
 
-    private String getTextForXpath(String fakeRouteId, String xpath)
-            throws XPathExpressionException {
-        DOMSource domSource = service.getDocument(fakeRouteId);
-        Document document = domSource.getNode().getOwnerDocument();
+    /**
+     * Points the service at a local server that answers the permissions request and then the
+     * given upload response.
+     */
+    private MockWebServer startOsmServer(MockResponse uploadResponse) throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse());
+        server.enqueue(uploadResponse);
+        server.play();
+        service.requestFactory = new OAuthRequestFactory("http://" + server.getHostName() + ":"
+                + server.getPort());
+        app.setOsmOauthService(mock(OAuthService.class));
+        app.setAccessToken(new Token("stuff", "fun"));
+        return server;
+    }
+
+    private void assertGroupCount(String groupId, int count) {
+        Cursor cursor = db.query(TABLE_GROUPS, new String[] { COLUMN_TABLE_ID },
+                COLUMN_TABLE_ID + " = ?", new String[] { groupId }, null, null, null);
+        assertThat(cursor).hasCount(count);
+        cursor.close();
+    }
+
+    private Document getGpxDocument(String groupId) throws Exception {
+        File file = service.writeGpxFile(groupId);
+        InputStream input = new GZIPInputStream(new FileInputStream(file));
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(false);
+            return factory.newDocumentBuilder().parse(input);
+        } finally {
+            input.close();
+            file.delete();
+        }
+    }
+
+    private String getTextForXpath(String fakeRouteId, String xpath) throws Exception {
+        Document document = getGpxDocument(fakeRouteId);
         XPathFactory xpf = XPathFactory.newInstance();
         XPath xp = xpf.newXPath();
         return xp.evaluate(xpath,
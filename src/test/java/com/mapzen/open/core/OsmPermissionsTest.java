@@ -0,0 +1,63 @@
+package com.mapzen.open.core;
+
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class OsmPermissionsTest {
+    private SharedPreferences prefs;
+    private OsmPermissions permissions;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = Robolectric.application.getSharedPreferences("OAUTH", Context.MODE_PRIVATE);
+        permissions = new OsmPermissions(prefs);
+    }
+
+    @Test
+    public void canWriteGpx_shouldBeNullBeforeCheck() throws Exception {
+        assertThat(permissions.canWriteGpx(0)).isNull();
+    }
+
+    @Test
+    public void canWriteGpx_shouldBeCachedWithinTtl() throws Exception {
+        permissions.setCanWriteGpx(true, 1000);
+        assertThat(permissions.canWriteGpx(1000 + OsmPermissions.TTL - 1)).isTrue();
+    }
+
+    @Test
+    public void canWriteGpx_shouldOutliveHourlyUploadRuns() throws Exception {
+        permissions.setCanWriteGpx(true, 1000);
+        assertThat(permissions.canWriteGpx(1000 + 2 * AlarmManager.INTERVAL_HOUR)).isTrue();
+    }
+
+    @Test
+    public void canWriteGpx_shouldExpireAfterTtl() throws Exception {
+        permissions.setCanWriteGpx(true, 1000);
+        assertThat(permissions.canWriteGpx(1000 + OsmPermissions.TTL)).isNull();
+    }
+
+    @Test
+    public void invalidate_shouldForgetAnswer() throws Exception {
+        permissions.setCanWriteGpx(false, 1000);
+        permissions.invalidate();
+        assertThat(permissions.canWriteGpx(1000)).isNull();
+    }
+
+    @Test
+    public void canWriteGpx_shouldSurviveNewInstance() throws Exception {
+        permissions.setCanWriteGpx(true, 1000);
+        assertThat(new OsmPermissions(prefs).canWriteGpx(1000 + AlarmManager.INTERVAL_HOUR))
+                .isTrue();
+    }
+}
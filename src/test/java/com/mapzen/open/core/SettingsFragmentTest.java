@@ -238,6 +238,20 @@ public class SettingsFragmentTest {
                 R.string.settings_number_of_locations_for_average_speed_key)).hasSummary("1");
     }
 
+    @Test
+    public void shouldHaveTraceCategory() throws Exception {
+        PreferenceCategory category = findCategoryByIndex(3);
+        assertThat(category).hasTitle(R.string.settings_trace_title);
+        assertThat(category).hasPreferenceCount(2);
+    }
+
+    @Test
+    public void shouldDisplayDefaultTraceValuesAsSummary() throws Exception {
+        assertThat(findPreferenceById(R.string.settings_trace_stationary_radius_key))
+                .hasSummary("10");
+        assertThat(findPreferenceById(R.string.settings_trace_tolerance_key)).hasSummary("5");
+    }
+
     @Test
     public void shouldInitDefaultValues() throws Exception {
         assertValue(R.string.settings_zoom_walking_key, 19);
@@ -248,6 +262,8 @@ public class SettingsFragmentTest {
         assertValue(R.string.settings_zoom_driving_35to50_key, 16);
         assertValue(R.string.settings_zoom_driving_over50_key, 15);
         assertValue(R.string.settings_number_of_locations_for_average_speed_key, 3);
+        assertValue(R.string.settings_trace_stationary_radius_key, 10);
+        assertValue(R.string.settings_trace_tolerance_key, 5);
     }
 
     private void assertValue(int id, int value) {
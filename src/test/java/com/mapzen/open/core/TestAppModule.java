@@ -18,13 +18,14 @@ import com.mapzen.open.fragment.MapFragment;
 import com.mapzen.open.fragment.MapFragmentTest;
 import com.mapzen.open.login.LoginActivity;
 import com.mapzen.open.login.LoginActivityTest;
-import com.mapzen.open.route.DrawPathTask;
-import com.mapzen.open.route.DrawPathTaskTest;
+import com.mapzen.open.route.RouteCache;
 import com.mapzen.open.route.RouteFragment;
 import com.mapzen.open.route.RouteFragmentTest;
 import com.mapzen.open.route.RouteLocationIndicatorFactory;
+import com.mapzen.open.route.RouteModePrefetcher;
 import com.mapzen.open.route.RoutePreviewFragment;
 import com.mapzen.open.route.RoutePreviewFragmentTest;
+import com.mapzen.open.route.RouteRequestCoordinator;
 import com.mapzen.open.search.AutoCompleteAdapter;
 import com.mapzen.open.search.AutoCompleteAdapterTest;
 import com.mapzen.open.search.PagerResultsFragment;
@@ -34,6 +35,7 @@ import com.mapzen.open.support.TestRouteLocationIndicatorFactory;
 import com.mapzen.open.util.DatabaseHelper;
 import com.mapzen.open.util.DebugDataSubmitter;
 import com.mapzen.open.util.DebugDataSubmitterTest;
+import com.mapzen.open.util.LocationRecorder;
 import com.mapzen.open.util.Logger;
 import com.mapzen.open.util.LoggerTest;
 import com.mapzen.open.util.SimpleCrypt;
@@ -46,6 +48,7 @@ import org.mockito.Mockito;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Typeface;
+import android.os.Looper;
 
 import javax.inject.Singleton;
 
@@ -83,8 +86,6 @@ import static org.mockito.Mockito.when;
                 MapzenLocationTest.class,
                 MapController.class,
                 MapControllerTest.class,
-                DrawPathTask.class,
-                DrawPathTaskTest.class,
                 MapzenLocation.Listener.class,
                 PagerResultsFragment.class,
                 PagerResultsFragmentTest.class,
@@ -119,6 +120,31 @@ public class TestAppModule {
         return router;
     }
 
+    @Provides @Singleton RouteCache provideRouteCache() {
+        return new RouteCache(null);
+    }
+
+    @Provides @Singleton RouteRequestCoordinator provideRouteRequestCoordinator(Router router,
+            RouteCache routeCache) {
+        return new RouteRequestCoordinator(router, routeCache);
+    }
+
+    @Provides @Singleton RouteModePrefetcher provideRouteModePrefetcher(
+            RouteRequestCoordinator routeRequestCoordinator) {
+        return new RouteModePrefetcher(new RouteModePrefetcher.RouterFactory() {
+            @Override
+            public Router newRouter() {
+                Router router = Mockito.spy(getRouter());
+                doNothing().when(router).fetch();
+                return router;
+            }
+        }, routeRequestCoordinator);
+    }
+
+    @Provides @Singleton OsmPermissions provideOsmPermissions() {
+        return new OsmPermissions(context.getSharedPreferences("OAUTH", Context.MODE_PRIVATE));
+    }
+
     @Provides OAuthRequestFactory provideOAuthRequestFactory() {
         return new TestOAuthRequestFactory();
     }
@@ -161,6 +187,10 @@ public class TestAppModule {
         return db;
     }
 
+    @Provides @Singleton LocationRecorder provideLocationRecorder(SQLiteDatabase db) {
+        return new LocationRecorder(db, Looper.getMainLooper());
+    }
+
     @Provides @Singleton RouteLocationIndicatorFactory provideRouteLocationIndicatorFactory() {
         return new TestRouteLocationIndicatorFactory();
     }
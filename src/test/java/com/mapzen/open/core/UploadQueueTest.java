@@ -0,0 +1,135 @@
+package com.mapzen.open.core;
+
+import com.mapzen.open.support.MapzenTestRunner;
+import com.mapzen.open.util.DatabaseHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_MSG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_READY_FOR_UPLOAD;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_TABLE_ID;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_UPLOADED;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_GROUPS;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class UploadQueueTest {
+    private SQLiteDatabase db;
+    private UploadQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new DatabaseHelper(Robolectric.application).getWritableDatabase();
+        queue = new UploadQueue(db, new Random(0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    @Test
+    public void sync_shouldQueueReadyGroupsOnly() throws Exception {
+        makeGroup("ready", 1, false);
+        makeGroup("not-ready", 0, false);
+        makeGroup("uploaded", 1, true);
+        queue.sync();
+        assertThat(queue.size()).isEqualTo(1);
+        assertThat(queue.takeDue(0, 10).get(0).getGroupId()).isEqualTo("ready");
+    }
+
+    @Test
+    public void sync_shouldBeIdempotent() throws Exception {
+        makeGroup("ready", 1, false);
+        queue.sync();
+        queue.sync();
+        assertThat(queue.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void sync_shouldDropEntriesWithoutGroup() throws Exception {
+        makeGroup("ready", 1, false);
+        queue.sync();
+        db.delete(TABLE_GROUPS, null, null);
+        queue.sync();
+        assertThat(queue.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void sync_shouldReleaseInterruptedUploads() throws Exception {
+        makeGroup("ready", 1, false);
+        queue.sync();
+        queue.takeDue(0, 10);
+        assertThat(queue.takeDue(0, 10)).isEmpty();
+        queue.sync();
+        assertThat(queue.takeDue(0, 10)).hasSize(1);
+    }
+
+    @Test
+    public void takeDue_shouldReturnAtMostLimit() throws Exception {
+        makeGroup("first", 1, false);
+        makeGroup("second", 1, false);
+        makeGroup("third", 1, false);
+        queue.sync();
+        List<UploadQueue.Entry> due = queue.takeDue(0, 2);
+        assertThat(due).hasSize(2);
+        assertThat(due.get(0).getDescription()).isEqualTo("description");
+    }
+
+    @Test
+    public void retryLater_shouldCountAttemptAndDelay() throws Exception {
+        makeGroup("ready", 1, false);
+        queue.sync();
+        queue.takeDue(1000, 10);
+        queue.retryLater("ready", "HTTP 500", 1000);
+        assertThat(queue.getAttempts("ready")).isEqualTo(1);
+        assertThat(queue.getLastError("ready")).isEqualTo("HTTP 500");
+        assertThat(queue.takeDue(1000, 10)).isEmpty();
+        assertThat(queue.takeDue(1000 + UploadQueue.BASE_BACKOFF, 10)).hasSize(1);
+    }
+
+    @Test
+    public void release_shouldNotCountAttempt() throws Exception {
+        makeGroup("ready", 1, false);
+        queue.sync();
+        queue.takeDue(0, 10);
+        queue.release("ready");
+        assertThat(queue.getAttempts("ready")).isEqualTo(0);
+        assertThat(queue.takeDue(0, 10)).hasSize(1);
+    }
+
+    @Test
+    public void getBackoff_shouldDoubleWithJitter() throws Exception {
+        for (int attempts = 1; attempts <= 4; attempts++) {
+            long delay = UploadQueue.BASE_BACKOFF << (attempts - 1);
+            assertThat(queue.getBackoff(attempts)).isGreaterThanOrEqualTo(delay / 2);
+            assertThat(queue.getBackoff(attempts)).isLessThanOrEqualTo(delay);
+        }
+    }
+
+    @Test
+    public void getBackoff_shouldBeCapped() throws Exception {
+        assertThat(queue.getBackoff(100)).isLessThanOrEqualTo(UploadQueue.MAX_BACKOFF);
+    }
+
+    private void makeGroup(String groupId, int ready, boolean uploaded) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TABLE_ID, groupId);
+        values.put(COLUMN_MSG, "description");
+        values.put(COLUMN_READY_FOR_UPLOAD, ready);
+        if (uploaded) {
+            values.put(COLUMN_UPLOADED, 1);
+        }
+        db.insert(TABLE_GROUPS, null, values);
+    }
+}
@@ -0,0 +1,36 @@
+package com.mapzen.open.location;
+
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.location.Location;
+
+import static com.mapzen.open.support.TestHelper.getTestLocation;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class AccuracyFilterTest {
+    private AccuracyFilter filter = new AccuracyFilter(50);
+
+    @Test
+    public void shouldPassAccurateFix() throws Exception {
+        Location location = getTestLocation(40.0, -73.0);
+        location.setAccuracy(10);
+        assertThat(filter.filter(location)).isSameAs(location);
+    }
+
+    @Test
+    public void shouldDropInaccurateFix() throws Exception {
+        Location location = getTestLocation(40.0, -73.0);
+        location.setAccuracy(100);
+        assertThat(filter.filter(location)).isNull();
+    }
+
+    @Test
+    public void shouldPassFixWithoutAccuracy() throws Exception {
+        Location location = getTestLocation(40.0, -73.0);
+        assertThat(filter.filter(location)).isSameAs(location);
+    }
+}
@@ -0,0 +1,37 @@
+package com.mapzen.open.location;
+
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.location.Location;
+
+import static com.mapzen.open.support.TestHelper.getTestLocation;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class DuplicateFilterTest {
+    private DuplicateFilter filter = new DuplicateFilter();
+
+    @Test
+    public void shouldDropRepeatedTimestamp() throws Exception {
+        assertThat(filter.filter(getTestLocation("test", 40f, -73f, 1000))).isNotNull();
+        assertThat(filter.filter(getTestLocation("test", 40f, -73f, 1000))).isNull();
+        assertThat(filter.filter(getTestLocation("test", 40f, -73f, 2000))).isNotNull();
+    }
+
+    @Test
+    public void shouldPassFixesWithoutTimestamp() throws Exception {
+        Location location = getTestLocation(40.0, -73.0);
+        assertThat(filter.filter(location)).isSameAs(location);
+        assertThat(filter.filter(location)).isSameAs(location);
+    }
+
+    @Test
+    public void reset_shouldForgetLastFix() throws Exception {
+        filter.filter(getTestLocation("test", 40f, -73f, 1000));
+        filter.reset();
+        assertThat(filter.filter(getTestLocation("test", 40f, -73f, 1000))).isNotNull();
+    }
+}
@@ -0,0 +1,72 @@
+package com.mapzen.open.location;
+
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.fest.assertions.data.Offset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.location.Location;
+
+import static com.mapzen.open.support.TestHelper.getTestLocation;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class KalmanFilterTest {
+    private KalmanFilter filter = new KalmanFilter(3);
+
+    @Test
+    public void shouldPassFirstFix() throws Exception {
+        Location location = getTimedLocation(40.0, -73.0, 1000);
+        assertThat(filter.filter(location)).isSameAs(location);
+    }
+
+    @Test
+    public void shouldPassFixesWithoutTimestamp() throws Exception {
+        filter.filter(getTestLocation(40.0, -73.0));
+        Location location = getTestLocation(40.001, -73.0);
+        assertThat(filter.filter(location)).isSameAs(location);
+    }
+
+    @Test
+    public void shouldPullOutlierTowardsTrack() throws Exception {
+        long time = 1000;
+        for (int i = 0; i < 10; i++) {
+            filter.filter(getTimedLocation(40.0, -73.0, time));
+            time += 1000;
+        }
+        Location smoothed = filter.filter(getTimedLocation(40.0005, -73.0, time));
+        assertThat(smoothed.getLatitude()).isGreaterThan(40.0);
+        assertThat(smoothed.getLatitude()).isLessThan(40.0005);
+    }
+
+    @Test
+    public void shouldFollowSteadyMovement() throws Exception {
+        Location smoothed = null;
+        for (int i = 0; i < 60; i++) {
+            // about 11 meters per second to the north
+            smoothed = filter.filter(getTimedLocation(40.0 + i * 0.0001, -73.0, 1000 + i * 1000));
+        }
+        assertThat(smoothed.getLatitude()).isEqualTo(40.0059, Offset.offset(0.00002));
+        assertThat(smoothed.getLongitude()).isEqualTo(-73.0, Offset.offset(1e-9));
+    }
+
+    @Test
+    public void shouldKeepOtherFields() throws Exception {
+        filter.filter(getTimedLocation(40.0, -73.0, 1000));
+        Location location = getTimedLocation(40.0001, -73.0, 2000);
+        location.setSpeed(11);
+        location.setBearing(90);
+        Location smoothed = filter.filter(location);
+        assertThat(smoothed.getSpeed()).isEqualTo(11);
+        assertThat(smoothed.getBearing()).isEqualTo(90);
+        assertThat(smoothed.getTime()).isEqualTo(2000);
+    }
+
+    private static Location getTimedLocation(double lat, double lng, long time) {
+        Location location = getTestLocation(lat, lng);
+        location.setTime(time);
+        location.setAccuracy(10);
+        return location;
+    }
+}
@@ -0,0 +1,66 @@
+package com.mapzen.open.location;
+
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.location.Location;
+
+import static com.mapzen.open.support.TestHelper.getTestLocation;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class LocationFilterPipelineTest {
+    private LocationFilterPipeline pipeline;
+
+    @Before
+    public void setUp() throws Exception {
+        pipeline = new LocationFilterPipeline()
+                .addStage("accuracy", new AccuracyFilter(50))
+                .addStage("duplicate", new DuplicateFilter());
+    }
+
+    @Test
+    public void shouldPassThroughAllStages() throws Exception {
+        Location location = getTestLocation("test", 40f, -73f, 1000);
+        assertThat(pipeline.filter(location)).isSameAs(location);
+        assertThat(pipeline.getReceivedCount(0)).isEqualTo(1);
+        assertThat(pipeline.getReceivedCount(1)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldStopAtFirstDroppingStage() throws Exception {
+        Location location = getTestLocation("test", 40f, -73f, 1000);
+        location.setAccuracy(100);
+        assertThat(pipeline.filter(location)).isNull();
+        assertThat(pipeline.getDroppedCount(0)).isEqualTo(1);
+        assertThat(pipeline.getReceivedCount(1)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldCountDropsPerStage() throws Exception {
+        pipeline.filter(getTestLocation("test", 40f, -73f, 1000));
+        pipeline.filter(getTestLocation("test", 40f, -73f, 1000));
+        assertThat(pipeline.getDroppedCount(0)).isEqualTo(0);
+        assertThat(pipeline.getDroppedCount(1)).isEqualTo(1);
+        assertThat(pipeline.toString()).contains("accuracy=0/2").contains("duplicate=1/2");
+    }
+
+    @Test
+    public void reset_shouldClearCountsAndStages() throws Exception {
+        pipeline.filter(getTestLocation("test", 40f, -73f, 1000));
+        pipeline.reset();
+        assertThat(pipeline.getReceivedCount(0)).isEqualTo(0);
+        assertThat(pipeline.filter(getTestLocation("test", 40f, -73f, 1000))).isNotNull();
+    }
+
+    @Test
+    public void createDefault_shouldHaveAllStages() throws Exception {
+        LocationFilterPipeline defaults = LocationFilterPipeline.createDefault();
+        assertThat(defaults.getStageCount()).isEqualTo(4);
+        assertThat(defaults.getStageName(0)).isEqualTo("accuracy");
+        assertThat(defaults.getStageName(3)).isEqualTo("smoother");
+    }
+}
@@ -0,0 +1,62 @@
+package com.mapzen.open.location;
+
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.location.Location;
+
+import static com.mapzen.open.location.TeleportFilter.MAX_CONSECUTIVE_REJECTIONS;
+import static com.mapzen.open.support.TestHelper.getTestLocation;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class TeleportFilterTest {
+    private TeleportFilter filter = new TeleportFilter(70);
+
+    @Test
+    public void shouldPassBelievableMovement() throws Exception {
+        filter.filter(getTestLocation("test", 40f, -73f, 1000));
+        // about 110 meters in 10 seconds
+        assertThat(filter.filter(getTestLocation("test", 40.001f, -73f, 11000))).isNotNull();
+    }
+
+    @Test
+    public void shouldDropJump() throws Exception {
+        filter.filter(getTestLocation("test", 40f, -73f, 1000));
+        // about 11 kilometers in 1 second
+        assertThat(filter.filter(getTestLocation("test", 40.1f, -73f, 2000))).isNull();
+    }
+
+    @Test
+    public void shouldDropOlderFix() throws Exception {
+        filter.filter(getTestLocation("test", 40f, -73f, 2000));
+        assertThat(filter.filter(getTestLocation("test", 40f, -73f, 1000))).isNull();
+    }
+
+    @Test
+    public void shouldAllowForAccuracy() throws Exception {
+        filter.filter(getTestLocation("test", 40f, -73f, 1000));
+        Location location = getTestLocation("test", 40.001f, -73f, 2000);
+        location.setAccuracy(60);
+        assertThat(filter.filter(location)).isNotNull();
+    }
+
+    @Test
+    public void shouldAcceptJumpAfterRepeatedRejections() throws Exception {
+        filter.filter(getTestLocation("test", 40f, -73f, 1000));
+        for (int i = 0; i < MAX_CONSECUTIVE_REJECTIONS; i++) {
+            assertThat(filter.filter(getTestLocation("test", 40.1f, -73f, 2000 + i))).isNull();
+        }
+        assertThat(filter.filter(getTestLocation("test", 40.1f, -73f, 3000))).isNotNull();
+        assertThat(filter.filter(getTestLocation("test", 40.1f, -73f, 4000))).isNotNull();
+    }
+
+    @Test
+    public void shouldPassFixesWithoutTimestamp() throws Exception {
+        filter.filter(getTestLocation(40.0, -73.0));
+        Location location = getTestLocation(41.0, -73.0);
+        assertThat(filter.filter(location)).isSameAs(location);
+    }
+}
@@ -0,0 +1,63 @@
+package com.mapzen.open.route;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class DeviationTrackerTest {
+    private DeviationTracker tracker = new DeviationTracker();
+
+    @Test
+    public void shouldDetectGrowingDistance() throws Exception {
+        tracker.addSample(12);
+        tracker.addSample(18);
+        assertThat(tracker.isDeviating()).isFalse();
+        tracker.addSample(25);
+        assertThat(tracker.isDeviating()).isTrue();
+    }
+
+    @Test
+    public void shouldIgnoreDistanceBelowThreshold() throws Exception {
+        tracker.addSample(5);
+        tracker.addSample(10);
+        tracker.addSample(15);
+        assertThat(tracker.isDeviating()).isFalse();
+    }
+
+    @Test
+    public void shouldIgnoreDistanceThatIsNotGrowing() throws Exception {
+        tracker.addSample(30);
+        tracker.addSample(35);
+        tracker.addSample(32);
+        assertThat(tracker.isDeviating()).isFalse();
+    }
+
+    @Test
+    public void shouldOnlyUseRecentSamples() throws Exception {
+        tracker.addSample(40);
+        tracker.addSample(10);
+        tracker.addSample(22);
+        tracker.addSample(24);
+        assertThat(tracker.isDeviating()).isFalse();
+        tracker.addSample(26);
+        assertThat(tracker.isDeviating()).isTrue();
+    }
+
+    @Test
+    public void isOnRoute_shouldUseLatestSample() throws Exception {
+        assertThat(tracker.isOnRoute()).isFalse();
+        tracker.addSample(30);
+        assertThat(tracker.isOnRoute()).isFalse();
+        tracker.addSample(3);
+        assertThat(tracker.isOnRoute()).isTrue();
+    }
+
+    @Test
+    public void reset_shouldForgetSamples() throws Exception {
+        tracker.addSample(21);
+        tracker.addSample(22);
+        tracker.reset();
+        tracker.addSample(23);
+        assertThat(tracker.isDeviating()).isFalse();
+    }
+}
@@ -0,0 +1,182 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.support.MapzenTestRunner;
+import com.mapzen.osrm.Route;
+import com.mapzen.osrm.Router;
+
+import org.fest.assertions.data.Offset;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.oscim.core.GeoPoint;
+
+import android.location.Location;
+
+import static com.mapzen.open.support.TestHelper.MOCK_ACE_HOTEL;
+import static com.mapzen.open.support.TestHelper.getTestLocation;
+import static com.mapzen.osrm.Router.Type.DRIVING;
+import static com.mapzen.osrm.Router.getRouter;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MapzenTestRunner.class)
+public class ReroutePrefetcherTest {
+    private static final GeoPoint DESTINATION = new GeoPoint(40.745, -73.988);
+    private static final long NOW = 1000;
+
+    private Router router;
+    private RouteRequestCoordinator coordinator;
+    private ReroutePrefetcher prefetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        router = Mockito.spy(getRouter());
+        doNothing().when(router).fetch();
+        coordinator = new RouteRequestCoordinator(router);
+        prefetcher = new ReroutePrefetcher(coordinator);
+    }
+
+    @Test
+    public void prefetch_shouldFetchOnlyOnce() throws Exception {
+        assertThat(prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING,
+                NOW)).isTrue();
+        assertThat(prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING,
+                NOW)).isFalse();
+        verify(router, times(1)).fetch();
+        assertThat(prefetcher.isPending()).isTrue();
+    }
+
+    @Test
+    public void takeRoute_shouldReturnPrefetchedRouteOnce() throws Exception {
+        Route route = new Route(MOCK_ACE_HOTEL);
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        prefetcher.success(route);
+        assertThat(prefetcher.isPending()).isFalse();
+        assertThat(prefetcher.takeRoute(getTestLocation(40.74, -73.99), NOW)).isSameAs(route);
+        assertThat(prefetcher.takeRoute(getTestLocation(40.74, -73.99), NOW)).isNull();
+        assertThat(prefetcher.getUsedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void takeRoute_shouldRejectStaleRoute() throws Exception {
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        prefetcher.success(new Route(MOCK_ACE_HOTEL));
+        assertThat(prefetcher.takeRoute(getTestLocation(40.74, -73.99),
+                NOW + ReroutePrefetcher.MAX_AGE)).isNull();
+        assertThat(prefetcher.getUsedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void takeRoute_shouldRejectRouteFromElsewhere() throws Exception {
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        prefetcher.success(new Route(MOCK_ACE_HOTEL));
+        assertThat(prefetcher.takeRoute(getTestLocation(40.741, -73.99), NOW)).isNull();
+        assertThat(prefetcher.prefetch(getTestLocation(40.741, -73.99), DESTINATION, DRIVING, NOW))
+                .isTrue();
+    }
+
+    @Test
+    public void refresh_shouldKeepUsableRoute() throws Exception {
+        Route route = new Route(MOCK_ACE_HOTEL);
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        prefetcher.success(route);
+        assertThat(prefetcher.refresh(getTestLocation(40.7401, -73.99), DESTINATION, DRIVING,
+                NOW + 1000)).isFalse();
+        assertThat(prefetcher.takeRoute(getTestLocation(40.7401, -73.99), NOW + 1000))
+                .isSameAs(route);
+        verify(router, times(1)).fetch();
+    }
+
+    @Test
+    public void refresh_shouldFetchAgainFromElsewhere() throws Exception {
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        prefetcher.success(new Route(MOCK_ACE_HOTEL));
+        assertThat(prefetcher.refresh(getTestLocation(40.741, -73.99), DESTINATION, DRIVING,
+                NOW)).isTrue();
+        assertThat(prefetcher.isPending()).isTrue();
+        assertThat(prefetcher.takeRoute(getTestLocation(40.741, -73.99), NOW)).isNull();
+        verify(router, times(2)).fetch();
+    }
+
+    @Test
+    public void refresh_shouldReplaceStalePendingRequest() throws Exception {
+        Route route = new Route(MOCK_ACE_HOTEL);
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        assertThat(prefetcher.refresh(getTestLocation(40.74, -73.99), DESTINATION, DRIVING,
+                NOW + ReroutePrefetcher.MAX_AGE)).isTrue();
+        prefetcher.success(route);
+        assertThat(prefetcher.takeRoute(getTestLocation(40.74, -73.99),
+                NOW + ReroutePrefetcher.MAX_AGE)).isSameAs(route);
+    }
+
+    @Test
+    public void handOver_shouldRejectRequestFromElsewhere() throws Exception {
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        assertThat(prefetcher.handOver(Mockito.mock(Router.Callback.class),
+                getTestLocation(40.741, -73.99), NOW)).isFalse();
+    }
+
+    @Test
+    public void discard_shouldDropPendingResult() throws Exception {
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        prefetcher.discard();
+        prefetcher.success(new Route(MOCK_ACE_HOTEL));
+        assertThat(prefetcher.takeRoute(getTestLocation(40.74, -73.99), NOW)).isNull();
+    }
+
+    @Test
+    public void handOver_shouldForwardPendingResult() throws Exception {
+        Route route = new Route(MOCK_ACE_HOTEL);
+        Router.Callback callback = Mockito.mock(Router.Callback.class);
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        assertThat(prefetcher.handOver(callback, getTestLocation(40.74, -73.99), NOW)).isTrue();
+        prefetcher.success(route);
+        verify(callback).success(route);
+        assertThat(prefetcher.takeRoute(getTestLocation(40.74, -73.99), NOW)).isNull();
+    }
+
+    @Test
+    public void handOver_shouldForwardFailure() throws Exception {
+        Router.Callback callback = Mockito.mock(Router.Callback.class);
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        prefetcher.handOver(callback, getTestLocation(40.74, -73.99), NOW);
+        prefetcher.failure(500);
+        verify(callback).failure(500);
+    }
+
+    @Test
+    public void isPending_shouldBeFalseOnceSuperseded() throws Exception {
+        prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING, NOW);
+        coordinator.fetch(new RouteRequest(new double[] { 40.0, -73.0 },
+                new double[] { 41.0, -73.0 }, null), Mockito.mock(Router.Callback.class));
+        assertThat(prefetcher.isPending()).isFalse();
+        assertThat(prefetcher.prefetch(getTestLocation(40.74, -73.99), DESTINATION, DRIVING,
+                NOW)).isTrue();
+    }
+
+    @Test
+    public void handOver_shouldFailWithoutPendingRequest() throws Exception {
+        assertThat(prefetcher.handOver(Mockito.mock(Router.Callback.class),
+                getTestLocation(40.74, -73.99), NOW)).isFalse();
+    }
+
+    @Test
+    public void project_shouldMoveAheadAtCurrentSpeed() throws Exception {
+        Location location = getTestLocation(40.74, -73.99);
+        location.setSpeed(10);
+        location.setBearing(0);
+        Location projected = ReroutePrefetcher.project(location);
+        assertThat((double) location.distanceTo(projected))
+                .isEqualTo(10 * ReroutePrefetcher.LOOKAHEAD_SECONDS, Offset.offset(1.0));
+        assertThat(projected.getLatitude()).isGreaterThan(location.getLatitude());
+    }
+
+    @Test
+    public void project_shouldKeepStationaryLocation() throws Exception {
+        Location location = getTestLocation(40.74, -73.99);
+        assertThat(ReroutePrefetcher.project(location)).isSameAs(location);
+    }
+}
@@ -0,0 +1,129 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.support.MapzenTestRunner;
+import com.mapzen.osrm.Route;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.Robolectric;
+
+import android.os.Looper;
+
+import java.io.File;
+
+import static com.mapzen.open.support.TestHelper.MOCK_ACE_HOTEL;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MapzenTestRunner.class)
+public class RouteCacheTest {
+    private static final String KEY = "40740,-73991->4074440,-7399040:DRIVING";
+
+    private File directory;
+    private RouteCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(Robolectric.application.getCacheDir(), "routes");
+        cache = newCache(RouteCache.DEFAULT_TIME_TO_LIVE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.clear();
+    }
+
+    @Test
+    public void get_shouldReturnRouteFromMemory() throws Exception {
+        Route route = new Route(MOCK_ACE_HOTEL);
+        cache.put(KEY, route);
+        assertThat(cache.get(KEY)).isSameAs(route);
+        assertThat(cache.getMemoryHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_shouldNotReadDisk() throws Exception {
+        cache.put(KEY, new Route(MOCK_ACE_HOTEL));
+        assertThat(newCache(RouteCache.DEFAULT_TIME_TO_LIVE).get(KEY)).isNull();
+    }
+
+    @Test
+    public void load_shouldReturnRouteFromDisk() throws Exception {
+        Route route = new Route(MOCK_ACE_HOTEL);
+        cache.put(KEY, route);
+        RouteCache restarted = newCache(RouteCache.DEFAULT_TIME_TO_LIVE);
+        RouteCache.LoadListener listener = mock(RouteCache.LoadListener.class);
+        restarted.load(KEY, listener);
+        ArgumentCaptor<Route> cached = ArgumentCaptor.forClass(Route.class);
+        verify(listener).onLoaded(cached.capture());
+        assertThat(cached.getValue().getTotalDistance()).isEqualTo(route.getTotalDistance());
+        assertThat(restarted.getDiskHitCount()).isEqualTo(1);
+        assertThat(restarted.get(KEY)).isSameAs(cached.getValue());
+    }
+
+    @Test
+    public void load_shouldAnswerAsynchronously() throws Exception {
+        cache.put(KEY, new Route(MOCK_ACE_HOTEL));
+        RouteCache restarted = newCache(RouteCache.DEFAULT_TIME_TO_LIVE);
+        RouteCache.LoadListener listener = mock(RouteCache.LoadListener.class);
+        Robolectric.pauseMainLooper();
+        restarted.load(KEY, listener);
+        verify(listener, never()).onLoaded(any(Route.class));
+        Robolectric.unPauseMainLooper();
+        verify(listener).onLoaded(any(Route.class));
+    }
+
+    @Test
+    public void load_shouldMissUnknownKey() throws Exception {
+        RouteCache.LoadListener listener = mock(RouteCache.LoadListener.class);
+        cache.load(KEY, listener);
+        verify(listener).onLoaded(null);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void load_shouldDropExpiredRoute() throws Exception {
+        RouteCache expiring = newCache(-1);
+        expiring.put(KEY, new Route(MOCK_ACE_HOTEL));
+        assertThat(expiring.get(KEY)).isNull();
+        RouteCache.LoadListener listener = mock(RouteCache.LoadListener.class);
+        expiring.load(KEY, listener);
+        verify(listener).onLoaded(null);
+        assertThat(directory.listFiles()).isEmpty();
+    }
+
+    @Test
+    public void put_shouldKeepMemoryOnlyWithoutDirectory() throws Exception {
+        RouteCache memoryOnly = new RouteCache(null);
+        Route route = new Route(MOCK_ACE_HOTEL);
+        memoryOnly.put(KEY, route);
+        assertThat(memoryOnly.get(KEY)).isSameAs(route);
+    }
+
+    @Test
+    public void put_shouldTrimOldestFiles() throws Exception {
+        Route route = new Route(MOCK_ACE_HOTEL);
+        for (int i = 0; i < RouteCache.DISK_ENTRIES + 5; i++) {
+            cache.put(KEY + i, route);
+        }
+        assertThat(directory.listFiles()).hasSize(RouteCache.DISK_ENTRIES);
+    }
+
+    @Test
+    public void clear_shouldRemoveMemoryAndDisk() throws Exception {
+        cache.put(KEY, new Route(MOCK_ACE_HOTEL));
+        cache.clear();
+        assertThat(cache.get(KEY)).isNull();
+        assertThat(directory.listFiles()).isEmpty();
+    }
+
+    private RouteCache newCache(long timeToLive) {
+        return new RouteCache(directory, timeToLive, Looper.getMainLooper());
+    }
+}
@@ -1,5 +1,6 @@
 package com.mapzen.open.route;
 
+import com.mapzen.open.core.MapzenLocation;
 import com.mapzen.open.support.MapzenTestRunner;
 import com.mapzen.osrm.Instruction;
 import com.mapzen.osrm.Route;
@@ -8,6 +9,7 @@ import org.fest.assertions.data.Offset;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 
 import android.location.Location;
 
@@ -46,8 +48,20 @@ public class RouteEngineTest {
     public void onSnapLocation_shouldReturnCorrectedLocation() throws Exception {
         Location location = getTestLocation(40.7444114, -73.9904202);
         routeEngine.onLocationChanged(location);
+        Location expected = new Route(MOCK_ACE_HOTEL).snapToRoute(location);
         assertThat(listener.originalLocation).isEqualsToByComparingFields(location);
-        assertThat(listener.snapLocation).isEqualsToByComparingFields(route.snapToRoute(location));
+        assertThat(listener.snapLocation.getLatitude())
+                .isEqualTo(expected.getLatitude(), Offset.offset(1e-5));
+        assertThat(listener.snapLocation.getLongitude())
+                .isEqualTo(expected.getLongitude(), Offset.offset(1e-5));
+    }
+
+    @Test
+    public void onSnapLocation_shouldNotUseRouteSnapping() throws Exception {
+        Route spy = Mockito.spy(new Route(MOCK_ACE_HOTEL));
+        routeEngine.setRoute(spy);
+        routeEngine.onLocationChanged(getTestLocation(40.7444114, -73.9904202));
+        Mockito.verify(spy, Mockito.never()).snapToRoute(Mockito.any(Location.class));
     }
 
     @Test
@@ -116,8 +130,10 @@ public class RouteEngineTest {
         routeEngine.onLocationChanged(route.getRouteInstructions().get(0).getLocation());
         routeEngine.onLocationChanged(location);
 
-        int expected = route.getDistanceToNextInstruction();
-        assertThat(listener.distanceToNextInstruction).isEqualTo(expected);
+        Location snapLocation = new Route(MOCK_ACE_HOTEL).snapToRoute(location);
+        Location nextInstruction = route.getRouteInstructions().get(1).getLocation();
+        assertThat((double) listener.distanceToNextInstruction)
+                .isEqualTo(snapLocation.distanceTo(nextInstruction), Offset.offset(2.0));
     }
 
     @Test
@@ -127,7 +143,7 @@ public class RouteEngineTest {
         routeEngine.onLocationChanged(instruction.getLocation());
         routeEngine.onLocationChanged(location);
 
-        Location snapLocation = route.snapToRoute(location);
+        Location snapLocation = new Route(MOCK_ACE_HOTEL).snapToRoute(location);
         Location nextInstruction = route.getRouteInstructions().get(1).getLocation();
         int distanceToNextInstruction = (int) snapLocation.distanceTo(nextInstruction);
         int expected = route.getTotalDistance() - instruction.getDistance()
@@ -175,6 +191,141 @@ public class RouteEngineTest {
         assertThat(listener.routeComplete).isFalse();
     }
 
+    @Test
+    public void getSnapIndex_shouldAdvanceAlongRoute() throws Exception {
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(0).getLocation());
+        assertThat(routeEngine.getSnapIndex()).isEqualTo(0);
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(2).getLocation());
+        int index = routeEngine.getSnapIndex();
+        assertThat(index).isGreaterThan(0);
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(1).getLocation());
+        assertThat(routeEngine.getSnapIndex()).isGreaterThanOrEqualTo(index);
+    }
+
+    @Test
+    public void getTraveledDistance_shouldSplitRoute() throws Exception {
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(0).getLocation());
+        routeEngine.onLocationChanged(getTestLocation(40.743810, -73.989053));
+        RouteGeometry geometry = routeEngine.getGeometry();
+        assertThat(routeEngine.getTraveledDistance()).isGreaterThan(0.0);
+        assertThat(routeEngine.getTraveledDistance() + routeEngine.getRemainingDistance())
+                .isEqualTo(geometry.getTotalDistance(), Offset.offset(1e-6));
+        assertThat(routeEngine.getTraveledDistance()).isGreaterThanOrEqualTo(
+                geometry.getDistance(routeEngine.getSnapIndex()));
+    }
+
+    @Test
+    public void setRoute_shouldResetProgress() throws Exception {
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(0).getLocation());
+        routeEngine.onLocationChanged(getTestLocation(40.743810, -73.989053));
+        routeEngine.setRoute(new Route(MOCK_ACE_HOTEL));
+        assertThat(routeEngine.getSnapIndex()).isEqualTo(0);
+        assertThat(routeEngine.getTraveledDistance()).isEqualTo(0.0);
+    }
+
+    @Test
+    public void isLost_shouldBeTrueFarFromRoute() throws Exception {
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(0).getLocation());
+        assertThat(routeEngine.isLost()).isFalse();
+        routeEngine.onLocationChanged(getTestLocation(0, 0));
+        assertThat(routeEngine.isLost()).isTrue();
+    }
+
+    @Test
+    public void getNextInstruction_shouldAdvanceWithLocation() throws Exception {
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(0).getLocation());
+        assertThat(routeEngine.getNextInstruction())
+                .isSameAs(route.getRouteInstructions().get(1));
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(1).getLocation());
+        assertThat(routeEngine.getNextInstruction())
+                .isSameAs(route.getRouteInstructions().get(2));
+    }
+
+    @Test
+    public void getInstructionIndex_shouldMatchPositionInRoute() throws Exception {
+        for (int i = 0; i < route.getRouteInstructions().size(); i++) {
+            assertThat(routeEngine.getInstructionIndex(route.getRouteInstructions().get(i)))
+                    .isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void getInstructionIndex_shouldNotMatchOtherRoute() throws Exception {
+        Instruction other = new Route(MOCK_ACE_HOTEL).getRouteInstructions().get(0);
+        assertThat(routeEngine.getInstructionIndex(other)).isEqualTo(-1);
+    }
+
+    @Test
+    public void getDistanceToDestination_shouldSubtractCompletedLegs() throws Exception {
+        int completed = 0;
+        for (int i = 0; i < 3; i++) {
+            routeEngine.onLocationChanged(route.getRouteInstructions().get(i).getLocation());
+            assertThat((double) routeEngine.getDistanceToDestination())
+                    .isEqualTo(route.getTotalDistance() - completed, Offset.offset(1.0));
+            completed += route.getRouteInstructions().get(i).getDistance();
+        }
+    }
+
+    @Test
+    public void onLocationChanged_shouldWaitToRejoinRoute() throws Exception {
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(0).getLocation());
+        routeEngine.onLocationChanged(getOffRouteLocation(120));
+        assertThat(routeEngine.isRejoining()).isTrue();
+        assertThat(listener.recalculating).isFalse();
+
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(2).getLocation());
+        assertThat(routeEngine.isRejoining()).isFalse();
+        assertThat(routeEngine.isLost()).isFalse();
+        assertThat(routeEngine.getNextInstruction())
+                .isSameAs(route.getRouteInstructions().get(3));
+        assertThat(listener.recalculating).isFalse();
+    }
+
+    @Test
+    public void onLocationChanged_shouldOnlyRejoinAheadOnRoute() throws Exception {
+        routeEngine.setRejoinGrace(10000, RouteEngine.REJOIN_GRACE_TIME);
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(0).getLocation());
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(2).getLocation());
+        routeEngine.onLocationChanged(getOffRouteLocation(120));
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(0).getLocation());
+        assertThat(routeEngine.isRejoining()).isTrue();
+    }
+
+    @Test
+    public void onRecalculate_shouldFireBeyondRejoinDistance() throws Exception {
+        routeEngine.setRejoinGrace(100, RouteEngine.REJOIN_GRACE_TIME);
+        routeEngine.onLocationChanged(route.getRouteInstructions().get(0).getLocation());
+        routeEngine.onLocationChanged(getOffRouteLocation(120));
+        assertThat(routeEngine.isRejoining()).isFalse();
+        assertThat(listener.recalculating).isTrue();
+    }
+
+    @Test
+    public void onRecalculate_shouldFireAfterRejoinTime() throws Exception {
+        Location start = new Location(route.getRouteInstructions().get(0).getLocation());
+        start.setTime(1000);
+        Location offRoute = getOffRouteLocation(120);
+        offRoute.setTime(1000 + RouteEngine.REJOIN_GRACE_TIME / 2);
+        Location stillOffRoute = getOffRouteLocation(130);
+        stillOffRoute.setTime(2000 + RouteEngine.REJOIN_GRACE_TIME);
+
+        routeEngine.onLocationChanged(start);
+        routeEngine.onLocationChanged(offRoute);
+        assertThat(listener.recalculating).isFalse();
+        routeEngine.onLocationChanged(stillOffRoute);
+        assertThat(listener.recalculating).isTrue();
+    }
+
+    /**
+     * @return location the given distance to the side of the start of the route.
+     */
+    private Location getOffRouteLocation(int distance) {
+        Location first = route.getGeometry().get(0);
+        Location second = route.getGeometry().get(1);
+        return MapzenLocation.Util.getDistancePointFromBearing(first, distance,
+                (int) first.bearingTo(second) + 90);
+    }
+
     private static class TestRouteListener implements RouteEngine.RouteListener {
         private Location originalLocation;
         private Location snapLocation;
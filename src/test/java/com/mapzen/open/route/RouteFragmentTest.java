@@ -8,6 +8,7 @@ import com.mapzen.open.MapController;
 import com.mapzen.open.MapzenApplication;
 import com.mapzen.open.R;
 import com.mapzen.open.TestMapzenApplication;
+import com.mapzen.open.core.MapzenLocation;
 import com.mapzen.open.entity.SimpleFeature;
 import com.mapzen.open.fragment.MapFragment;
 import com.mapzen.open.shadows.ShadowMint;
@@ -17,6 +18,8 @@ import com.mapzen.open.support.TestHelper;
 import com.mapzen.open.support.TestHelper.LocationUpdateSubscriber;
 import com.mapzen.open.support.TestHelper.ViewUpdateSubscriber;
 import com.mapzen.open.util.DatabaseHelper;
+import com.mapzen.open.util.FrameAllocationCounter;
+import com.mapzen.open.util.LocationRecorder;
 import com.mapzen.open.util.MapzenNotificationCreator;
 import com.mapzen.open.util.RouteLocationIndicator;
 import com.mapzen.open.widget.DistanceView;
@@ -119,8 +122,11 @@ public class RouteFragmentTest {
     @Inject ZoomController zoomController;
     @Inject MixpanelAPI mixpanelAPI;
     @Inject SQLiteDatabase db;
+    @Inject LocationRecorder locationRecorder;
     @Inject Bus bus;
     @Inject RouteLocationIndicatorFactory routeLocationIndicatorFactory;
+    @Inject RouteRequestCoordinator routeRequestCoordinator;
+    @Inject RouteEngine routeEngine;
 
     private static TestMenu menu = new TestMenu();
     private static TestBaseActivity act = initBaseActivityWithMenu(menu);
@@ -211,12 +217,34 @@ public class RouteFragmentTest {
         TestHelper.startFragment(fragment, act);
         Location expected = fragment.getRoute().getGeometry().get(2);
         fragment.onSnapLocation(expected, fragment.getRoute().snapToRoute(expected));
+        locationRecorder.flush();
         Cursor cursor = db.query(DatabaseHelper.TABLE_LOCATIONS,
                 new String[] { DatabaseHelper.COLUMN_LAT, DatabaseHelper.COLUMN_LNG },
                 null, null, null, null, null);
         cursor.moveToNext();
-        assertThat(cursor.getString(0)).isEqualTo(String.valueOf(expected.getLatitude()));
-        assertThat(cursor.getString(1)).isEqualTo(String.valueOf(expected.getLongitude()));
+        assertThat(cursor.getDouble(0)).isEqualTo(expected.getLatitude());
+        assertThat(cursor.getDouble(1)).isEqualTo(expected.getLongitude());
+    }
+
+    @Test
+    public void onLocationChanged_shouldStoreUnfilteredLocationRecordInDatabase()
+            throws Exception {
+        initTestFragment();
+        TestHelper.startFragment(fragment, act);
+        Location first = new Location(fragment.getRoute().getGeometry().get(1));
+        first.setTime(1000);
+        Location expected = new Location(fragment.getRoute().getGeometry().get(2));
+        expected.setTime(11000);
+        fragment.onLocationChanged(first);
+        fragment.onLocationChanged(expected);
+        locationRecorder.flush();
+        Cursor cursor = db.query(DatabaseHelper.TABLE_LOCATIONS,
+                new String[] { DatabaseHelper.COLUMN_LAT, DatabaseHelper.COLUMN_LNG },
+                null, null, null, null, null);
+        assertThat(cursor).hasCount(2);
+        cursor.moveToLast();
+        assertThat(cursor.getDouble(0)).isEqualTo(expected.getLatitude());
+        assertThat(cursor.getDouble(1)).isEqualTo(expected.getLongitude());
     }
 
     @Test
@@ -225,6 +253,7 @@ public class RouteFragmentTest {
         TestHelper.startFragment(fragment, act);
         Location testLocation = fragment.getRoute().getGeometry().get(2);
         fragment.onSnapLocation(testLocation, fragment.getRoute().snapToRoute(testLocation));
+        locationRecorder.flush();
         Cursor cursor = db.query(DatabaseHelper.TABLE_LOCATIONS,
                 new String[] {
                         DatabaseHelper.COLUMN_CORRECTED_LAT,
@@ -268,6 +297,7 @@ public class RouteFragmentTest {
 
         Location testLocation = getTestLocation(sample2.getLatitude(), sample2.getLongitude());
         fragment.onLocationChanged(testLocation);
+        locationRecorder.flush();
         Cursor cursor = db.query(DatabaseHelper.TABLE_LOCATIONS,
                 new String[] {
                         DatabaseHelper.COLUMN_INSTRUCTION_LAT,
@@ -276,8 +306,8 @@ public class RouteFragmentTest {
                 null, null, null, null, null);
         assertThat(cursor).hasCount(1);
         cursor.moveToNext();
-        assertThat(cursor.getString(0)).isEqualTo(String.valueOf(expected.getLatitude()));
-        assertThat(cursor.getString(1)).isEqualTo(String.valueOf(expected.getLongitude()));
+        assertThat(cursor.getDouble(0)).isEqualTo(expected.getLatitude());
+        assertThat(cursor.getDouble(1)).isEqualTo(expected.getLongitude());
     }
 
     @Test
@@ -311,6 +341,7 @@ public class RouteFragmentTest {
         TestHelper.startFragment(fragment, act);
         Location testLocation = fragment.getRoute().getGeometry().get(2);
         fragment.onLocationChanged(testLocation);
+        locationRecorder.flush();
         Cursor cursor = db.query(DatabaseHelper.TABLE_LOCATIONS,
                 new String[] { DatabaseHelper.COLUMN_INSTRUCTION_BEARING },
                 null, null, null, null, null);
@@ -328,6 +359,7 @@ public class RouteFragmentTest {
         float expectedSpeed = 44.0f;
         testLocation.setSpeed(expectedSpeed);
         fragment.onLocationChanged(testLocation);
+        locationRecorder.flush();
         Cursor cursor = db.query(DatabaseHelper.TABLE_LOCATIONS,
                 new String[] { DatabaseHelper.COLUMN_SPEED },
                 null, null, null, null, null);
@@ -344,6 +376,7 @@ public class RouteFragmentTest {
         float expectedBearing = 44.0f;
         testLocation.setBearing(expectedBearing);
         fragment.onLocationChanged(testLocation);
+        locationRecorder.flush();
         Cursor cursor = db.query(DatabaseHelper.TABLE_LOCATIONS,
                 new String[] { DatabaseHelper.COLUMN_BEARING },
                 null, null, null, null, null);
@@ -363,6 +396,7 @@ public class RouteFragmentTest {
 
         Location testLocation = getTestLocation(20.0, 30.0);
         fragment.onLocationChanged(testLocation);
+        locationRecorder.flush();
         Cursor cursor = db.query(DatabaseHelper.TABLE_LOCATIONS,
                 new String[] { DatabaseHelper.COLUMN_INSTRUCTION_BEARING },
                 null, null, null, null, null);
@@ -375,6 +409,7 @@ public class RouteFragmentTest {
         TestHelper.startFragment(fragment, act);
         Location testLocation = fragment.getRoute().getGeometry().get(2);
         fragment.onLocationChanged(testLocation);
+        locationRecorder.flush();
         Cursor cursor = db.query(DatabaseHelper.TABLE_LOCATIONS,
                 new String[] { COLUMN_ROUTE_ID },
                 COLUMN_ROUTE_ID + " = ?",
@@ -393,6 +428,77 @@ public class RouteFragmentTest {
         assertThat(fragment.getRoute()).isNotSameAs(oldRoute);
     }
 
+    @Test
+    public void onRecalculate_shouldUsePrefetchedRoute() throws Exception {
+        initTestFragment();
+        TestHelper.startFragment(fragment, act);
+
+        Route prefetched = new Route(MOCK_NY_TO_VT);
+        fragment.getReroutePrefetcher().prefetch(getTestLocation(111.0, 111.0),
+                fragment.getDestinationPoint(), fragment.getTransportationMode(),
+                System.currentTimeMillis());
+        fragment.getReroutePrefetcher().success(prefetched);
+        fragment.onRecalculate(getTestLocation(111.0, 111.0));
+        assertThat(fragment.getRoute()).isSameAs(prefetched);
+        verify(router, Mockito.times(1)).fetch();
+    }
+
+    @Test
+    public void onRecalculate_shouldFetchAgainIfPrefetchedRouteIsStale() throws Exception {
+        initTestFragment();
+        TestHelper.startFragment(fragment, act);
+
+        Route prefetched = new Route(MOCK_NY_TO_VT);
+        fragment.getReroutePrefetcher().prefetch(getTestLocation(111.0, 111.0),
+                fragment.getDestinationPoint(), fragment.getTransportationMode(),
+                System.currentTimeMillis() - ReroutePrefetcher.MAX_AGE);
+        fragment.getReroutePrefetcher().success(prefetched);
+        fragment.onRecalculate(getTestLocation(111.0, 111.0));
+        assertThat(fragment.getRoute()).isNotSameAs(prefetched);
+        verify(router, Mockito.times(2)).fetch();
+    }
+
+    @Test
+    public void onRecalculate_shouldWaitForPendingPrefetch() throws Exception {
+        initTestFragment();
+        TestHelper.startFragment(fragment, act);
+
+        Route prefetched = new Route(MOCK_NY_TO_VT);
+        fragment.getReroutePrefetcher().prefetch(getTestLocation(111.0, 111.0),
+                fragment.getDestinationPoint(), fragment.getTransportationMode(),
+                System.currentTimeMillis());
+        fragment.onRecalculate(getTestLocation(111.0, 111.0));
+        fragment.getReroutePrefetcher().success(prefetched);
+        assertThat(fragment.getRoute()).isSameAs(prefetched);
+        verify(router, Mockito.times(1)).fetch();
+    }
+
+    @Test
+    public void onRecalculate_shouldUseRouteRefreshedWhileRejoining() throws Exception {
+        fragment.setRoute(new Route(MOCK_ACE_HOTEL));
+        TestHelper.startFragment(fragment, act);
+
+        fragment.onLocationChanged(getOffRouteLocation(0));
+        for (int distance = 25; distance <= 45; distance += 10) {
+            fragment.onLocationChanged(getOffRouteLocation(distance));
+        }
+        assertThat(fragment.getReroutePrefetcher().isPending()).isTrue();
+
+        for (int distance = 80; distance < RouteEngine.REJOIN_GRACE_DISTANCE; distance += 40) {
+            fragment.onLocationChanged(getOffRouteLocation(distance));
+            assertThat(routeEngine.isRejoining()).isTrue();
+        }
+        Route prefetched = new Route(MOCK_NY_TO_VT);
+        fragment.getReroutePrefetcher().success(prefetched);
+
+        fragment.onLocationChanged(getOffRouteLocation(RouteEngine.REJOIN_GRACE_DISTANCE + 20));
+        assertThat(routeEngine.isRejoining()).isFalse();
+        assertThat(fragment.getRoute()).isSameAs(prefetched);
+        assertThat(fragment.getReroutePrefetcher().getUsedCount()).isEqualTo(1);
+        assertThat(fragment.getReroutePrefetcher().getRequestCount()).isGreaterThan(1);
+        verify(router, Mockito.times(fragment.getReroutePrefetcher().getRequestCount())).fetch();
+    }
+
     @Test
     public void onCreate_shouldFireMixpanelEvent() throws Exception {
         initTestFragment();
@@ -483,7 +589,7 @@ public class RouteFragmentTest {
         RouteLocationIndicator mockLocationIndicator = routeLocationIndicatorFactory
                 .getRouteLocationIndicator();
         verify(mockLocationIndicator, atLeastOnce()).setRotation(
-                (float) fragment.getRoute().getCurrentRotationBearing());
+                (float) fragment.getRoute().getRouteInstructions().get(0).getRotationBearing());
     }
 
     @Test
@@ -886,6 +992,17 @@ public class RouteFragmentTest {
         assertThat(fragment.getAdvanceRadius()).isEqualTo(ZoomController.DEFAULT_TURN_RADIUS);
     }
 
+    @Test
+    public void onLocationChanged_shouldDropInaccurateFix() throws Exception {
+        loadAceHotelMockRoute();
+        fragment.onLocationChanged(fragment.getRoute().getRouteInstructions().get(0).getLocation());
+        Location inaccurate = new Location(
+                fragment.getRoute().getRouteInstructions().get(2).getLocation());
+        inaccurate.setAccuracy(500);
+        fragment.onLocationChanged(inaccurate);
+        assertThat(fragment.pager).hasCurrentItem(0);
+    }
+
     @Test
     public void onLocationChanged_finalInstructionShouldNotAdvance() throws Exception {
         ArrayList<Instruction> instructions = new ArrayList<Instruction>();
@@ -1069,6 +1186,28 @@ public class RouteFragmentTest {
         assertThat(fragment.footerWrapper).isVisible();
     }
 
+    @Test
+    public void setRoute_shouldResetLocationFilter() throws Exception {
+        loadAceHotelMockRoute();
+        Location location = fragment.getRoute().getGeometry().get(0);
+        fragment.onLocationChanged(getTestLocation(location.getLatitude(),
+                location.getLongitude()));
+        assertThat(fragment.locationFilter.getReceivedCount(0)).isEqualTo(1);
+        fragment.setRoute(new Route(MOCK_ACE_HOTEL));
+        assertThat(fragment.locationFilter.getReceivedCount(0)).isEqualTo(0);
+    }
+
+    @Test
+    public void setRoute_shouldShowRouteLine() throws Exception {
+        loadAceHotelMockRoute();
+        Route route = new Route(MOCK_ACE_HOTEL);
+        fragment.setRoute(route);
+        assertThat(mapController.getRouteLine().getRoute().getFullResolution().size())
+                .isEqualTo(route.getGeometry().size());
+        assertThat(mapController.getMap().layers().contains(mapController.getRouteLine()))
+                .isTrue();
+    }
+
     @Test
     public void turnAutoPageOff_shouldMuteVoiceNavigation() throws Exception {
         initTestFragment();
@@ -1180,6 +1319,32 @@ public class RouteFragmentTest {
         verify(router).fetch();
     }
 
+    @Test
+    public void createRouteTo_shouldUseTransportationMode() throws Exception {
+        TestHelper.startFragment(fragment, act);
+        fragment.setTransportationMode(Router.Type.WALKING);
+        fragment.createRouteTo(getTestLocation(100.0, 100.0));
+        verify(router).setWalking();
+    }
+
+    @Test
+    public void failure_shouldStopRoutingWhenSuperseded() throws Exception {
+        TestHelper.startFragment(fragment, act);
+        fragment.createRouteTo(getTestLocation(100.0, 100.0));
+        routeRequestCoordinator.fetch(new RouteRequest(new double[] { 40.0, -73.0 },
+                new double[] { 41.0, -73.0 }, null), Mockito.mock(Router.Callback.class));
+        assertThat(act.getMapFragment().getView().findViewById(R.id.progress)).isNotVisible();
+    }
+
+    @Test
+    public void failure_shouldNotToastWhenSuperseded() throws Exception {
+        TestHelper.startFragment(fragment, act);
+        fragment.createRouteTo(getTestLocation(100.0, 100.0));
+        fragment.failure(RouteRequestCoordinator.SUPERSEDED);
+        assertThat(ShadowToast.getTextOfLatestToast()).isNull();
+        assertThat(act.getMapFragment().getView().findViewById(R.id.progress)).isNotVisible();
+    }
+
     @Test
     public void onLocationChange_shouldDoNothingWhileRerouting() throws Exception {
         Location testLocation = getTestLocation(40.658563, -73.986853);
@@ -1329,6 +1494,22 @@ public class RouteFragmentTest {
         enableDebugMode(Robolectric.application);
         TestHelper.startFragment(fragment, act);
         assertThat(fragment.getView().findViewById(R.id.debugging)).isVisible();
+        FrameAllocationCounter.setEnabled(false);
+    }
+
+    @Test
+    public void debugMode_shouldCountFrameAllocations() throws Exception {
+        enableDebugMode(Robolectric.application);
+        TestHelper.startFragment(fragment, act);
+        assertThat(FrameAllocationCounter.isEnabled()).isTrue();
+        fragment.onDestroy();
+        assertThat(FrameAllocationCounter.isEnabled()).isFalse();
+    }
+
+    @Test
+    public void frameAllocationCounter_shouldBeOffOutsideDebugMode() throws Exception {
+        TestHelper.startFragment(fragment, act);
+        assertThat(FrameAllocationCounter.isEnabled()).isFalse();
     }
 
     @Test @SuppressLint("NewApi")
@@ -1477,6 +1658,16 @@ public class RouteFragmentTest {
         assertThat(mapController.getZoomLevel()).isEqualTo(expected);
     }
 
+    /**
+     * @return location the given distance to the side of the start of the current route.
+     */
+    private Location getOffRouteLocation(int distance) {
+        Location first = fragment.getRoute().getGeometry().get(0);
+        Location second = fragment.getRoute().getGeometry().get(1);
+        return MapzenLocation.Util.getDistancePointFromBearing(first, distance,
+                (int) first.bearingTo(second) + 90);
+    }
+
     private void initTestFragment() throws Exception {
         fragment = RouteFragment.newInstance(act, getTestSimpleFeature());
         fragment.setRoute(new Route(MOCK_ROUTE_JSON));
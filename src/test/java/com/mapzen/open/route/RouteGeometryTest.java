@@ -0,0 +1,111 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.support.MapzenTestRunner;
+import com.mapzen.osrm.Route;
+
+import org.fest.assertions.data.Offset;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.oscim.core.BoundingBox;
+import org.oscim.core.GeoPoint;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+
+import static com.mapzen.open.MapController.locationToGeoPoint;
+import static com.mapzen.open.support.TestHelper.MOCK_ACE_HOTEL;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class RouteGeometryTest {
+    private ArrayList<Location> locations;
+    private RouteGeometry geometry;
+
+    @Before
+    public void setUp() throws Exception {
+        locations = new Route(MOCK_ACE_HOTEL).getGeometry();
+        geometry = RouteGeometry.fromLocations(locations);
+    }
+
+    @Test
+    public void shouldHaveSameNumberOfPoints() throws Exception {
+        assertThat(geometry.size()).isEqualTo(locations.size());
+    }
+
+    @Test
+    public void getGeoPoint_shouldMatchLocation() throws Exception {
+        for (int i = 0; i < locations.size(); i++) {
+            GeoPoint expected = locationToGeoPoint(locations.get(i));
+            assertThat(geometry.getGeoPoint(i)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void getDistance_shouldAccumulateAlongRoute() throws Exception {
+        float expected = 0;
+        for (int i = 1; i < locations.size(); i++) {
+            expected += locations.get(i - 1).distanceTo(locations.get(i));
+            assertThat(geometry.getDistance(i)).isEqualTo(expected, Offset.offset(expected * 0.01));
+        }
+        assertThat(geometry.getDistance(0)).isEqualTo(0.0);
+        assertThat(geometry.getTotalDistance())
+                .isEqualTo(geometry.getDistance(geometry.size() - 1));
+    }
+
+    @Test
+    public void getBoundingBox_shouldContainEveryPoint() throws Exception {
+        BoundingBox box = geometry.getBoundingBox();
+        for (int i = 0; i < geometry.size(); i++) {
+            assertThat(box.contains(geometry.getGeoPoint(i))).isTrue();
+        }
+    }
+
+    @Test
+    public void subset_shouldKeepMarkedPoints() throws Exception {
+        boolean[] keep = new boolean[geometry.size()];
+        keep[0] = true;
+        keep[geometry.size() - 1] = true;
+        RouteGeometry subset = geometry.subset(keep);
+        assertThat(subset.size()).isEqualTo(2);
+        assertThat(subset.getGeoPoint(1)).isEqualTo(geometry.getGeoPoint(geometry.size() - 1));
+    }
+
+    @Test
+    public void distanceBetween_shouldMeasureOneDegreeOfLatitude() throws Exception {
+        assertThat(RouteGeometry.distanceBetween(0, 0, 1, 0))
+                .isEqualTo(111195, Offset.offset(10.0));
+    }
+
+    @Test
+    public void subset_shouldRememberSourceIndexes() throws Exception {
+        boolean[] keep = new boolean[geometry.size()];
+        keep[0] = true;
+        keep[2] = true;
+        keep[geometry.size() - 1] = true;
+        RouteGeometry subset = geometry.subset(keep);
+        assertThat(subset.getSourceIndex(1)).isEqualTo(2);
+        assertThat(subset.indexOfSource(0)).isEqualTo(0);
+        assertThat(subset.indexOfSource(1)).isEqualTo(0);
+        assertThat(subset.indexOfSource(2)).isEqualTo(1);
+        assertThat(subset.indexOfSource(geometry.size() - 2)).isEqualTo(1);
+        assertThat(subset.indexOfSource(geometry.size() - 1)).isEqualTo(2);
+    }
+
+    @Test
+    public void getFractionAlongSegment_shouldProjectOntoSegment() throws Exception {
+        RouteGeometry line = new RouteGeometry(new int[] { 0, 0 }, new int[] { 0, 1000 });
+        assertThat(line.getFractionAlongSegment(0, 0.0001, 0.00025))
+                .isEqualTo(0.25, Offset.offset(1e-6));
+        assertThat(line.getFractionAlongSegment(0, 0.0, -1.0)).isEqualTo(0.0);
+        assertThat(line.getFractionAlongSegment(0, 0.0, 1.0)).isEqualTo(1.0);
+    }
+
+    @Test
+    public void getDistanceToSegment_shouldMeasurePerpendicularDistance() throws Exception {
+        RouteGeometry line = new RouteGeometry(new int[] { 0, 0 }, new int[] { 0, 1000 });
+        assertThat(line.getDistanceToSegment(0, 0.0001, 0.0005))
+                .isEqualTo(11.1, Offset.offset(0.1));
+    }
+}
@@ -0,0 +1,80 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.support.MapzenTestRunner;
+import com.mapzen.osrm.Route;
+
+import org.fest.assertions.data.Offset;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+
+import static com.mapzen.open.support.TestHelper.MOCK_NY_TO_VT;
+import static com.mapzen.open.support.TestHelper.getTestLocation;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class RouteLevelOfDetailTest {
+    private RouteLevelOfDetail levelOfDetail;
+    private Route route;
+
+    @Before
+    public void setUp() throws Exception {
+        route = new Route(MOCK_NY_TO_VT);
+        levelOfDetail = new RouteLevelOfDetail(RouteGeometry.fromLocations(route.getGeometry()));
+    }
+
+    @Test
+    public void getLevelForZoom_shouldUseFullResolutionWhenZoomedIn() throws Exception {
+        assertThat(levelOfDetail.getLevelForZoom(18).size())
+                .isEqualTo(route.getGeometry().size());
+    }
+
+    @Test
+    public void getLevelForZoom_shouldReduceWhenZoomedOut() throws Exception {
+        assertThat(levelOfDetail.getLevelForZoom(5).size())
+                .isLessThan(levelOfDetail.getLevelForZoom(12).size());
+        assertThat(levelOfDetail.getLevelForZoom(12).size())
+                .isLessThanOrEqualTo(levelOfDetail.getLevelForZoom(16).size());
+    }
+
+    @Test
+    public void getLevelForZoom_shouldReuseLevelWithinBand() throws Exception {
+        assertThat(levelOfDetail.getLevelForZoom(11))
+                .isSameAs(levelOfDetail.getLevelForZoom(13));
+    }
+
+    @Test
+    public void getLevelForZoom_shouldKeepEndpoints() throws Exception {
+        RouteGeometry level = levelOfDetail.getLevelForZoom(3).getGeometry();
+        Location first = route.getGeometry().get(0);
+        Location last = route.getGeometry().get(route.getGeometry().size() - 1);
+        assertThat(level.getLatitude(0)).isEqualTo(first.getLatitude(), Offset.offset(1e-6));
+        assertThat(level.getLongitude(level.size() - 1))
+                .isEqualTo(last.getLongitude(), Offset.offset(1e-6));
+    }
+
+    @Test
+    public void getLevelForZoom_shouldNotReduceShortRoutes() throws Exception {
+        ArrayList<Location> geometry = new ArrayList<Location>();
+        for (int i = 0; i < 10; i++) {
+            geometry.add(getTestLocation(i * 0.001, 0.0));
+        }
+        RouteLevelOfDetail shortRoute =
+                new RouteLevelOfDetail(RouteGeometry.fromLocations(geometry));
+        assertThat(shortRoute.getLevelForZoom(0).size()).isEqualTo(10);
+    }
+
+    @Test
+    public void getTolerance_shouldShrinkTowardsPoles() throws Exception {
+        assertThat(RouteLevelOfDetail.getTolerance(0, 0))
+                .isEqualTo(156543.0, Offset.offset(1.0));
+        assertThat(RouteLevelOfDetail.getTolerance(1, 0))
+                .isEqualTo(RouteLevelOfDetail.getTolerance(0, 0) / 2, Offset.offset(1e-6));
+        assertThat(RouteLevelOfDetail.getTolerance(10, 60))
+                .isEqualTo(RouteLevelOfDetail.getTolerance(10, 0) / 2, Offset.offset(1e-6));
+    }
+}
@@ -0,0 +1,132 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.support.MapzenTestRunner;
+import com.mapzen.osrm.Route;
+import com.mapzen.osrm.Router;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+
+import static com.mapzen.open.support.TestHelper.MOCK_ACE_HOTEL;
+import static com.mapzen.osrm.Router.Type.BIKING;
+import static com.mapzen.osrm.Router.Type.DRIVING;
+import static com.mapzen.osrm.Router.Type.WALKING;
+import static com.mapzen.osrm.Router.getRouter;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MapzenTestRunner.class)
+public class RouteModePrefetcherTest {
+    private static final double[] ORIGIN = new double[] { 40.7401, -73.9902 };
+    private static final double[] DESTINATION = new double[] { 40.7444, -73.9904 };
+
+    private ArrayList<Router> routers;
+    private Router sharedRouter;
+    private RouteCache cache;
+    private RouteRequestCoordinator coordinator;
+    private RouteModePrefetcher prefetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        routers = new ArrayList<Router>();
+        sharedRouter = Mockito.spy(getRouter());
+        doNothing().when(sharedRouter).fetch();
+        cache = new RouteCache(null);
+        coordinator = new RouteRequestCoordinator(sharedRouter, cache);
+        prefetcher = new RouteModePrefetcher(new RouteModePrefetcher.RouterFactory() {
+            @Override
+            public Router newRouter() {
+                Router router = Mockito.spy(getRouter());
+                doNothing().when(router).fetch();
+                routers.add(router);
+                return router;
+            }
+        }, coordinator);
+    }
+
+    @Test
+    public void prefetch_shouldFetchEachModeOnItsOwnRouter() throws Exception {
+        prefetcher.prefetch(request(BIKING), request(WALKING));
+        assertThat(routers).hasSize(2);
+        verify(routers.get(0)).setBiking();
+        verify(routers.get(0)).fetch();
+        verify(routers.get(1)).setWalking();
+        verify(routers.get(1)).fetch();
+    }
+
+    @Test
+    public void prefetch_shouldLimitFetchesInFlight() throws Exception {
+        prefetcher.prefetch(request(DRIVING), request(BIKING), request(WALKING));
+        assertThat(routers).hasSize(RouteModePrefetcher.MAX_CONCURRENT_FETCHES);
+        callback(0).failure(500);
+        assertThat(routers).hasSize(3);
+        verify(routers.get(2)).setWalking();
+    }
+
+    @Test
+    public void prefetch_shouldCacheRoute() throws Exception {
+        prefetcher.prefetch(request(BIKING));
+        Route route = new Route(MOCK_ACE_HOTEL);
+        callback(0).success(route);
+        assertThat(cache.get(request(BIKING).getKey())).isSameAs(route);
+    }
+
+    @Test
+    public void prefetch_shouldSkipCachedAndPendingModes() throws Exception {
+        cache.put(request(DRIVING).getKey(), new Route(MOCK_ACE_HOTEL));
+        prefetcher.prefetch(request(DRIVING), request(BIKING));
+        prefetcher.prefetch(request(BIKING));
+        assertThat(prefetcher.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void prefetch_shouldBeJoinedByFetch() throws Exception {
+        prefetcher.prefetch(request(BIKING));
+        Router.Callback callback = mock(Router.Callback.class);
+        coordinator.fetch(request(BIKING), callback);
+        Route route = new Route(MOCK_ACE_HOTEL);
+        callback(0).success(route);
+        verify(callback).success(route);
+        verify(sharedRouter, never()).fetch();
+        assertThat(coordinator.getDeduplicatedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void prefetch_shouldFinishAfterFetchMovesOn() throws Exception {
+        prefetcher.prefetch(request(BIKING));
+        Router.Callback callback = mock(Router.Callback.class);
+        coordinator.fetch(request(BIKING), callback);
+        coordinator.fetch(request(DRIVING), callback);
+        Route route = new Route(MOCK_ACE_HOTEL);
+        callback(0).success(route);
+        verify(callback, never()).success(route);
+        assertThat(cache.get(request(BIKING).getKey())).isSameAs(route);
+    }
+
+    @Test
+    public void cancel_shouldDropQueuedRequests() throws Exception {
+        prefetcher.prefetch(request(DRIVING), request(BIKING), request(WALKING));
+        prefetcher.cancel();
+        callback(0).success(new Route(MOCK_ACE_HOTEL));
+        assertThat(routers).hasSize(RouteModePrefetcher.MAX_CONCURRENT_FETCHES);
+        assertThat(cache.get(request(DRIVING).getKey())).isNotNull();
+    }
+
+    private RouteRequest request(Router.Type type) {
+        return new RouteRequest(ORIGIN, DESTINATION, type);
+    }
+
+    private Router.Callback callback(int index) {
+        ArgumentCaptor<Router.Callback> callback = ArgumentCaptor.forClass(Router.Callback.class);
+        verify(routers.get(index)).setCallback(callback.capture());
+        return callback.getValue();
+    }
+}
@@ -26,6 +26,7 @@ import org.mockito.Captor;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowToast;
 
 import android.location.Location;
 import android.support.v4.app.Fragment;
@@ -39,19 +40,19 @@ import javax.inject.Inject;
 
 import static com.mapzen.open.MapController.locationToGeoPoint;
 import static com.mapzen.open.entity.SimpleFeature.TEXT;
-import static com.mapzen.open.route.RoutePreviewFragment.REDUCE_TOLERANCE;
 import static com.mapzen.open.support.TestHelper.getFixture;
 import static com.mapzen.open.support.TestHelper.getTestLocation;
 import static com.mapzen.open.support.TestHelper.getTestSimpleFeature;
 import static com.mapzen.open.support.TestHelper.initBaseActivity;
-import static com.mapzen.open.util.DouglasPeuckerReducer.reduceWithTolerance;
 import static com.mapzen.open.util.MixpanelHelper.Event.ROUTING_PREVIEW_BIKE;
 import static com.mapzen.open.util.MixpanelHelper.Event.ROUTING_PREVIEW_CAR;
 import static com.mapzen.open.util.MixpanelHelper.Event.ROUTING_PREVIEW_FOOT;
+import static com.mapzen.osrm.Router.getRouter;
 import static org.fest.assertions.api.ANDROID.assertThat;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -65,9 +66,14 @@ public class RoutePreviewFragmentTest {
     @Inject MapController mapController;
     @Inject MixpanelAPI mixpanelAPI;
     @Inject Bus bus;
+    @Inject RouteCache routeCache;
+    @Inject RouteRequestCoordinator routeRequestCoordinator;
     @Captor
     @SuppressWarnings("unused")
     ArgumentCaptor<double[]> location;
+    @Captor
+    @SuppressWarnings("unused")
+    ArgumentCaptor<Router.Callback> callback;
 
     @Before
     public void setup() throws Exception {
@@ -164,10 +170,17 @@ public class RoutePreviewFragmentTest {
 
     @Test
     public void onResume_shouldCreateRouteToDestination() throws Exception {
+        completeRouteRequest();
         fragment.onResume();
         verify(router, times(2)).fetch();
     }
 
+    @Test
+    public void onResume_shouldNotFetchRouteAlreadyInFlight() throws Exception {
+        fragment.onResume();
+        verify(router, times(1)).fetch();
+    }
+
     @Test
     public void onResume_shouldNotCreateRouteToDestinationIfRouting() throws Exception {
         activity.getSupportFragmentManager().beginTransaction()
@@ -250,6 +263,14 @@ public class RoutePreviewFragmentTest {
         assertThat(fragment.path.getPoints()).isEmpty();
     }
 
+    @Test
+    public void failure_shouldIgnoreSupersededRequest() throws Exception {
+        fragment.createRouteToDestination();
+        fragment.failure(RouteRequestCoordinator.SUPERSEDED);
+        assertThat(fragment).isAdded();
+        assertThat(ShadowToast.getTextOfLatestToast()).isNull();
+    }
+
     @Test
     public void success_shouldDrawFullRoute() throws Exception {
         fragment.createRouteToDestination();
@@ -266,9 +287,11 @@ public class RoutePreviewFragmentTest {
         Route route = new Route(getFixture("ny_to_vermont"));
         fragment.success(route);
 
-        for (Location loc : reduceWithTolerance(route.getGeometry(), REDUCE_TOLERANCE)) {
-            assertThat(fragment.path.getPoints()).contains(locationToGeoPoint(loc));
-        }
+        List<Location> geometry = route.getGeometry();
+        assertThat(fragment.path.getPoints().size()).isLessThan(geometry.size());
+        assertThat(fragment.path.getPoints()).contains(locationToGeoPoint(geometry.get(0)));
+        assertThat(fragment.path.getPoints())
+                .contains(locationToGeoPoint(geometry.get(geometry.size() - 1)));
     }
 
     @Test
@@ -279,12 +302,54 @@ public class RoutePreviewFragmentTest {
 
     @Test
     public void routeForCar_shouldRouteByCar() throws Exception {
+        completeRouteRequest();
         RadioButton byCar = (RadioButton) fragment.getView().findViewById(R.id.by_car);
         byCar.setChecked(false);
         byCar.performClick();
         verify(router, times(2)).setDriving();
     }
 
+    @Test
+    public void routeForCar_shouldUseCachedRoute() throws Exception {
+        mapController.setLocation(getTestLocation(22.22, 44.44));
+        fragment.createRouteToDestination();
+        verify(router, times(2)).setCallback(callback.capture());
+        callback.getValue().success(new Route(getFixture("around_the_block")));
+        fragment.getView().findViewById(R.id.by_foot).performClick();
+        RadioButton byCar = (RadioButton) fragment.getView().findViewById(R.id.by_car);
+        byCar.setChecked(false);
+        byCar.performClick();
+        verify(router, times(3)).fetch();
+        assertThat(routeCache.getMemoryHitCount()).isEqualTo(1);
+        assertThat(fragment.path.getPoints()).isNotEmpty();
+    }
+
+    @Test
+    public void setDestination_shouldPrefetchOtherModes() throws Exception {
+        RouteModePrefetcher prefetcher = usePrefetcherAt(getTestLocation(22.22, 44.44));
+        fragment.setDestination(destination);
+        assertThat(prefetcher.getRequestCount()).isEqualTo(2);
+        verify(router, times(1)).fetch();
+    }
+
+    @Test
+    public void routeForFoot_shouldJoinPrefetchInFlight() throws Exception {
+        usePrefetcherAt(getTestLocation(22.22, 44.44));
+        fragment.setDestination(destination);
+        int deduplicatedCount = routeRequestCoordinator.getDeduplicatedCount();
+        fragment.getView().findViewById(R.id.by_foot).performClick();
+        assertThat(routeRequestCoordinator.getDeduplicatedCount() - deduplicatedCount)
+                .isEqualTo(1);
+        verify(router, times(1)).fetch();
+    }
+
+    @Test
+    public void reverse_shouldPrefetchOtherModes() throws Exception {
+        RouteModePrefetcher prefetcher = usePrefetcherAt(getTestLocation(22.22, 44.44));
+        fragment.reverse();
+        assertThat(prefetcher.getRequestCount()).isEqualTo(2);
+    }
+
     @Test
     public void byCar_shouldSendMixpanelEvent() throws Exception {
         RadioButton byCar = (RadioButton) fragment.getView().findViewById(R.id.by_car);
@@ -295,6 +360,7 @@ public class RoutePreviewFragmentTest {
 
     @Test
     public void routeForFoot_shouldRouteByFoot() throws Exception {
+        mapController.setLocation(getTestLocation(22.22, 44.44));
         fragment.getView().findViewById(R.id.by_foot).performClick();
         verify(router).setWalking();
     }
@@ -307,6 +373,7 @@ public class RoutePreviewFragmentTest {
 
     @Test
     public void routeForBike_shouldRouteByBike() throws Exception {
+        mapController.setLocation(getTestLocation(22.22, 44.44));
         fragment.getView().findViewById(R.id.by_bike).performClick();
         verify(router).setBiking();
     }
@@ -357,6 +424,16 @@ public class RoutePreviewFragmentTest {
         assertThat(activity.getSupportFragmentManager()).hasFragmentWithTag(RouteFragment.TAG);
     }
 
+    @Test
+    public void start_shouldKeepTransportationMode() throws Exception {
+        fragment.getView().findViewById(R.id.by_bike).performClick();
+        fragment.success(new Route(getFixture("around_the_block")));
+        fragment.getView().findViewById(R.id.routing_circle).performClick();
+        RouteFragment routeFragment = (RouteFragment) activity.getSupportFragmentManager()
+                .findFragmentByTag(RouteFragment.TAG);
+        assertThat(routeFragment.getTransportationMode()).isEqualTo(Router.Type.BIKING);
+    }
+
     @Test
     public void start_shouldNotStartRouting() throws Exception {
         fragment.createRouteToDestination();
@@ -430,6 +507,7 @@ public class RoutePreviewFragmentTest {
 
     @Test
     public void onViewUpdate_shouldCreateRoute() throws Exception {
+        completeRouteRequest();
         fragment.onViewUpdate(new ViewUpdateEvent());
         verify(router, times(2)).fetch();
     }
@@ -485,4 +563,28 @@ public class RoutePreviewFragmentTest {
         assertThat(fragment.getMapFragment().getMap().layers().
                 contains(fragment.getMapFragment().getLocationMarkerLayer())).isTrue();
     }
+
+    /**
+     * Moves to a location nothing was prefetched for yet and gives the fragment a prefetcher
+     * with no fetches in flight.
+     */
+    private RouteModePrefetcher usePrefetcherAt(Location location) {
+        mapController.setLocation(location);
+        fragment.routeModePrefetcher = new RouteModePrefetcher(
+                new RouteModePrefetcher.RouterFactory() {
+                    @Override
+                    public Router newRouter() {
+                        Router prefetchRouter = Mockito.spy(getRouter());
+                        doNothing().when(prefetchRouter).fetch();
+                        return prefetchRouter;
+                    }
+                }, routeRequestCoordinator);
+        return fragment.routeModePrefetcher;
+    }
+
+    private void completeRouteRequest() {
+        verify(router, Mockito.atLeastOnce()).setCallback(callback.capture());
+        callback.getValue().success(new Route(getFixture("around_the_block")));
+        routeCache.clear();
+    }
 }
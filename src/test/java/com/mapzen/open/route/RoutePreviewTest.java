@@ -0,0 +1,55 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.support.MapzenTestRunner;
+import com.mapzen.osrm.Route;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.location.Location;
+
+import java.util.List;
+
+import static com.mapzen.open.MapController.locationToGeoPoint;
+import static com.mapzen.open.support.TestHelper.getFixture;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class RoutePreviewTest {
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 800;
+
+    @Test
+    public void prepare_shouldKeepShortRoute() throws Exception {
+        Route route = new Route(getFixture("under_hundred"));
+        RoutePreview preview = RoutePreview.prepare(route, WIDTH, HEIGHT, null, null);
+        assertThat(preview.getPoints()).hasSize(route.getGeometry().size());
+        assertThat(preview.getGeometrySize()).isEqualTo(route.getGeometry().size());
+    }
+
+    @Test
+    public void prepare_shouldReduceLongRoute() throws Exception {
+        Route route = new Route(getFixture("ny_to_vermont"));
+        RoutePreview preview = RoutePreview.prepare(route, WIDTH, HEIGHT, null, null);
+        assertThat(preview.getPoints().size()).isLessThan(route.getGeometry().size());
+    }
+
+    @Test
+    public void prepare_shouldPlaceMarkersAtEnds() throws Exception {
+        Route route = new Route(getFixture("ny_to_vermont"));
+        List<Location> geometry = route.getGeometry();
+        RoutePreview preview = RoutePreview.prepare(route, WIDTH, HEIGHT, null, null);
+        assertThat(preview.getStart().getPoint()).isEqualTo(locationToGeoPoint(geometry.get(0)));
+        assertThat(preview.getEnd().getPoint())
+                .isEqualTo(locationToGeoPoint(geometry.get(geometry.size() - 1)));
+    }
+
+    @Test
+    public void prepare_shouldCenterOnRoute() throws Exception {
+        Route route = new Route(getFixture("ny_to_vermont"));
+        RoutePreview preview = RoutePreview.prepare(route, WIDTH, HEIGHT, null, null);
+        assertThat(preview.getBoundingBox().contains(preview.getPosition().getGeoPoint()))
+                .isTrue();
+        assertThat(preview.getRoute()).isSameAs(route);
+    }
+}
@@ -0,0 +1,250 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.support.MapzenTestRunner;
+import com.mapzen.osrm.Route;
+import com.mapzen.osrm.Router;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.Robolectric;
+
+import android.os.Looper;
+
+import java.io.File;
+
+import static com.mapzen.open.support.TestHelper.MOCK_ACE_HOTEL;
+import static com.mapzen.osrm.Router.Type.DRIVING;
+import static com.mapzen.osrm.Router.Type.WALKING;
+import static com.mapzen.osrm.Router.getRouter;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MapzenTestRunner.class)
+public class RouteRequestCoordinatorTest {
+    private static final double[] ORIGIN = new double[] { 40.7401, -73.9902 };
+    private static final double[] NEARBY = new double[] { 40.7402, -73.9903 };
+    private static final double[] ELSEWHERE = new double[] { 40.7501, -73.9902 };
+    private static final double[] DESTINATION = new double[] { 40.7444, -73.9904 };
+
+    private Router router;
+    private RouteRequestCoordinator coordinator;
+
+    @Before
+    public void setUp() throws Exception {
+        router = Mockito.spy(getRouter());
+        doNothing().when(router).fetch();
+        coordinator = new RouteRequestCoordinator(router);
+    }
+
+    @Test
+    public void fetch_shouldSetUpRouter() throws Exception {
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, WALKING)
+                .addVia(NEARBY).setZoomLevel(17), mock(Router.Callback.class));
+        verify(router).setLocation(ORIGIN);
+        verify(router).setLocation(NEARBY);
+        verify(router).setLocation(DESTINATION);
+        verify(router).setZoomLevel(17);
+        verify(router).setWalking();
+        verify(router).fetch();
+    }
+
+    @Test
+    public void fetch_shouldJoinMatchingRequestInFlight() throws Exception {
+        Router.Callback first = mock(Router.Callback.class);
+        Router.Callback second = mock(Router.Callback.class);
+        RouteRequestCoordinator.Request request =
+                coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING), first);
+        assertThat(coordinator.fetch(new RouteRequest(NEARBY, DESTINATION, DRIVING), second))
+                .isSameAs(request);
+        verify(router, times(1)).fetch();
+        assertThat(coordinator.getDeduplicatedCount()).isEqualTo(1);
+
+        Route route = new Route(MOCK_ACE_HOTEL);
+        request.success(route);
+        verify(first).success(route);
+        verify(second).success(route);
+        assertThat(request.isDone()).isTrue();
+    }
+
+    @Test
+    public void fetch_shouldFetchAgainOnceRequestIsDone() throws Exception {
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING),
+                mock(Router.Callback.class)).failure(500);
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING),
+                mock(Router.Callback.class));
+        verify(router, times(2)).fetch();
+    }
+
+    @Test
+    public void fetch_shouldSupersedeOtherRequest() throws Exception {
+        Router.Callback stale = mock(Router.Callback.class);
+        Router.Callback fresh = mock(Router.Callback.class);
+        RouteRequestCoordinator.Request old =
+                coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING), stale);
+        RouteRequestCoordinator.Request current =
+                coordinator.fetch(new RouteRequest(ELSEWHERE, DESTINATION, DRIVING), fresh);
+        assertThat(old.isCancelled()).isTrue();
+        assertThat(coordinator.getCancelledCount()).isEqualTo(1);
+
+        Route route = new Route(MOCK_ACE_HOTEL);
+        current.success(route);
+        old.success(new Route(MOCK_ACE_HOTEL));
+        verify(fresh).success(route);
+        verify(stale).failure(RouteRequestCoordinator.SUPERSEDED);
+        verify(stale, never()).success(any(Route.class));
+        assertThat(coordinator.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void fetch_shouldNotFailCallbackThatMadeSupersedingRequest() throws Exception {
+        Router.Callback callback = mock(Router.Callback.class);
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING), callback);
+        RouteRequestCoordinator.Request current =
+                coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, WALKING), callback);
+        Route route = new Route(MOCK_ACE_HOTEL);
+        current.success(route);
+        verify(callback, never()).failure(anyInt());
+        verify(callback, times(1)).success(route);
+    }
+
+    @Test
+    public void fetch_shouldNotJoinRequestForOtherMode() throws Exception {
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING),
+                mock(Router.Callback.class));
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, WALKING),
+                mock(Router.Callback.class));
+        verify(router, times(2)).fetch();
+        assertThat(coordinator.getDeduplicatedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void cancel_shouldDropResponseOnceNobodyIsWaiting() throws Exception {
+        Router.Callback callback = mock(Router.Callback.class);
+        RouteRequestCoordinator.Request request =
+                coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING), callback);
+        coordinator.cancel(callback);
+        request.success(new Route(MOCK_ACE_HOTEL));
+        verify(callback, never()).success(any(Route.class));
+        assertThat(request.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void cancel_shouldKeepRequestForOtherCallbacks() throws Exception {
+        Router.Callback leaving = mock(Router.Callback.class);
+        Router.Callback staying = mock(Router.Callback.class);
+        RouteRequestCoordinator.Request request =
+                coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING), leaving);
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING), staying);
+        coordinator.cancel(leaving);
+        Route route = new Route(MOCK_ACE_HOTEL);
+        request.success(route);
+        verify(staying).success(route);
+        verify(leaving, never()).success(any(Route.class));
+    }
+
+    @Test
+    public void fetch_shouldUseCachedRoute() throws Exception {
+        coordinator = new RouteRequestCoordinator(router, new RouteCache(null));
+        Route route = new Route(MOCK_ACE_HOTEL);
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING),
+                mock(Router.Callback.class)).success(route);
+        Router.Callback callback = mock(Router.Callback.class);
+        assertThat(coordinator.fetch(new RouteRequest(NEARBY, DESTINATION, DRIVING), callback)
+                .isDone()).isTrue();
+        verify(callback).success(route);
+        verify(router, times(1)).fetch();
+        assertThat(coordinator.getCachedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void fetch_shouldSkipCacheForReroutes() throws Exception {
+        RouteCache cache = new RouteCache(null);
+        coordinator = new RouteRequestCoordinator(router, cache);
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING),
+                mock(Router.Callback.class)).success(new Route(MOCK_ACE_HOTEL));
+        Router.Callback callback = mock(Router.Callback.class);
+        RouteRequestCoordinator.Request request = coordinator.fetch(
+                new RouteRequest(NEARBY, DESTINATION, DRIVING).setCacheable(false), callback);
+        assertThat(request.isDone()).isFalse();
+        verify(callback, never()).success(any(Route.class));
+        verify(router, times(2)).fetch();
+
+        Route reroute = new Route(MOCK_ACE_HOTEL);
+        cache.clear();
+        request.success(reroute);
+        verify(callback).success(reroute);
+        assertThat(cache.get(new RouteRequest(NEARBY, DESTINATION, DRIVING).getKey())).isNull();
+    }
+
+    @Test
+    public void fetch_shouldLoadRouteFromDiskWithoutBlocking() throws Exception {
+        File directory = new File(Robolectric.application.getCacheDir(), "routes");
+        RouteCache cache = new RouteCache(directory, RouteCache.DEFAULT_TIME_TO_LIVE,
+                Looper.getMainLooper());
+        cache.put(new RouteRequest(ORIGIN, DESTINATION, DRIVING).getKey(),
+                new Route(MOCK_ACE_HOTEL));
+        coordinator = new RouteRequestCoordinator(router, new RouteCache(directory,
+                RouteCache.DEFAULT_TIME_TO_LIVE, Looper.getMainLooper()));
+        Router.Callback callback = mock(Router.Callback.class);
+
+        Robolectric.pauseMainLooper();
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING), callback);
+        verify(callback, never()).success(any(Route.class));
+        Robolectric.unPauseMainLooper();
+
+        verify(callback).success(any(Route.class));
+        verify(router, never()).fetch();
+        assertThat(coordinator.getCachedCount()).isEqualTo(1);
+        cache.clear();
+    }
+
+    @Test
+    public void fetch_shouldSetDefaultModeWhenNoneIsGiven() throws Exception {
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, null),
+                mock(Router.Callback.class));
+        verify(router).setDriving();
+        assertThat(new RouteRequest(ORIGIN, DESTINATION, null).getKey())
+                .isEqualTo(new RouteRequest(ORIGIN, DESTINATION, DRIVING).getKey());
+    }
+
+    @Test
+    public void fetch_shouldCancelRequestInFlightWhenServedFromCache() throws Exception {
+        coordinator = new RouteRequestCoordinator(router, new RouteCache(null));
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING),
+                mock(Router.Callback.class)).success(new Route(MOCK_ACE_HOTEL));
+        Router.Callback walking = mock(Router.Callback.class);
+        RouteRequestCoordinator.Request request =
+                coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, WALKING), walking);
+        coordinator.fetch(new RouteRequest(ORIGIN, DESTINATION, DRIVING),
+                mock(Router.Callback.class));
+        assertThat(request.isCancelled()).isTrue();
+        request.success(new Route(MOCK_ACE_HOTEL));
+        verify(walking).failure(RouteRequestCoordinator.SUPERSEDED);
+        verify(walking, never()).success(any(Route.class));
+    }
+
+    @Test
+    public void getKey_shouldShareOriginCell() throws Exception {
+        assertThat(new RouteRequest(ORIGIN, DESTINATION, DRIVING).getKey())
+                .isEqualTo(new RouteRequest(NEARBY, DESTINATION, DRIVING).getKey());
+        assertThat(new RouteRequest(ORIGIN, DESTINATION, DRIVING).getKey())
+                .isNotEqualTo(new RouteRequest(ELSEWHERE, DESTINATION, DRIVING).getKey());
+    }
+
+    @Test
+    public void getKey_shouldIncludeHeading() throws Exception {
+        assertThat(new RouteRequest(ORIGIN, DESTINATION, DRIVING).addVia(NEARBY).getKey())
+                .isNotEqualTo(new RouteRequest(ORIGIN, DESTINATION, DRIVING).addVia(ELSEWHERE)
+                        .getKey());
+        assertThat(new RouteRequest(ORIGIN, DESTINATION, DRIVING).addVia(NEARBY).getKey())
+                .isNotEqualTo(new RouteRequest(ORIGIN, DESTINATION, DRIVING).getKey());
+    }
+}
@@ -0,0 +1,75 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.oscim.core.BoundingBox;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mapzen.open.support.TestHelper.getTestLocation;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class RouteSegmentIndexTest {
+    private ArrayList<Location> geometry;
+
+    @Before
+    public void setUp() throws Exception {
+        geometry = new ArrayList<Location>();
+        for (int i = 0; i < 1000; i++) {
+            geometry.add(getTestLocation(i * 0.001, 0.0));
+        }
+    }
+
+    @Test
+    public void query_shouldReturnOnlyVisibleSegments() throws Exception {
+        RouteSegmentIndex index = new RouteSegmentIndex(RouteGeometry.fromLocations(geometry));
+        List<RouteSegmentIndex.SegmentRun> runs =
+                index.query(new BoundingBox(0.1005, -0.1, 0.2005, 0.1));
+        assertThat(runs).hasSize(1);
+        assertThat(runs.get(0).getStart()).isEqualTo(100);
+        assertThat(runs.get(0).getEnd()).isEqualTo(201);
+    }
+
+    @Test
+    public void query_shouldReturnNothingOutsideRoute() throws Exception {
+        RouteSegmentIndex index = new RouteSegmentIndex(RouteGeometry.fromLocations(geometry));
+        assertThat(index.query(new BoundingBox(10.0, 10.0, 11.0, 11.0))).isEmpty();
+    }
+
+    @Test
+    public void query_shouldSplitRunsWhenRouteLeavesViewport() throws Exception {
+        ArrayList<Location> loop = new ArrayList<Location>();
+        loop.add(getTestLocation(0.0, 0.0));
+        loop.add(getTestLocation(0.0, 1.0));
+        loop.add(getTestLocation(1.0, 1.0));
+        loop.add(getTestLocation(1.0, 0.0));
+        loop.add(getTestLocation(0.1, 0.0));
+        RouteSegmentIndex index = new RouteSegmentIndex(RouteGeometry.fromLocations(loop));
+        List<RouteSegmentIndex.SegmentRun> runs =
+                index.query(new BoundingBox(-0.05, -0.05, 0.05, 0.05));
+        assertThat(runs).hasSize(1);
+        assertThat(runs.get(0).getStart()).isEqualTo(0);
+
+        runs = index.query(new BoundingBox(0.4, 0.9, 0.6, 1.1));
+        assertThat(runs).hasSize(1);
+        assertThat(runs.get(0).getStart()).isEqualTo(1);
+        assertThat(runs.get(0).getEnd()).isEqualTo(2);
+
+        runs = index.query(new BoundingBox(-0.05, -0.05, 1.05, 0.05));
+        assertThat(runs).hasSize(2);
+    }
+
+    @Test
+    public void query_shouldHandleEmptyGeometry() throws Exception {
+        RouteSegmentIndex index = new RouteSegmentIndex(
+                RouteGeometry.fromLocations(new ArrayList<Location>()));
+        assertThat(index.query(new BoundingBox(0.0, 0.0, 1.0, 1.0))).isEmpty();
+    }
+}
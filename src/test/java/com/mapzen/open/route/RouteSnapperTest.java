@@ -0,0 +1,86 @@
+package com.mapzen.open.route;
+
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.fest.assertions.data.Offset;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class RouteSnapperTest {
+    private static final int POINTS = 50;
+    private static final int SPACING_E6 = 1000;
+
+    private RouteGeometry geometry;
+    private RouteSnapper snapper;
+
+    @Before
+    public void setUp() throws Exception {
+        int[] latitudes = new int[POINTS];
+        int[] longitudes = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            longitudes[i] = i * SPACING_E6;
+        }
+        geometry = new RouteGeometry(latitudes, longitudes);
+        snapper = new RouteSnapper(geometry);
+    }
+
+    @Test
+    public void snap_shouldFindSegmentAndFraction() throws Exception {
+        RouteSnapper.Snap snap = snapper.snap(0.0001, 0.0025, 50);
+        assertThat(snap.getSegment()).isEqualTo(2);
+        assertThat(snap.getFraction()).isEqualTo(0.5, Offset.offset(1e-6));
+        assertThat(snap.getLatitude()).isEqualTo(0.0, Offset.offset(1e-9));
+        assertThat(snap.getLongitude()).isEqualTo(0.0025, Offset.offset(1e-9));
+        assertThat(snap.getDistanceFromRoute()).isEqualTo(11.1, Offset.offset(0.1));
+    }
+
+    @Test
+    public void snap_shouldMeasureDistanceAlongRoute() throws Exception {
+        RouteSnapper.Snap snap = snapper.snap(0, 0.0025, 50);
+        double expected = (geometry.getDistance(2) + geometry.getDistance(3)) / 2;
+        assertThat(snap.getDistanceAlongRoute()).isEqualTo(expected, Offset.offset(1e-3));
+    }
+
+    @Test
+    public void snap_shouldMoveCursor() throws Exception {
+        snapper.snap(0, 0.0025, 50);
+        assertThat(snapper.getCursor()).isEqualTo(2);
+        snapper.snap(0, 0.0065, 50);
+        assertThat(snapper.getCursor()).isEqualTo(6);
+        assertThat(snapper.getFallbackCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void snap_shouldUseIndexOutsideWindow() throws Exception {
+        RouteSnapper.Snap snap = snapper.snap(0, 0.0405, 50);
+        assertThat(snap.getSegment()).isEqualTo(40);
+        assertThat(snapper.getFallbackCount()).isEqualTo(1);
+        snapper.snap(0, 0.0415, 50);
+        assertThat(snapper.getFallbackCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void snap_shouldReturnNullFarFromRoute() throws Exception {
+        assertThat(snapper.snap(0.01, 0.0025, 50)).isNull();
+        assertThat(snapper.getCursor()).isEqualTo(0);
+    }
+
+    @Test
+    public void snap_shouldIgnoreSegmentsBeforeFirstSegment() throws Exception {
+        assertThat(snapper.snap(0, 0.0025, 50, 10)).isNull();
+        RouteSnapper.Snap snap = snapper.snap(0, 0.0305, 50, 10);
+        assertThat(snap.getSegment()).isEqualTo(30);
+    }
+
+    @Test
+    public void setCursor_shouldClampToRoute() throws Exception {
+        snapper.setCursor(POINTS * 2);
+        assertThat(snapper.getCursor()).isEqualTo(POINTS - 2);
+        snapper.setCursor(-1);
+        assertThat(snapper.getCursor()).isEqualTo(0);
+    }
+}
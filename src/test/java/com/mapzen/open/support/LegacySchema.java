@@ -0,0 +1,83 @@
+package com.mapzen.open.support;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_ACC;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_ALT;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_BEARING;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_CORRECTED_LAT;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_CORRECTED_LNG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_DUMP;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_INSTRUCTION_BEARING;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_INSTRUCTION_LAT;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_INSTRUCTION_LNG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_LAT;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_LNG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_MSG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_POSITION;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_PROVIDER;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_ROUTE_ID;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_SPEED;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_TABLE_ID;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_TAG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_TIME;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_LOCATIONS;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_LOG_ENTRIES;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_ROUTE_GEOMETRY;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_UPLOAD_QUEUE;
+
+/**
+ * Tables as they were at database version 9, for exercising migrations and comparing schemas.
+ * Only the tables that changed after version 9 are here; tables added since are dropped.
+ */
+public final class LegacySchema {
+    private LegacySchema() {
+    }
+
+    /**
+     * Replaces the current locations, route geometry and log entries tables with their
+     * version 9 definitions and drops the upload queue.
+     */
+    public static void downgradeToVersion9(SQLiteDatabase db) {
+        db.execSQL("drop table if exists " + TABLE_LOCATIONS);
+        db.execSQL("drop table if exists " + TABLE_ROUTE_GEOMETRY);
+        db.execSQL("drop table if exists " + TABLE_LOG_ENTRIES);
+        db.execSQL("drop index if exists group_id_route_id");
+        db.execSQL("drop table if exists " + TABLE_UPLOAD_QUEUE);
+
+        db.execSQL("create table " + TABLE_LOCATIONS + " ("
+                + COLUMN_TABLE_ID + " text primary key,"
+                + COLUMN_PROVIDER + " text not null,"
+                + COLUMN_LAT + " text not null,"
+                + COLUMN_CORRECTED_LAT + " text,"
+                + COLUMN_INSTRUCTION_LAT + " text,"
+                + COLUMN_LNG + " text not null,"
+                + COLUMN_CORRECTED_LNG + " text,"
+                + COLUMN_INSTRUCTION_LNG + " text,"
+                + COLUMN_INSTRUCTION_BEARING + " numberic,"
+                + COLUMN_ALT + " text not null,"
+                + COLUMN_ACC + " integer not null,"
+                + COLUMN_TIME + " numeric not null,"
+                + COLUMN_ROUTE_ID + " text not null,"
+                + COLUMN_SPEED + " numeric not null,"
+                + COLUMN_BEARING + " numeric not null,"
+                + COLUMN_DUMP + " text not null)");
+        db.execSQL("CREATE UNIQUE INDEX unique_location on " + TABLE_LOCATIONS
+                + " (" + COLUMN_SPEED + "," + COLUMN_LAT + "," + COLUMN_LNG
+                + "," + COLUMN_ACC + "," + COLUMN_BEARING + "," + COLUMN_TIME + ");");
+
+        db.execSQL("create table " + TABLE_ROUTE_GEOMETRY + " ("
+                + COLUMN_TABLE_ID + " text primary key,"
+                + COLUMN_ROUTE_ID + " text not null,"
+                + COLUMN_POSITION + " integer not null,"
+                + COLUMN_LAT + " text not null,"
+                + COLUMN_LNG + " text not null)");
+        db.execSQL("CREATE UNIQUE INDEX route_lat_lng on " + TABLE_ROUTE_GEOMETRY
+                + " (" + COLUMN_ROUTE_ID + "," + COLUMN_LAT + ", " + COLUMN_LNG + ");");
+
+        db.execSQL("create table " + TABLE_LOG_ENTRIES + " ("
+                + COLUMN_TABLE_ID + " text primary key,"
+                + COLUMN_TAG + " text not null,"
+                + COLUMN_MSG + " text not null)");
+    }
+}
@@ -240,14 +240,12 @@ public final class TestHelper {
         ContentValues logValues = new ContentValues();
         logValues.put(DatabaseHelper.COLUMN_TAG, "tag");
         logValues.put(DatabaseHelper.COLUMN_MSG, "log message");
-        logValues.put(DatabaseHelper.COLUMN_TABLE_ID, UUID.randomUUID().toString());
         db.insert(DatabaseHelper.TABLE_LOG_ENTRIES, null, logValues);
     }
 
     private static void populateRoutesGeometryTable(SQLiteDatabase db) {
         String routeId = UUID.randomUUID().toString();
         ContentValues values = new ContentValues();
-        values.put(DatabaseHelper.COLUMN_TABLE_ID, UUID.randomUUID().toString());
         values.put(DatabaseHelper.COLUMN_ROUTE_ID, routeId);
         values.put(DatabaseHelper.COLUMN_POSITION, 0);
         values.put(DatabaseHelper.COLUMN_LAT, 0);
@@ -0,0 +1,183 @@
+package com.mapzen.open.util;
+
+import com.mapzen.open.support.LegacySchema;
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import static com.mapzen.open.support.TestHelper.getTestInstruction;
+import static com.mapzen.open.support.TestHelper.getTestLocation;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_ACC;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_ALT;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_BEARING;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_DUMP;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_LAT;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_LNG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_MSG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_POSITION;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_PROVIDER;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_ROUTE_ID;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_SPEED;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_TABLE_ID;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_TAG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_TIME;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_LOCATIONS;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_LOG_ENTRIES;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_ROUTE_GEOMETRY;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_UPLOAD_QUEUE;
+import static org.fest.assertions.api.ANDROID.assertThat;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class DatabaseHelperTest {
+    private DatabaseHelper helper;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        helper = new DatabaseHelper(Robolectric.application);
+        db = helper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    @Test
+    public void onCreate_shouldStoreCoordinatesAsReal() throws Exception {
+        db.insert(TABLE_LOCATIONS, null, DatabaseHelper.valuesForLocationCorrection(
+                getTestLocation(40.0, -73.0), getTestLocation(40.0, -73.0),
+                getTestInstruction(40.0, -73.0), "route"));
+        assertThat(getString("select typeof(" + COLUMN_LAT + ") from " + TABLE_LOCATIONS))
+                .isEqualTo("real");
+        assertThat(getString("select typeof(" + COLUMN_TABLE_ID + ") from " + TABLE_LOCATIONS))
+                .isEqualTo("integer");
+    }
+
+    @Test
+    public void onUpgrade_shouldKeepLocationsOrderedByTime() throws Exception {
+        LegacySchema.downgradeToVersion9(db);
+        insertVersion9Location("b", "40.5", "-73.5", 2000);
+        insertVersion9Location("a", "40.25", "-73.25", 1000);
+        helper.onUpgrade(db, 9, DatabaseHelper.VERSION);
+
+        Cursor cursor = db.query(TABLE_LOCATIONS,
+                new String[] { COLUMN_TABLE_ID, COLUMN_LAT, COLUMN_LNG, COLUMN_TIME },
+                null, null, null, null, COLUMN_TABLE_ID);
+        assertThat(cursor).hasCount(2);
+        cursor.moveToFirst();
+        assertThat(cursor.getLong(0)).isEqualTo(1);
+        assertThat(cursor.getDouble(1)).isEqualTo(40.25);
+        assertThat(cursor.getDouble(2)).isEqualTo(-73.25);
+        assertThat(cursor.getLong(3)).isEqualTo(1000);
+        cursor.close();
+    }
+
+    @Test
+    public void onUpgrade_shouldConvertLocationColumnsToNumbers() throws Exception {
+        LegacySchema.downgradeToVersion9(db);
+        insertVersion9Location("a", "40.25", "-73.25", 1000);
+        helper.onUpgrade(db, 9, DatabaseHelper.VERSION);
+        assertThat(getString("select typeof(" + COLUMN_LAT + ") from " + TABLE_LOCATIONS))
+                .isEqualTo("real");
+        assertThat(getString("select typeof(" + COLUMN_ALT + ") from " + TABLE_LOCATIONS))
+                .isEqualTo("real");
+        assertThat(getString("select typeof(" + COLUMN_TIME + ") from " + TABLE_LOCATIONS))
+                .isEqualTo("integer");
+    }
+
+    @Test
+    public void onUpgrade_shouldKeepRouteGeometryAndLogEntries() throws Exception {
+        LegacySchema.downgradeToVersion9(db);
+        ContentValues geometry = new ContentValues();
+        geometry.put(COLUMN_TABLE_ID, "geometry-id");
+        geometry.put(COLUMN_ROUTE_ID, "route");
+        geometry.put(COLUMN_POSITION, 0);
+        geometry.put(COLUMN_LAT, "40.25");
+        geometry.put(COLUMN_LNG, "-73.25");
+        db.insert(TABLE_ROUTE_GEOMETRY, null, geometry);
+        ContentValues log = new ContentValues();
+        log.put(COLUMN_TABLE_ID, "log-id");
+        log.put(COLUMN_TAG, "tag");
+        log.put(COLUMN_MSG, "message");
+        db.insert(TABLE_LOG_ENTRIES, null, log);
+        helper.onUpgrade(db, 9, DatabaseHelper.VERSION);
+
+        assertThat(getString("select typeof(" + COLUMN_LAT + ") from " + TABLE_ROUTE_GEOMETRY))
+                .isEqualTo("real");
+        assertThat(getString("select " + COLUMN_MSG + " from " + TABLE_LOG_ENTRIES))
+                .isEqualTo("message");
+    }
+
+    @Test
+    public void onUpgrade_shouldIndexLocationsByRouteAndTime() throws Exception {
+        LegacySchema.downgradeToVersion9(db);
+        helper.onUpgrade(db, 9, DatabaseHelper.VERSION);
+        assertThat(getString("select name from sqlite_master where type = 'index' and "
+                + "tbl_name = '" + TABLE_LOCATIONS + "' and name = 'location_route_time'"))
+                .isEqualTo("location_route_time");
+    }
+
+    @Test
+    public void onUpgrade_shouldMoveUniqueIndexesToNewTables() throws Exception {
+        LegacySchema.downgradeToVersion9(db);
+        insertVersion9Location("a", "40.25", "-73.25", 1000);
+        helper.onUpgrade(db, 9, DatabaseHelper.VERSION);
+        assertThat(getString("select tbl_name from sqlite_master where type = 'index' and "
+                + "name = 'unique_location'")).isEqualTo(TABLE_LOCATIONS);
+        assertThat(getString("select tbl_name from sqlite_master where type = 'index' and "
+                + "name = 'route_lat_lng'")).isEqualTo(TABLE_ROUTE_GEOMETRY);
+    }
+
+    @Test
+    public void onUpgrade_shouldCreateUploadQueue() throws Exception {
+        db.execSQL("drop table " + TABLE_UPLOAD_QUEUE);
+        helper.onUpgrade(db, 10, DatabaseHelper.VERSION);
+        assertThat(getString("select name from sqlite_master where type = 'table' and "
+                + "name = '" + TABLE_UPLOAD_QUEUE + "'")).isEqualTo(TABLE_UPLOAD_QUEUE);
+    }
+
+    @Test
+    public void onUpgrade_shouldRecreateTablesOlderThanFirstMigratedVersion() throws Exception {
+        insertVersion9Location(null, "40.25", "-73.25", 1000);
+        helper.onUpgrade(db, DatabaseHelper.FIRST_MIGRATED_VERSION - 1, DatabaseHelper.VERSION);
+        Cursor cursor = db.query(TABLE_LOCATIONS, null, null, null, null, null, null);
+        assertThat(cursor).hasCount(0);
+        cursor.close();
+    }
+
+    private void insertVersion9Location(String id, String lat, String lng, long time) {
+        ContentValues values = new ContentValues();
+        if (id != null) {
+            values.put(COLUMN_TABLE_ID, id);
+        }
+        values.put(COLUMN_PROVIDER, "fused");
+        values.put(COLUMN_LAT, lat);
+        values.put(COLUMN_LNG, lng);
+        values.put(COLUMN_ALT, "12.0");
+        values.put(COLUMN_ACC, 5);
+        values.put(COLUMN_TIME, time);
+        values.put(COLUMN_ROUTE_ID, "route");
+        values.put(COLUMN_SPEED, 10.0);
+        values.put(COLUMN_BEARING, 90.0);
+        values.put(COLUMN_DUMP, "dump");
+        db.insert(TABLE_LOCATIONS, null, values);
+    }
+
+    private String getString(String query) {
+        Cursor cursor = db.rawQuery(query, null);
+        cursor.moveToFirst();
+        String value = cursor.getString(0);
+        cursor.close();
+        return value;
+    }
+}
@@ -0,0 +1,151 @@
+package com.mapzen.open.util;
+
+import com.mapzen.open.support.LegacySchema;
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.mapzen.open.support.TestHelper.getTestInstruction;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_ALT;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_GROUP_ID;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_LAT;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_LNG;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_ROUTE_ID;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_SPEED;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_TABLE_ID;
+import static com.mapzen.open.util.DatabaseHelper.COLUMN_TIME;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_LOCATIONS;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_ROUTE_GROUP;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Compares insert and query throughput of the version 9 locations table with the current one.
+ * Not part of the regular test run; run with {@code mvn test -Dtest=DatabaseSchemaBenchmark}.
+ */
+@RunWith(MapzenTestRunner.class)
+public class DatabaseSchemaBenchmark {
+    private static final int GROUPS = 20;
+    private static final int FIXES_PER_GROUP = 500;
+    private static final int QUERY_ROUNDS = 5;
+
+    private static final String TRACK_QUERY = "select " + COLUMN_LAT + ", " + COLUMN_LNG + ", "
+            + COLUMN_ALT + ", " + TABLE_LOCATIONS + "." + COLUMN_TIME + ", " + COLUMN_SPEED
+            + " from " + TABLE_ROUTE_GROUP + " inner join " + TABLE_LOCATIONS + " on "
+            + TABLE_ROUTE_GROUP + "." + COLUMN_ROUTE_ID + " = "
+            + TABLE_LOCATIONS + "." + COLUMN_ROUTE_ID
+            + " where " + COLUMN_GROUP_ID + " = ? order by " + TABLE_LOCATIONS + "."
+            + COLUMN_TIME;
+
+    private static final String BOUNDS_QUERY = "select min(" + COLUMN_LAT + "), max("
+            + COLUMN_LAT + "), min(" + COLUMN_LNG + "), max(" + COLUMN_LNG + ") from "
+            + TABLE_ROUTE_GROUP + " inner join " + TABLE_LOCATIONS + " on "
+            + TABLE_LOCATIONS + "." + COLUMN_ROUTE_ID + " = " + TABLE_ROUTE_GROUP + "."
+            + COLUMN_ROUTE_ID + " where " + COLUMN_GROUP_ID + " = ?";
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new DatabaseHelper(Robolectric.application).getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    @Test
+    public void version9Schema() throws Exception {
+        LegacySchema.downgradeToVersion9(db);
+        run("version 9", true);
+    }
+
+    @Test
+    public void currentSchema() throws Exception {
+        run("version " + DatabaseHelper.VERSION, false);
+    }
+
+    private void run(String name, boolean uuidKeys) {
+        final List<String> groupIds = new ArrayList<String>();
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (int group = 0; group < GROUPS; group++) {
+                groupIds.add(insertGroup(group, uuidKeys));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        final long insertNanos = System.nanoTime() - start;
+
+        int rows = 0;
+        start = System.nanoTime();
+        for (int round = 0; round < QUERY_ROUNDS; round++) {
+            for (String groupId : groupIds) {
+                rows += readAll(TRACK_QUERY, groupId);
+                readAll(BOUNDS_QUERY, groupId);
+            }
+        }
+        final long queryNanos = System.nanoTime() - start;
+        assertThat(rows).isEqualTo(GROUPS * FIXES_PER_GROUP * QUERY_ROUNDS);
+
+        final int fixes = GROUPS * FIXES_PER_GROUP;
+        final int queries = GROUPS * QUERY_ROUNDS;
+        System.out.println(String.format("%s: %d inserts in %d ms (%.0f rows/s), "
+                + "%d track and bounds reads in %d ms (%.1f groups/s)", name, fixes,
+                insertNanos / 1000000, fixes * 1e9 / insertNanos, queries,
+                queryNanos / 1000000, queries * 1e9 / queryNanos));
+    }
+
+    private String insertGroup(int group, boolean uuidKeys) {
+        final String groupId = "group-" + group;
+        final String routeId = "route-" + group;
+        final ContentValues routeGroup = new ContentValues();
+        routeGroup.put(COLUMN_ROUTE_ID, routeId);
+        routeGroup.put(COLUMN_GROUP_ID, groupId);
+        db.insert(TABLE_ROUTE_GROUP, null, routeGroup);
+
+        for (int i = 0; i < FIXES_PER_GROUP; i++) {
+            final Location location = new Location("fused");
+            location.setLatitude(40.0 + group * 0.01 + i * 0.0001);
+            location.setLongitude(-73.0 - i * 0.0001);
+            location.setAltitude(10.0);
+            location.setAccuracy(5);
+            location.setSpeed(12.0f);
+            location.setBearing(i % 360);
+            location.setTime(group * 1000000L + i * 1000L);
+            final ContentValues values = DatabaseHelper.valuesForLocationCorrection(location,
+                    location, getTestInstruction(40.0, -73.0), routeId);
+            if (uuidKeys) {
+                values.put(COLUMN_TABLE_ID, UUID.randomUUID().toString());
+            }
+            db.insert(TABLE_LOCATIONS, null, values);
+        }
+        return groupId;
+    }
+
+    private int readAll(String query, String groupId) {
+        final Cursor cursor = db.rawQuery(query, new String[] { groupId });
+        int count = 0;
+        while (cursor.moveToNext()) {
+            cursor.getDouble(0);
+            count++;
+        }
+        cursor.close();
+        return count;
+    }
+}
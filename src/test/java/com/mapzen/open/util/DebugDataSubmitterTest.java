@@ -4,6 +4,7 @@ import com.mapzen.open.MapzenApplication;
 import com.mapzen.open.activity.BaseActivity;
 import com.mapzen.open.support.MapzenTestRunner;
 
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.squareup.okhttp.mockwebserver.MockResponse;
 import com.squareup.okhttp.mockwebserver.MockWebServer;
@@ -17,7 +18,9 @@ import org.junit.runner.RunWith;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.util.zip.GZIPInputStream;
 
 import javax.inject.Inject;
 
@@ -73,11 +76,50 @@ public class DebugDataSubmitterTest {
     @Test
     public void setFile_shouldSubmitChosenFile() throws Exception {
         server.enqueue(new MockResponse());
+        db.rawQuery("PRAGMA wal_checkpoint(FULL)", null).close();
         File file = new File(db.getPath());
         byte[] expectedBody = Files.toByteArray(file);
         submitter.run();
         RecordedRequest request = server.takeRequest();
-        assertThat(request.getBody()).isEqualTo(expectedBody);
+        assertThat(ByteStreams.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(request.getBody())))).isEqualTo(expectedBody);
+    }
+
+    @Test
+    public void shouldStreamGzippedChunks() throws Exception {
+        server.enqueue(new MockResponse());
+        submitter.run();
+        RecordedRequest request = server.takeRequest();
+        assertThat(request.getHeader("Content-Encoding")).isEqualTo("gzip");
+        assertThat(request.getHeader("Transfer-Encoding")).isEqualTo("chunked");
+    }
+
+    @Test
+    public void shouldReportProgress() throws Exception {
+        server.enqueue(new MockResponse());
+        final long[] progress = new long[2];
+        submitter.setProgressListener(new DebugDataSubmitter.ProgressListener() {
+            @Override
+            public void onProgress(long bytesSent, long totalBytes) {
+                progress[0] = bytesSent;
+                progress[1] = totalBytes;
+            }
+        });
+        submitter.run();
+        assertThat(progress[1]).isGreaterThan(0);
+        assertThat(progress[0]).isEqualTo(progress[1]);
+    }
+
+    @Test
+    public void truncateDatabase_shouldKeepRowsAddedAfterSnapshot() throws Exception {
+        long[] lastRowIds = submitter.readLastRowIds();
+        populateDatabase(db);
+        submitter.truncateDatabase(lastRowIds);
+        for (String table : DebugDataSubmitter.EXPORTED_TABLES) {
+            Cursor cursor = db.query(table, null, null, null, null, null, null);
+            assertThat(cursor).hasCount(1);
+            cursor.close();
+        }
     }
 
     @Test
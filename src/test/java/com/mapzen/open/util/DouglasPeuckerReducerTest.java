@@ -0,0 +1,134 @@
+package com.mapzen.open.util;
+
+import com.mapzen.open.route.RouteGeometry;
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(MapzenTestRunner.class)
+public class DouglasPeuckerReducerTest {
+    @Test
+    public void shouldReduceStraightLineToEndpoints() throws Exception {
+        RouteGeometry line = getSawtooth(1000, 0);
+        RouteGeometry reduced = DouglasPeuckerReducer.reduceWithTolerance(line, 1);
+        assertThat(reduced.size()).isEqualTo(2);
+        assertThat(reduced.getGeoPoint(0)).isEqualTo(line.getGeoPoint(0));
+        assertThat(reduced.getGeoPoint(1)).isEqualTo(line.getGeoPoint(line.size() - 1));
+    }
+
+    @Test
+    public void shouldKeepPointsOutsideTolerance() throws Exception {
+        // teeth are about 11 meters high
+        RouteGeometry sawtooth = getSawtooth(100, 100);
+        assertThat(DouglasPeuckerReducer.reduceWithTolerance(sawtooth, 5).size())
+                .isEqualTo(100);
+        assertThat(DouglasPeuckerReducer.reduceWithTolerance(sawtooth, 20).size())
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotReduceWithoutTolerance() throws Exception {
+        RouteGeometry line = getSawtooth(10, 0);
+        assertThat(DouglasPeuckerReducer.reduceWithTolerance(line, 0)).isSameAs(line);
+    }
+
+    @Test
+    public void shouldMatchSequentialResultInParallel() throws Exception {
+        final int n = DouglasPeuckerReducer.PARALLEL_THRESHOLD * 5;
+        int[] lats = new int[n];
+        int[] lngs = new int[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = (int) (Math.sin(i / 500.0) * 10000);
+            lngs[i] = i * 10;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            boolean[] sequential = DouglasPeuckerReducer.mark(lats, lngs, 2, null);
+            boolean[] parallel = DouglasPeuckerReducer.mark(lats, lngs, 2, executor);
+            assertThat(parallel).isEqualTo(sequential);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldFinishWhenExecutorNeverRunsTasks() throws Exception {
+        final int n = DouglasPeuckerReducer.PARALLEL_THRESHOLD * 5;
+        int[] lats = new int[n];
+        int[] lngs = new int[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = (int) (Math.sin(i / 500.0) * 10000);
+            lngs[i] = i * 10;
+        }
+
+        // stands in for a pool whose threads are all blocked
+        final ArrayList<Runnable> stuck = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                stuck.add(command);
+            }
+        };
+        boolean[] sequential = DouglasPeuckerReducer.mark(lats, lngs, 2, null);
+        assertThat(DouglasPeuckerReducer.mark(lats, lngs, 2, executor)).isEqualTo(sequential);
+        assertThat(stuck).isNotEmpty();
+    }
+
+    @Test
+    public void shouldThrowInsteadOfReturningPartialMarksWhenInterrupted() throws Exception {
+        final int n = DouglasPeuckerReducer.PARALLEL_THRESHOLD * 2;
+        int[] lats = new int[n];
+        int[] lngs = new int[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = (int) (Math.sin(i / 500.0) * 10000);
+            lngs[i] = i * 10;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Thread.currentThread().interrupt();
+        try {
+            DouglasPeuckerReducer.mark(lats, lngs, 2, executor);
+            fail("expected CancellationException");
+        } catch (CancellationException e) {
+            assertThat(Thread.interrupted()).isTrue();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldNotOverflowStackOnDeepShapes() throws Exception {
+        // a tight spiral keeps nearly every point, which used to mean one stack frame per point
+        final int n = 20000;
+        int[] lats = new int[n];
+        int[] lngs = new int[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = (int) (Math.sin(i * 0.1) * i * 10);
+            lngs[i] = (int) (Math.cos(i * 0.1) * i * 10);
+        }
+        boolean[] marked = DouglasPeuckerReducer.mark(lats, lngs, 0.01, null);
+        assertThat(marked[0]).isTrue();
+        assertThat(marked[n - 1]).isTrue();
+    }
+
+    private static RouteGeometry getSawtooth(int size, int heightE6) {
+        int[] lats = new int[size];
+        int[] lngs = new int[size];
+        for (int i = 0; i < size; i++) {
+            lats[i] = (i % 2) * heightE6;
+            lngs[i] = i * 1000;
+        }
+        return new RouteGeometry(lats, lngs);
+    }
+}
@@ -0,0 +1,52 @@
+package com.mapzen.open.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class GpxWriterTest {
+    private StringWriter output;
+    private GpxWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        output = new StringWriter();
+        writer = new GpxWriter(output);
+    }
+
+    @Test
+    public void begin_shouldOpenTrackSegment() throws Exception {
+        writer.begin();
+        assertThat(output.toString()).startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        assertThat(output.toString()).contains("<name>Mapzen Route</name>");
+        assertThat(output.toString()).endsWith("<trkseg>\n");
+    }
+
+    @Test
+    public void addTrackPoint_shouldWritePoint() throws Exception {
+        writer.addTrackPoint(40.5, -73.25, 12.0, 0, 8.5);
+        assertThat(output.toString()).contains("<trkpt lat=\"40.5\" lon=\"-73.25\">");
+        assertThat(output.toString()).contains("<ele>12.0</ele>");
+        assertThat(output.toString()).contains("<speed>8.5</speed>");
+        assertThat(writer.getPointCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void addTrackPoint_shouldWriteSmallValuesWithoutExponent() throws Exception {
+        writer.addTrackPoint(0.0005, -0.00012, 0.0001, 0, 0.0009);
+        assertThat(output.toString()).contains("<trkpt lat=\"0.0005\" lon=\"-0.00012\">");
+        assertThat(output.toString()).contains("<ele>0.0001</ele>");
+        assertThat(output.toString()).contains("<speed>0.0009</speed>");
+        assertThat(output.toString()).doesNotContain("E-");
+    }
+
+    @Test
+    public void end_shouldCloseDocument() throws Exception {
+        writer.begin();
+        writer.end();
+        assertThat(output.toString()).endsWith("</trkseg>\n  </trk>\n</gpx>\n");
+    }
+}
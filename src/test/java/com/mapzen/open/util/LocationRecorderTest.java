@@ -0,0 +1,112 @@
+package com.mapzen.open.util;
+
+import com.mapzen.open.support.MapzenTestRunner;
+import com.mapzen.osrm.Instruction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+import android.os.Looper;
+
+import static com.mapzen.open.support.TestHelper.getTestInstruction;
+import static com.mapzen.open.support.TestHelper.getTestLocation;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_GROUPS;
+import static com.mapzen.open.util.DatabaseHelper.TABLE_LOCATIONS;
+import static org.fest.assertions.api.ANDROID.assertThat;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(MapzenTestRunner.class)
+public class LocationRecorderTest {
+    private SQLiteDatabase db;
+    private LocationRecorder recorder;
+    private Instruction instruction;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new DatabaseHelper(Robolectric.application).getWritableDatabase();
+        recorder = new LocationRecorder(db, Looper.getMainLooper());
+        instruction = getTestInstruction(0, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Robolectric.unPauseMainLooper();
+        db.close();
+    }
+
+    @Test
+    public void record_shouldNotWriteBeforeBatchIsFull() throws Exception {
+        record(1);
+        assertThat(countLocations()).isEqualTo(0);
+        assertThat(recorder.getQueuedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void record_shouldWriteFullBatchInOneTransaction() throws Exception {
+        record(LocationRecorder.BATCH_SIZE);
+        assertThat(countLocations()).isEqualTo(LocationRecorder.BATCH_SIZE);
+        assertThat(recorder.getWrittenCount()).isEqualTo(LocationRecorder.BATCH_SIZE);
+        assertThat(recorder.getBatchCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void record_shouldWriteAfterFlushInterval() throws Exception {
+        record(1);
+        Robolectric.getUiThreadScheduler().advanceBy(LocationRecorder.FLUSH_INTERVAL);
+        assertThat(countLocations()).isEqualTo(1);
+    }
+
+    @Test
+    public void record_shouldDropOldestFixWhenBufferIsFull() throws Exception {
+        Robolectric.pauseMainLooper();
+        record(LocationRecorder.CAPACITY + 1);
+        assertThat(recorder.getDroppedCount()).isEqualTo(1);
+        Robolectric.unPauseMainLooper();
+        assertThat(countLocations()).isEqualTo(LocationRecorder.CAPACITY);
+    }
+
+    @Test
+    public void flush_shouldWriteQueuedFixes() throws Exception {
+        record(3);
+        recorder.flush();
+        assertThat(countLocations()).isEqualTo(3);
+        assertThat(recorder.getQueuedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void runAfterWrites_shouldRunOnceQueuedFixesAreWritten() throws Exception {
+        record(3);
+        recorder.runAfterWrites(new Runnable() {
+            @Override
+            public void run() {
+                db.execSQL("insert into " + TABLE_GROUPS + " (_id) values ('"
+                        + countLocations() + "')");
+            }
+        });
+        Cursor cursor = db.query(TABLE_GROUPS, new String[] { "_id" }, null, null, null, null,
+                null);
+        assertThat(cursor).hasCount(1);
+        cursor.moveToFirst();
+        assertThat(cursor.getString(0)).isEqualTo("3");
+    }
+
+    private void record(int count) {
+        for (int i = 0; i < count; i++) {
+            Location location = getTestLocation("fused", 40.0f, -73.0f, i);
+            recorder.record(location, location, instruction, "route");
+        }
+    }
+
+    private int countLocations() {
+        Cursor cursor = db.query(TABLE_LOCATIONS, null, null, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,68 @@
+package com.mapzen.open.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class RollingAverageTest {
+    private RollingAverage average;
+
+    @Before
+    public void setUp() throws Exception {
+        average = new RollingAverage(3);
+    }
+
+    @Test
+    public void getAverage_shouldDefaultToZero() throws Exception {
+        assertThat(average.getAverage()).isEqualTo(0);
+    }
+
+    @Test
+    public void getAverage_shouldAverageValuesAdded() throws Exception {
+        average.add(1);
+        average.add(2);
+        assertThat(average.getAverage()).isEqualTo(1.5f);
+    }
+
+    @Test
+    public void getAverage_shouldOnlyAverageLastValues() throws Exception {
+        average.add(200);
+        average.add(10);
+        average.add(10);
+        average.add(10);
+        assertThat(average.getAverage()).isEqualTo(10);
+        assertThat(average.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void setCapacity_shouldKeepMostRecentValues() throws Exception {
+        average.add(1);
+        average.add(2);
+        average.add(3);
+        average.add(4);
+        average.setCapacity(2);
+        assertThat(average.getAverage()).isEqualTo(3.5f);
+        average.add(6);
+        assertThat(average.getAverage()).isEqualTo(5);
+    }
+
+    @Test
+    public void setCapacity_shouldGrowWindow() throws Exception {
+        average.add(1);
+        average.add(2);
+        average.setCapacity(4);
+        average.add(3);
+        average.add(6);
+        assertThat(average.getAverage()).isEqualTo(3);
+        assertThat(average.getCapacity()).isEqualTo(4);
+    }
+
+    @Test
+    public void clear_shouldResetAverage() throws Exception {
+        average.add(5);
+        average.clear();
+        assertThat(average.getAverage()).isEqualTo(0);
+        assertThat(average.size()).isEqualTo(0);
+    }
+}
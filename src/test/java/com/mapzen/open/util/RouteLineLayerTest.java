@@ -0,0 +1,128 @@
+package com.mapzen.open.util;
+
+import com.mapzen.open.route.RouteGeometry;
+import com.mapzen.open.route.RouteLevelOfDetail;
+import com.mapzen.open.shadows.ShadowGLShader;
+import com.mapzen.open.support.MapzenTestRunner;
+
+import org.fest.assertions.data.Offset;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.oscim.backend.GL20;
+import org.oscim.map.TestMap;
+import org.oscim.renderer.LayerRendererTestHelper;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+
+import static com.mapzen.open.util.RouteLineLayer.FLOATS_PER_VERTEX;
+import static com.mapzen.open.util.RouteLineLayer.FRAGMENT_SHADER;
+import static com.mapzen.open.util.RouteLineLayer.VERTEX_SHADER;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MapzenTestRunner.class)
+public class RouteLineLayerTest {
+    private RouteLineLayer layer;
+    private LayerRendererTestHelper layerRendererTestHelper;
+    private GL20 mockGL20;
+
+    @Before
+    public void setUp() throws Exception {
+        layer = new RouteLineLayer(new TestMap());
+        mockGL20 = Mockito.mock(GL20.class);
+        layerRendererTestHelper = new LayerRendererTestHelper(layer.getRenderer());
+        LayerRendererTestHelper.init(mockGL20);
+    }
+
+    @Test
+    public void shouldCreateShader() throws Exception {
+        layerRendererTestHelper.update(new LayerRendererTestHelper.TestGLViewport());
+        assertThat(ShadowGLShader.getVertexSource()).isEqualTo(VERTEX_SHADER);
+        assertThat(ShadowGLShader.getFragmentSource()).isEqualTo(FRAGMENT_SHADER);
+    }
+
+    @Test
+    public void shouldNotUploadWithoutRoute() throws Exception {
+        layerRendererTestHelper.update(new LayerRendererTestHelper.TestGLViewport());
+        verify(mockGL20, never()).glBufferData(anyInt(), anyInt(), any(Buffer.class), anyInt());
+    }
+
+    @Test
+    public void shouldUploadRouteOnce() throws Exception {
+        layer.setRoute(getTestRoute());
+        layerRendererTestHelper.update(new LayerRendererTestHelper.TestGLViewport(12));
+        layerRendererTestHelper.update(new LayerRendererTestHelper.TestGLViewport(14));
+        verify(mockGL20, times(1)).glBufferData(eq(GL20.GL_ARRAY_BUFFER),
+                eq(3 * 2 * FLOATS_PER_VERTEX * 4), any(Buffer.class), eq(GL20.GL_STATIC_DRAW));
+    }
+
+    @Test
+    public void shouldOnlyDrawWhenRendering() throws Exception {
+        layer.setRoute(getTestRoute());
+        layerRendererTestHelper.update(new LayerRendererTestHelper.TestGLViewport(12));
+        layerRendererTestHelper.render(new LayerRendererTestHelper.TestGLViewport(12));
+        layerRendererTestHelper.render(new LayerRendererTestHelper.TestGLViewport(13));
+        verify(mockGL20, times(1)).glBufferData(anyInt(), anyInt(), any(Buffer.class), anyInt());
+        verify(mockGL20, times(2)).glDrawArrays(GL20.GL_TRIANGLE_STRIP, 0, 6);
+    }
+
+    @Test
+    public void shouldTrimTraveledPartOfRoute() throws Exception {
+        layer.setRoute(getTestRoute());
+        layer.setTraveledIndex(1);
+        layerRendererTestHelper.update(new LayerRendererTestHelper.TestGLViewport(12));
+        layerRendererTestHelper.render(new LayerRendererTestHelper.TestGLViewport(12));
+        verify(mockGL20).glDrawArrays(GL20.GL_TRIANGLE_STRIP, 2, 4);
+        verify(mockGL20, times(1)).glBufferData(anyInt(), anyInt(), any(Buffer.class), anyInt());
+    }
+
+    @Test
+    public void setRoute_shouldResetTraveledIndex() throws Exception {
+        layer.setTraveledIndex(1);
+        layer.setRoute(getTestRoute());
+        assertThat(layer.getTraveledIndex()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReleaseBuffersWhenRouteIsCleared() throws Exception {
+        layer.setRoute(getTestRoute());
+        layerRendererTestHelper.update(new LayerRendererTestHelper.TestGLViewport(12));
+        layer.clear();
+        layerRendererTestHelper.update(new LayerRendererTestHelper.TestGLViewport(12));
+        verify(mockGL20).glDeleteBuffers(eq(1), any(IntBuffer.class));
+    }
+
+    @Test
+    public void buildVertices_shouldExtrudeBothSidesOfLine() throws Exception {
+        RouteGeometry geometry = new RouteGeometry(new int[] { 0, 0 }, new int[] { 0, 1000000 });
+        float[] vertices = RouteLineLayer.buildVertices(geometry, 0.5, 0.5);
+        assertThat(vertices).hasSize(2 * 2 * FLOATS_PER_VERTEX);
+        assertThat(vertices[2]).isEqualTo(0.0f, Offset.offset(1e-6f));
+        assertThat(vertices[3]).isEqualTo(1.0f, Offset.offset(1e-6f));
+        assertThat(vertices[6]).isEqualTo(0.0f, Offset.offset(1e-6f));
+        assertThat(vertices[7]).isEqualTo(-1.0f, Offset.offset(1e-6f));
+    }
+
+    @Test
+    public void buildVertices_shouldLengthenCorners() throws Exception {
+        RouteGeometry geometry = new RouteGeometry(new int[] { 0, 0, 10000 },
+                new int[] { 0, 10000, 10000 });
+        float[] vertices = RouteLineLayer.buildVertices(geometry, 0.5, 0.5);
+        int corner = 2 * FLOATS_PER_VERTEX;
+        double length = Math.hypot(vertices[corner + 2], vertices[corner + 3]);
+        assertThat(length).isEqualTo(Math.sqrt(2), Offset.offset(1e-3));
+    }
+
+    private RouteLevelOfDetail getTestRoute() {
+        return new RouteLevelOfDetail(new RouteGeometry(new int[] { 0, 1000, 2000 },
+                new int[] { 0, 1000, 0 }));
+    }
+}
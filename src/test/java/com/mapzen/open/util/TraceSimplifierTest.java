@@ -0,0 +1,82 @@
+package com.mapzen.open.util;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TraceSimplifierTest {
+    private static final int LAT = 40743000;
+    private static final int LNG = -73990000;
+    // roughly one meter of latitude
+    private static final int METER_E6 = 9;
+
+    @Test
+    public void mark_shouldKeepEndsOfShortTrace() throws Exception {
+        boolean[] marked = new TraceSimplifier(10, 5).mark(
+                new int[] { LAT, LAT + 1000 }, new int[] { LNG, LNG });
+        assertThat(marked).isEqualTo(new boolean[] { true, true });
+    }
+
+    @Test
+    public void mark_shouldHandleEmptyTrace() throws Exception {
+        assertThat(new TraceSimplifier(10, 5).mark(new int[0], new int[0])).isEmpty();
+    }
+
+    @Test
+    public void mark_shouldCollapseDuplicatesToFirstAndLastFix() throws Exception {
+        boolean[] marked = new TraceSimplifier(0, 0).mark(
+                new int[] { LAT, LAT, LAT, LAT + 1000 }, new int[] { LNG, LNG, LNG, LNG });
+        assertThat(marked).isEqualTo(new boolean[] { true, false, true, true });
+    }
+
+    @Test
+    public void mark_shouldKeepEndOfDuplicatedStopBeforeMoving() throws Exception {
+        int[] lats = new int[] { LAT, LAT, LAT, LAT, LAT + 50 * METER_E6,
+                LAT + 100 * METER_E6 };
+        int[] lngs = new int[] { LNG, LNG, LNG, LNG, LNG, LNG };
+        boolean[] marked = new TraceSimplifier(10, 5).mark(lats, lngs);
+        assertThat(marked).isEqualTo(new boolean[] { true, false, false, true, false, true });
+    }
+
+    @Test
+    public void mark_shouldKeepSingleFix() throws Exception {
+        assertThat(new TraceSimplifier(10, 5).mark(new int[] { LAT }, new int[] { LNG }))
+                .isEqualTo(new boolean[] { true });
+    }
+
+    @Test
+    public void mark_shouldCollapseStationaryClusterToFirstAndLastFix() throws Exception {
+        int[] lats = new int[] { LAT, LAT + 2 * METER_E6, LAT - 3 * METER_E6, LAT + METER_E6,
+                LAT + 200 * METER_E6 };
+        int[] lngs = new int[] { LNG, LNG + METER_E6, LNG - 2 * METER_E6, LNG, LNG };
+        boolean[] marked = new TraceSimplifier(10, 0).mark(lats, lngs);
+        assertThat(marked).isEqualTo(new boolean[] { true, false, false, true, true });
+    }
+
+    @Test
+    public void mark_shouldKeepMovingFixesWithoutTolerance() throws Exception {
+        int[] lats = new int[] { LAT, LAT + 20 * METER_E6, LAT + 40 * METER_E6,
+                LAT + 60 * METER_E6 };
+        int[] lngs = new int[] { LNG, LNG, LNG, LNG };
+        boolean[] marked = new TraceSimplifier(10, 0).mark(lats, lngs);
+        assertThat(marked).isEqualTo(new boolean[] { true, true, true, true });
+    }
+
+    @Test
+    public void mark_shouldDropFixesOnStraightLine() throws Exception {
+        int[] lats = new int[] { LAT, LAT + 20 * METER_E6, LAT + 40 * METER_E6,
+                LAT + 60 * METER_E6 };
+        int[] lngs = new int[] { LNG, LNG + METER_E6, LNG - METER_E6, LNG };
+        boolean[] marked = new TraceSimplifier(10, 5).mark(lats, lngs);
+        assertThat(marked).isEqualTo(new boolean[] { true, false, false, true });
+    }
+
+    @Test
+    public void mark_shouldKeepCorners() throws Exception {
+        int[] lats = new int[] { LAT, LAT + 50 * METER_E6, LAT + 100 * METER_E6,
+                LAT + 100 * METER_E6, LAT + 100 * METER_E6 };
+        int[] lngs = new int[] { LNG, LNG, LNG, LNG + 50 * METER_E6, LNG + 100 * METER_E6 };
+        boolean[] marked = new TraceSimplifier(10, 5).mark(lats, lngs);
+        assertThat(marked).isEqualTo(new boolean[] { true, false, true, false, true });
+    }
+}
@@ -41,6 +41,7 @@ public class DebugViewTest {
         Instruction instruction = route.getRouteInstructions().get(0);
         debugView.setClosestInstruction(instruction);
         debugView.setClosestDistance(30);
+        debugView.setFrameAllocations(0);
     }
 
     @Test
@@ -168,4 +169,15 @@ public class DebugViewTest {
         assertThat(getDirectionForBearing(202.6f)).isEqualTo("SW");
         assertThat(getDirectionForBearing(350.0f)).isEqualTo("N");
     }
+
+    @Test
+    public void renderStats_shouldHaveTitle() throws Exception {
+        assertThat((TextView) debugView.findViewById(R.id.render_stats))
+                .hasText("Rendering");
+    }
+
+    @Test
+    public void renderStats_shouldHaveFrameAllocations() throws Exception {
+        assertThat(debugView.frameAllocations).hasText("0 allocations per frame");
+    }
 }